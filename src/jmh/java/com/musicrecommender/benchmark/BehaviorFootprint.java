@@ -0,0 +1,115 @@
+package com.musicrecommender.benchmark;
+
+import com.musicrecommender.model.MoodScore.MoodCategory;
+import com.musicrecommender.model.UserBehavior;
+import com.musicrecommender.service.TimeContextLearningService;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Heap footprint of recorded behaviors: the same generated behaviors (one mood, up to three
+ * search tags and a typing speed, as the recorder builds them) held once as UserBehavior
+ * objects and once recorded into {@link TimeContextLearningService}, which keeps them as
+ * packed records. Each is measured as the live heap after a full GC, so the learning figure
+ * includes the per-user state (histogram, cache entry) spread over each user's behaviors.
+ *
+ * <pre>
+ * mvn -Pbenchmark compile exec:exec -Dbenchmark.main=com.musicrecommender.benchmark.BehaviorFootprint \
+ *     -Dbenchmark.jvm.args=-Xmx2g -Djmh.args="--records 1000000 --users 10000"
+ * </pre>
+ */
+public final class BehaviorFootprint {
+
+    private static final MoodCategory[] MOODS = MoodCategory.values();
+    private static final String[] TAGS = {"study", "focus", "chill", "workout", "jazz", "sleep", "rain", "party",
+        "lofi", "road trip", "morning", "coding", "piano", "summer", "sad songs", "throwback"};
+
+    private BehaviorFootprint() {
+    }
+
+    public static void main(String[] args) {
+        int records = Integer.parseInt(option(args, "--records", "1000000"));
+        int users = Integer.parseInt(option(args, "--users", "10000"));
+        int perUser = records / users;
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        long baseline = liveHeap(memory);
+        UserBehavior[] objects = new UserBehavior[users * perUser];
+        Random random = new Random(42);
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = behavior(random, "user-" + i % users);
+        }
+        long objectBytes = liveHeap(memory) - baseline;
+        System.out.printf("%,d UserBehavior objects: %,.1f MB, %.1f bytes/record%n",
+            objects.length, objectBytes / 1e6, (double) objectBytes / objects.length);
+        objects = null;
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("recommender.learning.history-capacity", perUser);
+        properties.put("recommender.learning.memory-budget-mb", 0);
+        properties.put("recommender.learning.spill.enabled", false);
+        properties.put("recommender.metrics.enabled", false);
+        try (AnnotationConfigApplicationContext context = BenchmarkContext.create(properties)) {
+            TimeContextLearningService learning = context.getBean(TimeContextLearningService.class);
+            baseline = liveHeap(memory);
+            random = new Random(42);
+            for (int i = 0; i < users * perUser; i++) {
+                String userId = "user-" + i % users;
+                learning.recordBehavior(userId, behavior(random, userId));
+            }
+            long packedBytes = liveHeap(memory) - baseline;
+            System.out.printf("%,d packed records for %,d users: %,.1f MB, %.1f bytes/record "
+                    + "(estimated %,.1f MB, %d distinct tags)%n",
+                learning.getBehaviorCount(), learning.getUserCount(), packedBytes / 1e6,
+                (double) packedBytes / learning.getBehaviorCount(), learning.getEstimatedBytes() / 1e6,
+                learning.getTagCount());
+            System.out.printf("%.1fx smaller%n", (double) objectBytes / packedBytes);
+        }
+    }
+
+    /**
+     * Heap in use after a full collection
+     */
+    private static long liveHeap(MemoryMXBean memory) {
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * A behavior as BehaviorRecorder builds it; tags are copied as they would be when read
+     * from each request
+     */
+    private static UserBehavior behavior(Random random, String userId) {
+        UserBehavior behavior = new UserBehavior();
+        behavior.setUserId(userId);
+        behavior.setTimestamp(LocalDateTime.of(2024, 1, 1 + random.nextInt(28), random.nextInt(24), random.nextInt(60)));
+        Map<String, Integer> moodHistory = new HashMap<>();
+        moodHistory.put(MOODS[random.nextInt(MOODS.length)].name(), 1);
+        behavior.setMoodHistory(moodHistory);
+        int tags = random.nextInt(4);
+        if (tags > 0) {
+            Map<String, Integer> tagFrequency = new HashMap<>();
+            for (int i = 0; i < tags; i++) {
+                tagFrequency.merge(new String(TAGS[random.nextInt(TAGS.length)]), 1, Integer::sum);
+            }
+            behavior.setTagFrequency(tagFrequency);
+        }
+        behavior.setAverageTypingSpeed(0.5 + random.nextDouble() * 7.5);
+        return behavior;
+    }
+
+    private static String option(String[] args, String name, String defaultValue) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
+        }
+        return defaultValue;
+    }
+}
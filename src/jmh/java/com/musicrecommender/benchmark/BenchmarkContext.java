@@ -0,0 +1,40 @@
+package com.musicrecommender.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.musicrecommender.controller.RecommendationController;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import java.util.Map;
+
+/**
+ * Builds the service graph without starting the web server, so the benchmarks
+ * measure the same wiring the application uses
+ */
+final class BenchmarkContext {
+
+    private BenchmarkContext() {
+    }
+
+    static AnnotationConfigApplicationContext create() {
+        return create(Map.of());
+    }
+
+    /**
+     * Creates the context with the given application properties
+     */
+    static AnnotationConfigApplicationContext create(Map<String, Object> properties) {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark", properties));
+        context.scan("com.musicrecommender.service", "com.musicrecommender.persistence", "com.musicrecommender.catalog");
+        // Provided by Spring Boot's auto-configuration in the application
+        context.registerBean(ObjectMapper.class, () -> new ObjectMapper().findAndRegisterModules());
+        context.registerBean(MeterRegistry.class, () -> new PrometheusMeterRegistry(PrometheusConfig.DEFAULT));
+        context.register(RecommendationController.class);
+        context.refresh();
+        return context;
+    }
+}
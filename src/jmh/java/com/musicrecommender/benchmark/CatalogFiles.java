@@ -0,0 +1,38 @@
+package com.musicrecommender.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Generates synthetic catalog CSV files with the bundled categories and moods
+ */
+final class CatalogFiles {
+
+    private static final String[] CATEGORIES = {"lofi", "electronic", "jazz", "classical", "ambient", "indie", "rock", "hiphop"};
+    private static final String[] MOODS = {"relaxed", "focused", "calm", "tired", "energetic", "happy", "sad"};
+
+    private CatalogFiles() {
+    }
+
+    /**
+     * Writes a temporary CSV of the given number of tracks; the caller deletes it
+     */
+    static Path generate(int tracks, long seed) throws IOException {
+        Path file = Files.createTempFile("catalog", ".csv");
+        Random random = new Random(seed);
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("category,title,artist,genre,duration,mood,energy\n");
+            for (int i = 0; i < tracks; i++) {
+                String category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+                writer.write(category + ",Track " + i + " " + Long.toString(random.nextLong() & 0xffffffL, 36)
+                    + ",Artist " + random.nextInt(50_000) + "," + category + "," + (90 + random.nextInt(300))
+                    + "," + MOODS[random.nextInt(MOODS.length)] + "," + random.nextInt(101) / 100f + "\n");
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,61 @@
+package com.musicrecommender.benchmark;
+
+import com.musicrecommender.catalog.SongCatalog;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup cost of the song catalog: loads a generated CSV of the given size into a
+ * fresh context and prints the catalog's measured footprint per track
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class CatalogLoadBenchmark {
+
+    @Param({"1000000"})
+    private int tracks;
+
+    private Path file;
+    private Map<String, Object> properties;
+    private AnnotationConfigApplicationContext context;
+
+    @Setup(Level.Trial)
+    public void writeCatalog() throws IOException {
+        file = CatalogFiles.generate(tracks, 42);
+        properties = new HashMap<>();
+        properties.put("recommender.catalog.songs-location", file.toUri().toString());
+    }
+
+    @Benchmark
+    public SongCatalog load() {
+        context = BenchmarkContext.create(properties);
+        return context.getBean(SongCatalog.class);
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeContext() {
+        if (context != null) {
+            SongCatalog.Footprint footprint = context.getBean(SongCatalog.class).footprint();
+            System.out.printf("%n%d tracks: %.1f bytes/track (%,d bytes total)%n",
+                footprint.tracks(), footprint.bytesPerTrack(), footprint.totalBytes());
+            context.close();
+            context = null;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteCatalog() throws IOException {
+        Files.deleteIfExists(file);
+    }
+}
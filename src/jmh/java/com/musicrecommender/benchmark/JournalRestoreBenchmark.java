@@ -0,0 +1,108 @@
+package com.musicrecommender.benchmark;
+
+import com.musicrecommender.model.MoodScore.MoodCategory;
+import com.musicrecommender.model.UserBehavior;
+import com.musicrecommender.service.TimeContextLearningService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Restart warm-up time: how long the learning service takes to restore its state
+ * from the behavior journal, either from a snapshot or by replaying the whole log.
+ * Each iteration starts a fresh context over the same data directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class JournalRestoreBenchmark {
+
+    private static final MoodCategory[] MOODS = MoodCategory.values();
+    private static final String[] TAGS = {"study", "focus", "chill", "workout", "jazz", "sleep"};
+
+    @Param({"1000000"})
+    private int users;
+
+    @Param({"3"})
+    private int behaviorsPerUser;
+
+    @Param({"snapshot", "log"})
+    private String restoreFrom;
+
+    private Path directory;
+    private Map<String, Object> properties;
+    private AnnotationConfigApplicationContext context;
+
+    @Setup(Level.Trial)
+    public void writeJournal() throws IOException {
+        directory = Files.createTempDirectory("behavior-journal");
+        properties = new HashMap<>();
+        properties.put("recommender.persistence.enabled", "true");
+        properties.put("recommender.persistence.directory", directory.toString());
+        properties.put("recommender.persistence.snapshot-interval-seconds", "86400");
+        properties.put("recommender.persistence.snapshot-on-shutdown", String.valueOf(restoreFrom.equals("snapshot")));
+        properties.put("recommender.persistence.segment-size-mb", "256");
+        properties.put("recommender.learning.history-capacity", String.valueOf(behaviorsPerUser));
+        // Every user stays in memory, so only the restore is measured
+        properties.put("recommender.learning.memory-budget-mb", "0");
+        properties.put("recommender.learning.spill.enabled", "false");
+
+        Random random = new Random(42);
+        try (AnnotationConfigApplicationContext writer = BenchmarkContext.create(properties)) {
+            TimeContextLearningService learning = writer.getBean(TimeContextLearningService.class);
+            for (int round = 0; round < behaviorsPerUser; round++) {
+                for (int user = 0; user < users; user++) {
+                    learning.recordBehavior("user-" + user, behavior(random, user));
+                }
+            }
+        }
+        // Later contexts only read the journal
+        properties.put("recommender.persistence.snapshot-on-shutdown", "false");
+    }
+
+    @Benchmark
+    public TimeContextLearningService restore() {
+        context = BenchmarkContext.create(properties);
+        return context.getBean(TimeContextLearningService.class);
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeContext() {
+        if (context != null) {
+            context.close();
+            context = null;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteJournal() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static UserBehavior behavior(Random random, int user) {
+        UserBehavior behavior = new UserBehavior();
+        behavior.setUserId("user-" + user);
+        behavior.setTimestamp(LocalDateTime.of(2024, 1, 1 + random.nextInt(28), random.nextInt(24), 0));
+        behavior.setMoodHistory(Map.of(MOODS[random.nextInt(MOODS.length)].name(), 1));
+        behavior.setTagFrequency(Map.of(TAGS[random.nextInt(TAGS.length)], 1));
+        behavior.setAverageTypingSpeed(0.5 + random.nextDouble() * 7.5);
+        return behavior;
+    }
+}
@@ -0,0 +1,133 @@
+package com.musicrecommender.benchmark;
+
+import com.musicrecommender.model.MoodScore.MoodCategory;
+import com.musicrecommender.model.MoodVector;
+import com.musicrecommender.model.UserBehavior;
+import com.musicrecommender.service.TimeContextLearningService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adjusting a mood with what was learned ({@code adjustMoodWithLearning}) for returning
+ * users: alone ({@code read}), and by three readers while a fourth thread records new
+ * behaviors for the same users ({@code readWhileWriting}); {@code write} is the recording
+ * alone. Reads take the user's published priors snapshot, so their time should not grow
+ * with {@code historyCapacity} and {@code read} should allocate nothing
+ * (gc.alloc.rate.norm); in the group, the allocation is the writer's.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LearningPriorsBenchmark {
+
+    private static final int USERS = 1024;
+    private static final int BEHAVIORS = 4096;
+    private static final MoodCategory[] MOODS = MoodCategory.values();
+
+    @Param({"16", "100", "1000"})
+    private int historyCapacity;
+
+    private AnnotationConfigApplicationContext context;
+    private TimeContextLearningService learning;
+    private String[] userIds;
+    private UserBehavior[] behaviors;
+
+    @State(Scope.Thread)
+    public static class Reader {
+        private final MoodVector mood = new MoodVector();
+        private int cursor;
+    }
+
+    @State(Scope.Thread)
+    public static class Writer {
+        private int cursor;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.create(Map.of(
+            "recommender.metrics.enabled", false,
+            "recommender.learning.spill.enabled", false,
+            "recommender.learning.memory-budget-mb", 0,
+            "recommender.learning.idle-timeout-seconds", 0,
+            "recommender.learning.history-capacity", historyCapacity));
+        learning = context.getBean(TimeContextLearningService.class);
+
+        Random random = new Random(42);
+        userIds = new String[USERS];
+        for (int user = 0; user < USERS; user++) {
+            userIds[user] = "user-" + user;
+        }
+        behaviors = new UserBehavior[BEHAVIORS];
+        for (int i = 0; i < BEHAVIORS; i++) {
+            behaviors[i] = behavior(random, userIds[i & (USERS - 1)]);
+        }
+        // Fill every history
+        for (int i = 0; i < USERS * historyCapacity; i++) {
+            UserBehavior behavior = behaviors[i & (BEHAVIORS - 1)];
+            learning.recordBehavior(behavior.getUserId(), behavior);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public MoodVector read(Reader reader) {
+        return adjust(reader);
+    }
+
+    @Benchmark
+    public void write(Writer writer) {
+        record(writer);
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(3)
+    public MoodVector reader(Reader reader) {
+        return adjust(reader);
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(1)
+    public void writer(Writer writer) {
+        record(writer);
+    }
+
+    private void record(Writer writer) {
+        UserBehavior behavior = behaviors[writer.cursor];
+        writer.cursor = (writer.cursor + 1) & (BEHAVIORS - 1);
+        learning.recordBehavior(behavior.getUserId(), behavior);
+    }
+
+    private MoodVector adjust(Reader reader) {
+        int user = reader.cursor;
+        reader.cursor = (reader.cursor + 1) & (USERS - 1);
+        MoodVector mood = reader.mood;
+        mood.clear();
+        mood.set(MoodCategory.FOCUSED, 1.0);
+        learning.adjustMoodWithLearning(userIds[user], user % 24, mood);
+        return mood;
+    }
+
+    private static UserBehavior behavior(Random random, String userId) {
+        UserBehavior behavior = new UserBehavior();
+        behavior.setUserId(userId);
+        behavior.setTimestamp(LocalDateTime.of(2024, 1, 1 + random.nextInt(28), random.nextInt(24), random.nextInt(60)));
+        behavior.setMoodHistory(Map.of(MOODS[random.nextInt(MOODS.length)].name(), 1));
+        behavior.setAverageTypingSpeed(0.5 + random.nextDouble() * 7.5);
+        return behavior;
+    }
+}
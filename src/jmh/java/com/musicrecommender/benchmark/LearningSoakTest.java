@@ -0,0 +1,143 @@
+package com.musicrecommender.benchmark;
+
+import com.musicrecommender.model.MoodScore.MoodCategory;
+import com.musicrecommender.model.UserBehavior;
+import com.musicrecommender.service.TimeContextLearningService;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Soak test for the learning memory budget: a stream of behaviors from an ever-growing
+ * population of users, with returning users mixed in, recorded straight into
+ * {@link TimeContextLearningService}. Every report interval it forces a full GC and prints
+ * the live heap next to the resident and spilled user counts, so a flat heap over a long
+ * run shows that memory is bounded by the budget rather than by the number of users.
+ *
+ * <pre>
+ * mvn -Pbenchmark compile exec:exec -Dbenchmark.main=com.musicrecommender.benchmark.LearningSoakTest \
+ *     -Dbenchmark.jvm.args=-Xmx512m -Djmh.args="--seconds 600 --budget-mb 64"
+ * </pre>
+ *
+ * Options: --seconds (default 600), --report-seconds (10), --budget-mb (64; 0 for unbounded),
+ * --spill (true), --new-users (share of behaviors from first-time users, default 0.5),
+ * --hot-users (size of a frequently returning group, 10000; the rest of the returning
+ * behaviors come from any user seen so far).
+ */
+public final class LearningSoakTest {
+
+    private static final MoodCategory[] MOODS = MoodCategory.values();
+    private static final String[] TAGS = {"study", "focus", "chill", "workout", "jazz", "sleep", "rain", "party"};
+
+    private LearningSoakTest() {
+    }
+
+    public static void main(String[] args) {
+        int seconds = Integer.parseInt(option(args, "--seconds", "600"));
+        int reportSeconds = Integer.parseInt(option(args, "--report-seconds", "10"));
+        int budgetMb = Integer.parseInt(option(args, "--budget-mb", "64"));
+        boolean spill = Boolean.parseBoolean(option(args, "--spill", "true"));
+        double newUsers = Double.parseDouble(option(args, "--new-users", "0.5"));
+        int hotUsers = Integer.parseInt(option(args, "--hot-users", "10000"));
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("recommender.learning.memory-budget-mb", budgetMb);
+        properties.put("recommender.learning.spill.enabled", spill);
+        properties.put("recommender.metrics.enabled", false);
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        try (AnnotationConfigApplicationContext context = BenchmarkContext.create(properties)) {
+            TimeContextLearningService learning = context.getBean(TimeContextLearningService.class);
+            long baseline = liveHeap(memory);
+            System.out.printf("budget %d MB, spill %s, %.0f%% new users, %d hot users; baseline heap %.1f MB%n",
+                budgetMb, spill, newUsers * 100, hotUsers, baseline / 1e6);
+            System.out.printf("%8s %12s %12s %10s %10s %12s %10s %12s %10s%n", "seconds", "behaviors", "users",
+                "resident", "spilled", "estimated MB", "heap MB", "heap B/user", "reloads");
+
+            Random random = new Random(42);
+            long start = System.nanoTime();
+            long end = start + TimeUnit.SECONDS.toNanos(seconds);
+            long nextReport = start + TimeUnit.SECONDS.toNanos(reportSeconds);
+            long behaviors = 0;
+            int users = 0;
+            double firstHalfMax = 0;
+            double secondHalfMax = 0;
+            while (true) {
+                int user;
+                double choice = random.nextDouble();
+                if (users == 0 || choice < newUsers) {
+                    user = users++;
+                } else if (choice < newUsers + (1 - newUsers) / 2) {
+                    user = random.nextInt(Math.min(users, hotUsers));
+                } else {
+                    user = random.nextInt(users);
+                }
+                String userId = "user-" + user;
+                UserBehavior behavior = behavior(random, userId);
+                learning.getLearnedPatterns(userId, behavior.getTimestamp().getHour());
+                learning.recordBehavior(userId, behavior);
+                behaviors++;
+
+                if ((behaviors & 1023) == 0 && System.nanoTime() >= nextReport) {
+                    long now = System.nanoTime();
+                    long heap = liveHeap(memory) - baseline;
+                    long resident = learning.getUserCount();
+                    System.out.printf("%8d %12d %12d %10d %10d %12.1f %10.1f %12.0f %10d%n",
+                        TimeUnit.NANOSECONDS.toSeconds(now - start), behaviors, users, resident,
+                        learning.getSpilledUserCount(), learning.getEstimatedBytes() / 1e6, heap / 1e6,
+                        resident == 0 ? 0.0 : (double) heap / resident, learning.getReloadCount());
+                    if (now - start < (end - start) / 2) {
+                        firstHalfMax = Math.max(firstHalfMax, heap);
+                    } else {
+                        secondHalfMax = Math.max(secondHalfMax, heap);
+                    }
+                    if (now >= end) {
+                        break;
+                    }
+                    nextReport += TimeUnit.SECONDS.toNanos(reportSeconds);
+                }
+            }
+            System.out.printf("%d behaviors from %d users; peak live heap %.1f MB in the first half, %.1f MB in the second%n",
+                behaviors, users, firstHalfMax / 1e6, secondHalfMax / 1e6);
+        }
+    }
+
+    /**
+     * Heap in use after a full collection
+     */
+    private static long liveHeap(MemoryMXBean memory) {
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static UserBehavior behavior(Random random, String userId) {
+        UserBehavior behavior = new UserBehavior();
+        behavior.setUserId(userId);
+        behavior.setTimestamp(LocalDateTime.of(2024, 1, 1 + random.nextInt(28), random.nextInt(24), random.nextInt(60)));
+        Map<String, Integer> moodHistory = new HashMap<>();
+        moodHistory.put(MOODS[random.nextInt(MOODS.length)].name(), 1);
+        behavior.setMoodHistory(moodHistory);
+        if (random.nextBoolean()) {
+            Map<String, Integer> tagFrequency = new HashMap<>();
+            tagFrequency.put(TAGS[random.nextInt(TAGS.length)], 1);
+            behavior.setTagFrequency(tagFrequency);
+        }
+        behavior.setAverageTypingSpeed(0.5 + random.nextDouble() * 7.5);
+        return behavior;
+    }
+
+    private static String option(String[] args, String name, String defaultValue) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
+        }
+        return defaultValue;
+    }
+}
@@ -0,0 +1,129 @@
+package com.musicrecommender.benchmark;
+
+import com.musicrecommender.model.UserInput;
+import com.musicrecommender.service.SentimentAnalysisService;
+import com.musicrecommender.service.TextFeatureService;
+import com.musicrecommender.service.TextFeatures;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Text feature extraction with the shipped sentiment lexicon against one grown to
+ * {@code terms} entries: the shipped terms plus generated slang words and emoji, so the
+ * request text hits the same terms either way and only the table size differs. Each trial
+ * prints the lexicon's term count and table memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexiconBenchmark {
+
+    private static final int INPUTS = 1024;
+    private static final String[] SENTIMENTS = {"positive", "negative", "stress", "focus", "energy"};
+    private static final String[] EMOJI = {"😀", "😭", "🔥", "😴", "💯", "😤", "🤯", "🎧", "📚", "✨"};
+
+    // 0 = the shipped lexicon
+    @Param({"0", "100000"})
+    private int terms;
+
+    @Param({"32"})
+    private int words;
+
+    private Path lexiconFile;
+    private AnnotationConfigApplicationContext context;
+    private TextFeatureService textFeatureService;
+    private String[] texts;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Map<String, Object> properties = Map.of("recommender.metrics.enabled", false);
+        if (terms > 0) {
+            lexiconFile = Files.createTempFile("sentiment-lexicon", ".tsv");
+            writeLexicon(lexiconFile, terms);
+            properties = Map.of("recommender.metrics.enabled", false,
+                "recommender.sentiment.lexicon-location", lexiconFile.toUri().toString());
+        }
+        context = BenchmarkContext.create(properties);
+        textFeatureService = context.getBean(TextFeatureService.class);
+        SentimentAnalysisService sentimentAnalysisService = context.getBean(SentimentAnalysisService.class);
+        System.out.printf("%nlexicon: %d terms, %d bytes of table%n", sentimentAnalysisService.getLexiconSize(),
+            sentimentAnalysisService.getLexiconBytes());
+
+        List<UserInput> inputs = TextCorpus.generate(INPUTS, words, 42L);
+        texts = new String[INPUTS];
+        for (int i = 0; i < INPUTS; i++) {
+            texts[i] = inputs.get(i).getTextInput();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        if (lexiconFile != null) {
+            Files.deleteIfExists(lexiconFile);
+        }
+    }
+
+    @Benchmark
+    public TextFeatures extractFeatures() {
+        String text = texts[cursor];
+        cursor = (cursor + 1) & (INPUTS - 1);
+        return textFeatureService.extractFeatures(text);
+    }
+
+    /**
+     * The shipped lexicon, then random lowercase words (every tenth with an emoji) with one
+     * or two sentiments until there are {@code count} distinct terms
+     */
+    private static void writeLexicon(Path file, int count) throws IOException {
+        Set<String> written = new HashSet<>();
+        Random random = new Random(42);
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8));
+             BufferedReader shipped = new BufferedReader(new InputStreamReader(
+                 new ClassPathResource("lexicon/sentiment-lexicon.tsv").getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = shipped.readLine()) != null) {
+                writer.println(line);
+                if (!line.startsWith("#") && !line.isBlank()) {
+                    written.add(line.substring(0, line.indexOf('\t')));
+                }
+            }
+            StringBuilder term = new StringBuilder();
+            while (written.size() < count) {
+                term.setLength(0);
+                for (int i = 3 + random.nextInt(8); i > 0; i--) {
+                    term.append((char) ('a' + random.nextInt(26)));
+                }
+                if (random.nextInt(10) == 0) {
+                    term.append(EMOJI[random.nextInt(EMOJI.length)]);
+                }
+                if (written.add(term.toString())) {
+                    String sentiments = SENTIMENTS[random.nextInt(SENTIMENTS.length)];
+                    if (random.nextInt(4) == 0) {
+                        sentiments += "," + SENTIMENTS[random.nextInt(SENTIMENTS.length)];
+                    }
+                    writer.println(term + "\t" + sentiments);
+                }
+            }
+        }
+    }
+}
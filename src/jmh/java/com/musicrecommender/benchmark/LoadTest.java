@@ -0,0 +1,158 @@
+package com.musicrecommender.benchmark;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop HTTP load generator for comparing request execution modes (platform vs
+ * virtual threads) against a running application. Each of the concurrent clients sends
+ * its next request as soon as the previous one completes; after a warm-up period the
+ * throughput and latency percentiles of the measured period are printed.
+ *
+ * <pre>
+ * mvn -Pbenchmark compile exec:exec -Dbenchmark.main=com.musicrecommender.benchmark.LoadTest \
+ *     -Djmh.args="--url http://localhost:8080/api/recommendations --concurrency 1000 --seconds 60"
+ * </pre>
+ *
+ * Options: --url, --concurrency (default 500), --seconds (60), --warmup-seconds (15),
+ * --users (distinct userIds, default 10000; 0 for anonymous requests), --body (JSON file to send
+ * instead of generated inputs).
+ */
+public final class LoadTest {
+
+    private static final String[] WORDS = {"studying", "exam", "tired", "so", "happy", "stressed", "deadline",
+        "coffee", "workout", "chill", "focus", "not", "really", "sleepy", "hype", "calm"};
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = option(args, "--url", "http://localhost:8080/api/recommendations");
+        int concurrency = Integer.parseInt(option(args, "--concurrency", "500"));
+        int seconds = Integer.parseInt(option(args, "--seconds", "60"));
+        int warmupSeconds = Integer.parseInt(option(args, "--warmup-seconds", "15"));
+        int users = Integer.parseInt(option(args, "--users", "10000"));
+        String bodyFile = option(args, "--body", null);
+        String fixedBody = bodyFile == null ? null : Files.readString(Path.of(bodyFile));
+
+        HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+        AtomicLong errors = new AtomicLong();
+        long[][] latencies = new long[concurrency][];
+        int[] counts = new int[concurrency];
+        CountDownLatch done = new CountDownLatch(concurrency);
+
+        for (int c = 0; c < concurrency; c++) {
+            int clientIndex = c;
+            Thread worker = new Thread(() -> {
+                Random random = new Random(clientIndex);
+                long[] samples = new long[1024];
+                int count = 0;
+                try {
+                    while (true) {
+                        long sent = System.nanoTime();
+                        if (sent >= end) {
+                            break;
+                        }
+                        String target = users > 0 ? url + "?userId=user-" + random.nextInt(users) : url;
+                        HttpRequest request = HttpRequest.newBuilder(URI.create(target))
+                            .header("Content-Type", "application/json")
+                            .timeout(Duration.ofSeconds(30))
+                            .POST(HttpRequest.BodyPublishers.ofString(fixedBody != null ? fixedBody : body(random)))
+                            .build();
+                        boolean ok;
+                        try {
+                            ok = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+                        } catch (IOException e) {
+                            ok = false;
+                        }
+                        long received = System.nanoTime();
+                        if (sent < measureFrom) {
+                            continue;
+                        }
+                        if (!ok) {
+                            errors.incrementAndGet();
+                        } else {
+                            if (count == samples.length) {
+                                samples = Arrays.copyOf(samples, count * 2);
+                            }
+                            samples[count++] = received - sent;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    latencies[clientIndex] = samples;
+                    counts[clientIndex] = count;
+                    done.countDown();
+                }
+            }, "load-" + c);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        done.await();
+
+        int total = Arrays.stream(counts).sum();
+        long[] all = new long[total];
+        int offset = 0;
+        for (int c = 0; c < concurrency; c++) {
+            System.arraycopy(latencies[c], 0, all, offset, counts[c]);
+            offset += counts[c];
+        }
+        Arrays.sort(all);
+
+        System.out.printf("%s, %d clients, %d s measured%n", url, concurrency, seconds);
+        System.out.printf("requests  %d ok, %d failed%n", total, errors.get());
+        System.out.printf("throughput  %.1f req/s%n", total / (double) seconds);
+        System.out.printf("latency ms  p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n",
+            percentile(all, 0.50), percentile(all, 0.90), percentile(all, 0.99), percentile(all, 0.999),
+            total == 0 ? 0 : all[total - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private static String body(Random random) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0, words = 2 + random.nextInt(20); i < words; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return String.format(Locale.ROOT, "{\"textInput\":\"%s\",\"typingSpeed\":%.2f,\"timeOfDay\":\"2024-01-15T%02d:%02d:00\"}",
+            text, 0.5 + random.nextDouble() * 7.5, random.nextInt(24), random.nextInt(60));
+    }
+
+    private static String option(String[] args, String name, String defaultValue) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
+        }
+        return defaultValue;
+    }
+}
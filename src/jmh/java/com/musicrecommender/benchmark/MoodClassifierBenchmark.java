@@ -0,0 +1,94 @@
+package com.musicrecommender.benchmark;
+
+import com.musicrecommender.classifier.MoodClassifierTrainer;
+import com.musicrecommender.classifier.MoodClassifierTrainer.Example;
+import com.musicrecommender.model.MoodScore;
+import com.musicrecommender.model.UserInput;
+import com.musicrecommender.service.MoodPredictionService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mood prediction latency of the keyword path (sentiment analysis, rules and their
+ * combination) against a trained classifier, on the held-out inputs of a synthetic labeled
+ * dataset ({@link MoodDataset}). The classifier is trained on the rest when the trial starts;
+ * each trial also prints the accuracy of its path on the held-out inputs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoodClassifierBenchmark {
+
+    private static final int EXAMPLES = 20_000;
+    private static final int HELD_OUT = 4096;
+
+    @Param({"false", "true"})
+    private boolean classifier;
+
+    @Param({"16"})
+    private int hashBits;
+
+    private Path modelFile;
+    private AnnotationConfigApplicationContext context;
+    private MoodPredictionService moodPredictionService;
+    private UserInput[] inputs;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        List<Example> examples = MoodDataset.generate(EXAMPLES, 42L);
+        List<Example> heldOut = examples.subList(0, HELD_OUT);
+
+        Map<String, Object> properties = Map.of("recommender.metrics.enabled", false);
+        if (classifier) {
+            MoodClassifierTrainer.Options defaults = MoodClassifierTrainer.Options.defaults();
+            MoodClassifierTrainer trainer = MoodClassifierTrainer.train(examples.subList(HELD_OUT, EXAMPLES),
+                new MoodClassifierTrainer.Options(hashBits, defaults.epochs(), defaults.learningRate(), defaults.l2(),
+                    defaults.seed()));
+            modelFile = Files.createTempFile("mood-model", ".bin");
+            trainer.write(modelFile);
+            properties = Map.of("recommender.metrics.enabled", false,
+                "recommender.classifier.model-file", modelFile.toString());
+        }
+        context = BenchmarkContext.create(properties);
+        moodPredictionService = context.getBean(MoodPredictionService.class);
+
+        inputs = new UserInput[HELD_OUT];
+        int correct = 0;
+        for (int i = 0; i < HELD_OUT; i++) {
+            Example example = heldOut.get(i);
+            inputs[i] = new UserInput(example.text(), example.typingSpeed(),
+                LocalDateTime.of(2024, 1, 15, example.hour(), 0), null);
+            MoodScore moodScore = moodPredictionService.predictMood(inputs[i], null);
+            correct += moodScore.getPrimaryMood().equals(example.mood().name()) ? 1 : 0;
+        }
+        System.out.printf("%n%s accuracy on %d held-out inputs: %.4f%n",
+            classifier ? "classifier" : "keyword path", HELD_OUT, correct / (double) HELD_OUT);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        if (modelFile != null) {
+            Files.deleteIfExists(modelFile);
+        }
+    }
+
+    @Benchmark
+    public MoodScore predictMood() {
+        int i = cursor;
+        cursor = (i + 1) & (HELD_OUT - 1);
+        return moodPredictionService.predictMood(inputs[i], null);
+    }
+}
@@ -0,0 +1,121 @@
+package com.musicrecommender.benchmark;
+
+import com.musicrecommender.classifier.MoodClassifierTrainer.Example;
+import com.musicrecommender.model.MoodScore.MoodCategory;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static com.musicrecommender.model.MoodScore.MoodCategory.*;
+
+/**
+ * Generates a synthetic labeled mood dataset, for benchmarking the classifier and trying
+ * out the trainer without real labels. Each example draws its mood first, then a typing
+ * speed and hour typical for that mood (often, not always), then text in which about one
+ * word in three is a cue for the mood, one in ten a cue for another mood and the rest
+ * filler; 5% of the labels are replaced by a random mood. The cues mix words of the
+ * sentiment lexicon with words it does not know, so the dataset rewards learning.
+ *
+ * <pre>
+ * mvn -Pbenchmark compile exec:exec -Dbenchmark.main=com.musicrecommender.benchmark.MoodDataset \
+ *     -Djmh.args="--out moods.tsv --count 20000"
+ * </pre>
+ *
+ * Options: --out, --count (default 20000), --seed (42).
+ */
+public final class MoodDataset {
+
+    static final MoodCategory[] MOODS = {TIRED, STRESSED, ENERGETIC, RELAXED, FOCUSED, ANXIOUS};
+
+    private static final String[][] CUES = {
+        {"tired", "exhausted", "sleepy", "drained", "nap", "bed", "zzz", "wiped", "sluggish", "coffee", "yawning"},
+        {"stressed", "deadline", "pressure", "overwhelmed", "ugh", "busy", "work", "behind", "due", "boss", "fr"},
+        {"pumped", "hype", "gym", "workout", "party", "dance", "run", "ready", "let's", "go", "energy", "lit"},
+        {"chill", "calm", "cozy", "peaceful", "unwind", "relaxing", "lazy", "sunday", "beach", "tea", "vibes"},
+        {"study", "studying", "focus", "homework", "reading", "coding", "concentrate", "notes", "essay", "library"},
+        {"nervous", "anxious", "worried", "scared", "overthinking", "uneasy", "interview", "afraid", "shaky", "what"}
+    };
+
+    private static final String[] FILLER = {
+        "i", "just", "need", "some", "music", "for", "this", "and", "the", "today", "tonight", "so",
+        "kinda", "gonna", "feel", "like", "lol", "it's", "my", "bro", "literally", "again", "after",
+        "before", "class", "friends", "week", "really", "very", "not", "a", "bit", "right", "now"
+    };
+
+    // Mean and spread of the typing speed, and the hours of day typical for each mood
+    private static final double[][] SPEEDS = {{1.5, 0.8}, {5.5, 1.5}, {6.0, 1.5}, {3.0, 1.0}, {4.0, 1.0}, {4.5, 1.8}};
+    private static final int[][] HOURS = {{22, 6}, {9, 18}, {7, 18}, {17, 23}, {9, 22}, {20, 3}};
+
+    private MoodDataset() {
+    }
+
+    public static List<Example> generate(int count, long seed) {
+        Random random = new Random(seed);
+        List<Example> examples = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int mood = random.nextInt(MOODS.length);
+            double speed = Math.max(0.2, SPEEDS[mood][0] + random.nextGaussian() * SPEEDS[mood][1]);
+            int hour = random.nextDouble() < 0.6 ? typicalHour(random, HOURS[mood]) : random.nextInt(24);
+
+            int words = 3 + random.nextInt(23);
+            StringBuilder text = new StringBuilder(words * 7);
+            for (int w = 0; w < words; w++) {
+                if (w > 0) {
+                    text.append(' ');
+                }
+                double draw = random.nextDouble();
+                String[] pool = draw < 0.3 ? CUES[mood]
+                    : draw < 0.4 ? CUES[random.nextInt(CUES.length)]
+                    : FILLER;
+                text.append(pool[random.nextInt(pool.length)]);
+                boolean loud = MOODS[mood] == ENERGETIC || MOODS[mood] == STRESSED;
+                if (random.nextInt(loud ? 6 : 20) == 0) {
+                    text.append('!');
+                }
+            }
+
+            int label = random.nextDouble() < 0.05 ? random.nextInt(MOODS.length) : mood;
+            examples.add(new Example(MOODS[label], speed, hour, text.toString()));
+        }
+        return examples;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path out = Paths.get(option(args, "--out", "moods.tsv"));
+        int count = Integer.parseInt(option(args, "--count", "20000"));
+        long seed = Long.parseLong(option(args, "--seed", "42"));
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(out, StandardCharsets.UTF_8))) {
+            writer.println("# mood\ttyping speed\thour\ttext");
+            for (Example example : generate(count, seed)) {
+                writer.printf(Locale.ROOT, "%s\t%.2f\t%d\t%s%n", example.mood().name(), example.typingSpeed(),
+                    example.hour(), example.text());
+            }
+        }
+        System.out.printf("%d examples written to %s%n", count, out);
+    }
+
+    /**
+     * An hour in the band from {@code band[0]} to {@code band[1]} (inclusive), wrapping past midnight
+     */
+    private static int typicalHour(Random random, int[] band) {
+        int length = Math.floorMod(band[1] - band[0], 24) + 1;
+        return (band[0] + random.nextInt(length)) % 24;
+    }
+
+    private static String option(String[] args, String name, String defaultValue) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
+        }
+        return defaultValue;
+    }
+}
@@ -0,0 +1,141 @@
+package com.musicrecommender.benchmark;
+
+import com.musicrecommender.controller.RecommendationController;
+import com.musicrecommender.model.*;
+import com.musicrecommender.service.*;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of each recommendation pipeline stage and of the full request path.
+ * Run with {@code -prof gc} (the profile default) to also report bytes allocated per operation.
+ * Metrics are recorded, as in production; {@code -p metrics=false,true} shows what they cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+
+    private static final int CORPUS_SIZE = 1024;
+    private static final int USERS = 64;
+
+    @Param({"4", "32", "256"})
+    private int words;
+
+    @Param({"false", "true"})
+    private boolean withUserId;
+
+    // Stage timers and mood counters, on as in production; -p metrics=false,true measures their overhead
+    @Param({"true"})
+    private boolean metrics;
+
+    private AnnotationConfigApplicationContext context;
+    private TextFeatureService textFeatureService;
+    private SentimentAnalysisService sentimentAnalysisService;
+    private RulesEngineService rulesEngineService;
+    private MoodPredictionService moodPredictionService;
+    private RecommendationEngineService recommendationEngineService;
+    private PlaylistGeneratorService playlistGeneratorService;
+    private RecommendationController recommendationController;
+
+    private UserInput[] inputs;
+    private String[] userIds;
+    private TextFeatures[] features;
+    private double[][] sentimentScores;
+    private MoodScore[] moodScores;
+    private List<MusicCategory>[] recommendations;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        // Measures the pipeline itself; ResponseCacheBenchmark covers the anonymous response cache
+        context = BenchmarkContext.create(Map.of("recommender.cache.enabled", false, "recommender.metrics.enabled", metrics));
+        textFeatureService = context.getBean(TextFeatureService.class);
+        sentimentAnalysisService = context.getBean(SentimentAnalysisService.class);
+        rulesEngineService = context.getBean(RulesEngineService.class);
+        moodPredictionService = context.getBean(MoodPredictionService.class);
+        recommendationEngineService = context.getBean(RecommendationEngineService.class);
+        playlistGeneratorService = context.getBean(PlaylistGeneratorService.class);
+        recommendationController = context.getBean(RecommendationController.class);
+
+        inputs = TextCorpus.generate(CORPUS_SIZE, words, 42L).toArray(new UserInput[0]);
+        userIds = new String[CORPUS_SIZE];
+        features = new TextFeatures[CORPUS_SIZE];
+        sentimentScores = new double[CORPUS_SIZE][];
+        moodScores = new MoodScore[CORPUS_SIZE];
+        recommendations = new List[CORPUS_SIZE];
+
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            userIds[i] = withUserId ? "user-" + (i % USERS) : null;
+            // Returning users: one pass through the controller seeds their learning history
+            if (withUserId) {
+                recommendationController.getRecommendations(inputs[i], userIds[i], 30);
+            }
+        }
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            features[i] = textFeatureService.extractFeatures(inputs[i].getTextInput());
+            sentimentScores[i] = sentimentAnalysisService.analyzeSentiment(features[i]);
+            moodScores[i] = moodPredictionService.predictMood(inputs[i], userIds[i]);
+            recommendations[i] = recommendationEngineService.getRecommendations(moodScores[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    private int next() {
+        int i = cursor;
+        cursor = (i + 1) & (CORPUS_SIZE - 1);
+        return i;
+    }
+
+    @Benchmark
+    public TextFeatures extractFeatures() {
+        return textFeatureService.extractFeatures(inputs[next()].getTextInput());
+    }
+
+    @Benchmark
+    public double[] analyzeSentiment() {
+        return sentimentAnalysisService.analyzeSentiment(features[next()]);
+    }
+
+    @Benchmark
+    public MoodVector applyRules() {
+        int i = next();
+        return rulesEngineService.applyRules(inputs[i], features[i], sentimentScores[i]);
+    }
+
+    @Benchmark
+    public MoodScore predictMood() {
+        int i = next();
+        return moodPredictionService.predictMood(inputs[i], userIds[i]);
+    }
+
+    @Benchmark
+    public List<MusicCategory> getRecommendations() {
+        return recommendationEngineService.getRecommendations(moodScores[next()]);
+    }
+
+    @Benchmark
+    public Playlist generatePlaylist() {
+        int i = next();
+        return playlistGeneratorService.generatePlaylist(moodScores[i], recommendations[i], 30);
+    }
+
+    @Benchmark
+    public ResponseEntity<RecommendationResponse> endToEnd() {
+        int i = next();
+        return recommendationController.getRecommendations(inputs[i], userIds[i], 30);
+    }
+}
@@ -0,0 +1,69 @@
+package com.musicrecommender.benchmark;
+
+import com.musicrecommender.model.MoodScore;
+import com.musicrecommender.model.MusicCategory;
+import com.musicrecommender.model.Playlist;
+import com.musicrecommender.service.PlaylistGeneratorService;
+import com.musicrecommender.service.RecommendationEngineService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Playlist assembly latency against catalog size and requested length.
+ * A catalog size of 0 uses the bundled catalog.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class PlaylistAssemblyBenchmark {
+
+    @Param({"0", "100000", "1000000"})
+    private int catalogSize;
+
+    @Param({"30", "120"})
+    private int playlistMinutes;
+
+    private Path file;
+    private AnnotationConfigApplicationContext context;
+    private PlaylistGeneratorService playlistGenerator;
+    private MoodScore moodScore;
+    private List<MusicCategory> recommendations;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Map<String, Object> properties = new HashMap<>();
+        if (catalogSize > 0) {
+            file = CatalogFiles.generate(catalogSize, 42);
+            properties.put("recommender.catalog.songs-location", file.toUri().toString());
+        }
+        context = BenchmarkContext.create(properties);
+        playlistGenerator = context.getBean(PlaylistGeneratorService.class);
+
+        moodScore = new MoodScore("STRESSED", 0.7, Map.of("stressed", 0.7, "tired", 0.4));
+        recommendations = context.getBean(RecommendationEngineService.class).getRecommendations(moodScore);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Benchmark
+    public Playlist generatePlaylist() {
+        return playlistGenerator.generatePlaylist(moodScore, recommendations, playlistMinutes);
+    }
+}
@@ -0,0 +1,112 @@
+package com.musicrecommender.benchmark;
+
+import com.musicrecommender.catalog.CatalogCategory;
+import com.musicrecommender.catalog.SongCatalog;
+import com.musicrecommender.model.MoodScore;
+import com.musicrecommender.model.MusicCategory;
+import com.musicrecommender.service.RecommendationEngineService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Precomputed per-mood candidate tables against the previous implementation, which
+ * rebuilt the mood and fit maps and sorted a fresh list on every call
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecommendationTableBenchmark {
+
+    private static final String[] MOODS = {"TIRED", "STRESSED", "ENERGETIC", "RELAXED", "FOCUSED", "ANXIOUS"};
+
+    private AnnotationConfigApplicationContext context;
+    private RecommendationEngineService recommendationEngine;
+    private SongCatalog songCatalog;
+    private MoodScore[] moodScores;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.create();
+        recommendationEngine = context.getBean(RecommendationEngineService.class);
+        songCatalog = context.getBean(SongCatalog.class);
+
+        Random random = new Random(42);
+        moodScores = new MoodScore[1024];
+        for (int i = 0; i < moodScores.length; i++) {
+            Map<String, Double> distribution = new HashMap<>();
+            for (String mood : MOODS) {
+                distribution.put(mood.toLowerCase(), random.nextDouble());
+            }
+            String primaryMood = MOODS[random.nextInt(MOODS.length)];
+            moodScores[i] = new MoodScore(primaryMood, distribution.get(primaryMood.toLowerCase()), distribution);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<MusicCategory> precomputed() {
+        return recommendationEngine.getRecommendations(nextMoodScore());
+    }
+
+    @Benchmark
+    public List<MusicCategory> perCallMaps() {
+        return legacyRecommendations(nextMoodScore());
+    }
+
+    private MoodScore nextMoodScore() {
+        return moodScores[next++ & (moodScores.length - 1)];
+    }
+
+    /**
+     * The previous getRecommendations, reading category metadata from the catalog
+     */
+    private List<MusicCategory> legacyRecommendations(MoodScore moodScore) {
+        String primaryMood = moodScore.getPrimaryMood().toLowerCase();
+        Map<String, Double> moodDistribution = moodScore.getMoodDistribution();
+
+        Map<String, List<String>> moodToCategories = new HashMap<>();
+        moodToCategories.put("tired", Arrays.asList("lofi", "ambient", "jazz", "classical"));
+        moodToCategories.put("stressed", Arrays.asList("lofi", "ambient", "classical", "indie"));
+        moodToCategories.put("energetic", Arrays.asList("electronic", "rock", "hiphop"));
+        moodToCategories.put("relaxed", Arrays.asList("jazz", "ambient", "indie", "lofi"));
+        moodToCategories.put("focused", Arrays.asList("classical", "lofi", "ambient", "jazz"));
+        moodToCategories.put("anxious", Arrays.asList("ambient", "classical", "lofi", "jazz"));
+        List<String> categoryKeys = moodToCategories.getOrDefault(primaryMood, Arrays.asList("lofi", "ambient"));
+
+        List<MusicCategory> recommendations = new ArrayList<>();
+        for (String categoryKey : categoryKeys) {
+            CatalogCategory category = songCatalog.category(categoryKey);
+            if (category != null) {
+                Map<String, Double> categoryMoodFit = new HashMap<>();
+                categoryMoodFit.put("lofi", 0.9);
+                categoryMoodFit.put("ambient", 0.85);
+                categoryMoodFit.put("classical", 0.8);
+                categoryMoodFit.put("jazz", 0.75);
+                categoryMoodFit.put("electronic", 0.9);
+                categoryMoodFit.put("rock", 0.85);
+                categoryMoodFit.put("hiphop", 0.8);
+                categoryMoodFit.put("indie", 0.7);
+                double relevanceScore = categoryMoodFit.getOrDefault(categoryKey, 0.5);
+                if (moodDistribution.containsKey(primaryMood)) {
+                    relevanceScore *= (0.5 + moodDistribution.get(primaryMood) * 0.5);
+                }
+                recommendations.add(new MusicCategory(category.categoryName(), category.description(),
+                    Math.min(1.0, relevanceScore), category.exampleArtists(), category.exampleTracks()));
+            }
+        }
+        recommendations.sort((a, b) -> Double.compare(b.getRelevanceScore(), a.getRelevanceScore()));
+        return recommendations.stream().limit(4).collect(Collectors.toList());
+    }
+}
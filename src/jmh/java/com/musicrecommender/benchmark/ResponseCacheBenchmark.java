@@ -0,0 +1,80 @@
+package com.musicrecommender.benchmark;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.musicrecommender.model.RecommendationResponse;
+import com.musicrecommender.model.UserInput;
+import com.musicrecommender.service.RecommendationCache;
+import com.musicrecommender.service.RecommendationPipelineService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Anonymous requests with repetitive traffic: inputs are drawn from a Zipf distribution
+ * over {@code distinctInputs} texts, with and without the response cache. Hit ratio and
+ * cache size are printed at the end of each trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseCacheBenchmark {
+
+    private static final int REQUESTS = 1 << 16;
+
+    @Param({"false", "true"})
+    public boolean cacheEnabled;
+
+    @Param({"1000", "100000"})
+    public int distinctInputs;
+
+    private AnnotationConfigApplicationContext context;
+    private RecommendationPipelineService pipelineService;
+    private RecommendationCache recommendationCache;
+    private UserInput[] requests;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.create(Map.of("recommender.cache.enabled", cacheEnabled));
+        pipelineService = context.getBean(RecommendationPipelineService.class);
+        recommendationCache = context.getBean(RecommendationCache.class);
+
+        List<UserInput> inputs = TextCorpus.generate(distinctInputs, 8, 42L);
+
+        // Zipf(s = 1) ranks via the inverse of the cumulative distribution
+        double[] cumulative = new double[distinctInputs];
+        double total = 0;
+        for (int rank = 0; rank < distinctInputs; rank++) {
+            total += 1.0 / (rank + 1);
+            cumulative[rank] = total;
+        }
+        Random random = new Random(7);
+        requests = new UserInput[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            requests[i] = inputs.get(rank < 0 ? -rank - 1 : rank);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (cacheEnabled) {
+            CacheStats stats = recommendationCache.getStats();
+            System.out.printf("%ncache: hit ratio %.3f, %d entries, %d KB, %d evictions%n", stats.hitRate(),
+                recommendationCache.getEntryCount(), recommendationCache.getEstimatedBytes() / 1024, stats.evictionCount());
+        }
+        context.close();
+    }
+
+    @Benchmark
+    public RecommendationResponse anonymousRequest() {
+        UserInput input = requests[cursor];
+        cursor = (cursor + 1) & (REQUESTS - 1);
+        return pipelineService.recommend(input, null, 30);
+    }
+}
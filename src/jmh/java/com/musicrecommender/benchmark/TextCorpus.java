@@ -0,0 +1,89 @@
+package com.musicrecommender.benchmark;
+
+import com.musicrecommender.model.UserInput;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates realistic free-text user inputs for the benchmarks.
+ * Roughly one word in four comes from the sentiment/rules vocabulary, the rest is
+ * chat-style filler with occasional punctuation, so lexicon hit rates stay realistic
+ * as the text gets longer.
+ */
+public final class TextCorpus {
+
+    private static final String[] MOOD_WORDS = {
+        "happy", "great", "awesome", "love", "excited", "good", "yeah",
+        "sad", "bad", "tired", "exhausted", "stressed", "anxious", "worried", "sick",
+        "deadline", "exam", "test", "work", "busy", "overwhelmed", "fr", "ugh",
+        "study", "studying", "focus", "homework", "assignment", "reading",
+        "energy", "pumped", "ready", "go", "party", "dance", "workout", "gym",
+        "very", "really", "extremely", "not", "don't", "can't"
+    };
+
+    private static final String[] FILLER = {
+        "i", "just", "need", "some", "music", "for", "this", "and", "the", "today",
+        "tonight", "so", "kinda", "gonna", "feel", "like", "lol", "it's", "my", "no",
+        "bro", "literally", "again", "after", "before", "class", "friends", "week"
+    };
+
+    private static final String[] PUNCTUATION = {"", "", "", "", ",", ".", "!", "?", "!!"};
+
+    private static final String[] TAGS = {
+        "study", "focus", "lo-fi", "chill", "workout", "energy", "jazz", "relax",
+        "sleep", "party", "classical", "rock", "hiphop", "ambient", "productivity"
+    };
+
+    private TextCorpus() {
+    }
+
+    /**
+     * Generates {@code count} inputs of {@code words} words each
+     */
+    public static List<UserInput> generate(int count, int words, long seed) {
+        Random random = new Random(seed);
+        List<UserInput> inputs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            inputs.add(new UserInput(
+                text(random, words),
+                0.5 + random.nextDouble() * 7.5,
+                LocalDateTime.of(2024, 1, 1 + random.nextInt(28), random.nextInt(24), random.nextInt(60)),
+                tags(random)
+            ));
+        }
+        return inputs;
+    }
+
+    /**
+     * Generates a single text of {@code words} words
+     */
+    public static String text(Random random, int words) {
+        StringBuilder text = new StringBuilder(words * 7);
+        for (int w = 0; w < words; w++) {
+            if (w > 0) {
+                text.append(' ');
+            }
+            String word = random.nextInt(4) == 0
+                ? MOOD_WORDS[random.nextInt(MOOD_WORDS.length)]
+                : FILLER[random.nextInt(FILLER.length)];
+            text.append(random.nextInt(10) == 0 ? capitalize(word) : word);
+            text.append(PUNCTUATION[random.nextInt(PUNCTUATION.length)]);
+        }
+        return text.toString();
+    }
+
+    private static List<String> tags(Random random) {
+        int count = random.nextInt(4);
+        List<String> tags = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tags.add(TAGS[random.nextInt(TAGS.length)]);
+        }
+        return tags;
+    }
+
+    private static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+}
@@ -0,0 +1,66 @@
+package com.musicrecommender.benchmark;
+
+import com.musicrecommender.catalog.TrackVectorIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Top-K retrieval latency over generated track vectors. The index is built directly from
+ * generated columns with the bundled categories and moods, since loading a 10M-track CSV
+ * would dominate the trial. {@code category} ranks one category with range pruning,
+ * {@code catalog} the whole catalog on one thread, and {@code catalogParallel} the whole
+ * catalog split across the common fork-join pool (one worker per available processor).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class TrackRetrievalBenchmark {
+
+    private static final int CATEGORIES = 8;
+    private static final String[] MOODS = {"relaxed", "focused", "calm", "tired", "energetic", "happy", "sad"};
+
+    @Param({"1000000", "10000000"})
+    private int tracks;
+
+    @Param({"256"})
+    private int k;
+
+    private TrackVectorIndex index;
+    private float[] query;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        int[] categoryCodes = new int[tracks];
+        int[] moodCodes = new int[tracks];
+        float[] energies = new float[tracks];
+        for (int id = 0; id < tracks; id++) {
+            categoryCodes[id] = random.nextInt(CATEGORIES);
+            moodCodes[id] = random.nextInt(MOODS.length);
+            energies[id] = random.nextInt(101) / 100f;
+        }
+        index = TrackVectorIndex.build(tracks, categoryCodes, CATEGORIES, moodCodes, MOODS, energies);
+        query = TrackVectorIndex.query(Map.of("stressed", 0.7, "tired", 0.4));
+    }
+
+    @Benchmark
+    public int[] category() {
+        return index.topK(0, query, k);
+    }
+
+    @Benchmark
+    public int[] catalog() {
+        return index.topK(query, k);
+    }
+
+    @Benchmark
+    public int[] catalogParallel() {
+        return index.topKParallel(query, k);
+    }
+}
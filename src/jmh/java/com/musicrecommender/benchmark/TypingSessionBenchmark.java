@@ -0,0 +1,88 @@
+package com.musicrecommender.benchmark;
+
+import com.musicrecommender.model.MoodScore;
+import com.musicrecommender.model.TypingDelta;
+import com.musicrecommender.model.TypingSessionStart;
+import com.musicrecommender.model.TypingSessionUpdate;
+import com.musicrecommender.model.UserInput;
+import com.musicrecommender.service.MoodPredictionService;
+import com.musicrecommender.service.TypingSessionService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one keystroke in a live typing session: a one-character delta applied to the
+ * session, against re-posting the whole text to predictMood. The session starts each
+ * iteration with {@code words} words already typed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TypingSessionBenchmark {
+
+    private static final LocalDateTime TIME_OF_DAY = LocalDateTime.of(2024, 1, 15, 14, 0);
+
+    @Param({"32", "256"})
+    public int words;
+
+    private AnnotationConfigApplicationContext context;
+    private TypingSessionService typingSessionService;
+    private MoodPredictionService moodPredictionService;
+    private UserInput fullText;
+    private TypingDelta[] keystrokes;
+    private String sessionId;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.create(Map.of("recommender.typing.max-text-length", Integer.MAX_VALUE));
+        typingSessionService = context.getBean(TypingSessionService.class);
+        moodPredictionService = context.getBean(MoodPredictionService.class);
+
+        Random random = new Random(42);
+        fullText = new UserInput(TextCorpus.text(random, words), 4.0, TIME_OF_DAY, null);
+
+        // One delta per character of more generated text, with a keystroke every 150-250 ms
+        String typed = " " + TextCorpus.text(random, 512);
+        keystrokes = new TypingDelta[typed.length()];
+        long time = 1_000_000L;
+        for (int i = 0; i < keystrokes.length; i++) {
+            time += 150 + random.nextInt(100);
+            keystrokes[i] = new TypingDelta(0, String.valueOf(typed.charAt(i)), List.of(time), null);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void openSession() {
+        if (sessionId != null) {
+            typingSessionService.close(sessionId);
+        }
+        sessionId = typingSessionService.open(new TypingSessionStart(TIME_OF_DAY, 4.0, null), null).getSessionId();
+        typingSessionService.update(sessionId, new TypingDelta(0, fullText.getTextInput(), null, null));
+        next = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public TypingSessionUpdate keystroke() {
+        TypingDelta delta = keystrokes[next];
+        next = next + 1 == keystrokes.length ? 0 : next + 1;
+        return typingSessionService.update(sessionId, delta);
+    }
+
+    @Benchmark
+    public MoodScore repost() {
+        return moodPredictionService.predictMood(fullText, null);
+    }
+}
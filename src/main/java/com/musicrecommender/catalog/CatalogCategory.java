@@ -0,0 +1,19 @@
+package com.musicrecommender.catalog;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Descriptive metadata of a music category, as loaded from the catalog.
+ * Tags are search tags the category answers, with a weight in [0, 1] for how strongly.
+ */
+public record CatalogCategory(String key, String categoryName, String description,
+                              List<String> exampleArtists, List<String> exampleTracks,
+                              Map<String, Double> tags) {
+
+    public CatalogCategory {
+        exampleArtists = exampleArtists == null ? List.of() : List.copyOf(exampleArtists);
+        exampleTracks = exampleTracks == null ? List.of() : List.copyOf(exampleTracks);
+        tags = tags == null ? Map.of() : Map.copyOf(tags);
+    }
+}
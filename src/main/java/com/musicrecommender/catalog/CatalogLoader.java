@@ -0,0 +1,29 @@
+package com.musicrecommender.catalog;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads tracks from one catalog file format. Every loader bean is offered the
+ * configured catalog location and the first that supports it streams the tracks
+ * into the catalog, so new formats plug in without touching {@link SongCatalog}.
+ */
+public interface CatalogLoader {
+
+    /**
+     * Whether this loader understands the file at the location (usually by extension)
+     */
+    boolean supports(String location);
+
+    void load(InputStream in, TrackSink sink) throws IOException;
+
+    /**
+     * Receives the loaded tracks one by one, in catalog order. A track missing a text field,
+     * with a duration that is not 0 or more seconds, or with an energy outside 0 to 1 is
+     * rejected with IllegalArgumentException, which the loader reports with its location.
+     */
+    interface TrackSink {
+        void accept(String category, String title, String artist, String genre,
+                    float duration, String mood, float energy);
+    }
+}
@@ -0,0 +1,105 @@
+package com.musicrecommender.catalog;
+
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Loads tracks from CSV with a header row naming the columns
+ * category, title, artist, genre, duration, mood and energy (in any order).
+ * Fields may be double-quoted to contain commas; a doubled quote is a literal quote.
+ * Every field is required; duration is seconds (0 or more) and energy is 0 to 1.
+ */
+@Component
+public class CsvCatalogLoader implements CatalogLoader {
+
+    private static final String[] COLUMNS = {"category", "title", "artist", "genre", "duration", "mood", "energy"};
+
+    @Override
+    public boolean supports(String location) {
+        return location.toLowerCase(Locale.ROOT).endsWith(".csv");
+    }
+
+    @Override
+    public void load(InputStream in, TrackSink sink) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+        String header = reader.readLine();
+        if (header == null) {
+            return;
+        }
+        int[] positions = columnPositions(split(header, new ArrayList<>()));
+
+        List<String> fields = new ArrayList<>(COLUMNS.length);
+        String line;
+        int lineNumber = 1;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            split(line, fields);
+            try {
+                sink.accept(
+                    fields.get(positions[0]),
+                    fields.get(positions[1]),
+                    fields.get(positions[2]),
+                    fields.get(positions[3]),
+                    Float.parseFloat(fields.get(positions[4])),
+                    fields.get(positions[5]),
+                    Float.parseFloat(fields.get(positions[6]))
+                );
+            } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                throw new IOException("Malformed catalog line " + lineNumber + ": " + line, e);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage() + " on catalog line " + lineNumber + ": " + line, e);
+            }
+        }
+    }
+
+    private static int[] columnPositions(List<String> header) throws IOException {
+        int[] positions = new int[COLUMNS.length];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            positions[i] = header.indexOf(COLUMNS[i]);
+            if (positions[i] < 0) {
+                throw new IOException("Catalog header is missing column '" + COLUMNS[i] + "': " + header);
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Splits one line into the reused field list
+     */
+    private static List<String> split(String line, List<String> fields) {
+        fields.clear();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
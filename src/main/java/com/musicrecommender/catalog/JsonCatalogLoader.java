@@ -0,0 +1,81 @@
+package com.musicrecommender.catalog;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * Loads tracks from a JSON array of objects with the fields category, title,
+ * artist, genre, duration, mood and energy, all required; duration is seconds (0 or
+ * more) and energy is 0 to 1. The array is streamed token by token, so no object tree
+ * is built for large catalogs.
+ */
+@Component
+public class JsonCatalogLoader implements CatalogLoader {
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    @Override
+    public boolean supports(String location) {
+        return location.toLowerCase(Locale.ROOT).endsWith(".json");
+    }
+
+    @Override
+    public void load(InputStream in, TrackSink sink) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Catalog must be a JSON array of tracks");
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+                JsonLocation start = parser.currentTokenLocation();
+                String category = null, title = null, artist = null, genre = null, mood = null;
+                float duration = Float.NaN, energy = Float.NaN;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.currentName();
+                    parser.nextToken();
+                    switch (field) {
+                        case "category" -> category = text(parser, field);
+                        case "title" -> title = text(parser, field);
+                        case "artist" -> artist = text(parser, field);
+                        case "genre" -> genre = text(parser, field);
+                        case "mood" -> mood = text(parser, field);
+                        case "duration" -> duration = number(parser, field);
+                        case "energy", "energyLevel" -> energy = number(parser, field);
+                        default -> parser.skipChildren();
+                    }
+                }
+                // Missing fields stay null or NaN and are rejected by the sink
+                try {
+                    sink.accept(category, title, artist, genre, duration, mood, energy);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(e.getMessage() + " in the track at " + start, e);
+                }
+            }
+            if (token != JsonToken.END_ARRAY) {
+                throw new IOException("Catalog array must hold only track objects, found " + token
+                    + " at " + parser.currentTokenLocation());
+            }
+        }
+    }
+
+    private static String text(JsonParser parser, String field) throws IOException {
+        if (parser.currentToken() != JsonToken.VALUE_STRING) {
+            throw new IOException("Catalog field '" + field + "' must be a string at " + parser.currentTokenLocation());
+        }
+        return parser.getText();
+    }
+
+    private static float number(JsonParser parser, String field) throws IOException {
+        if (!parser.currentToken().isNumeric()) {
+            throw new IOException("Catalog field '" + field + "' must be a number at " + parser.currentTokenLocation());
+        }
+        return parser.getFloatValue();
+    }
+}
@@ -0,0 +1,471 @@
+package com.musicrecommender.catalog;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.musicrecommender.model.Song;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * In-memory song catalog in columnar form. Tracks are identified by dense int ids;
+ * each attribute lives in its own primitive array, with artist, genre, mood and
+ * category dictionary-encoded and titles packed into one UTF-8 byte pool.
+ * Secondary indexes map each category, mood and energy bucket to the sorted ids of
+ * its tracks, and each search tag to the categories it points to; a {@link TrackVectorIndex}
+ * ranks tracks against a mood distribution. The catalog is loaded once at startup and is
+ * immutable afterwards, so it can be read from any thread without locking.
+ */
+@Component
+public class SongCatalog {
+
+    private static final Logger log = LoggerFactory.getLogger(SongCatalog.class);
+
+    /**
+     * Number of equal-width energy buckets over [0, 1]
+     */
+    public static final int ENERGY_BUCKETS = 10;
+
+    private static final int[] NO_TRACKS = new int[0];
+    private static final TagAffinity[] NO_AFFINITIES = new TagAffinity[0];
+
+    @Autowired
+    private List<CatalogLoader> loaders;
+
+    @Autowired
+    private ResourceLoader resourceLoader;
+
+    @Value("${recommender.catalog.songs-location:classpath:catalog/songs.csv}")
+    private String songsLocation;
+
+    @Value("${recommender.catalog.categories-location:classpath:catalog/categories.json}")
+    private String categoriesLocation;
+
+    // Category metadata, in file order
+    private final Map<String, CatalogCategory> categoriesByKey = new LinkedHashMap<>();
+    private final Map<String, String> categoryKeysByName = new HashMap<>();
+
+    // Dictionaries
+    private final StringDictionary categoryDictionary = new StringDictionary();
+    private final StringDictionary artistDictionary = new StringDictionary();
+    private final StringDictionary genreDictionary = new StringDictionary();
+    private final StringDictionary moodDictionary = new StringDictionary();
+
+    // Columns, indexed by track id
+    private int size;
+    private int[] categoryCodes;
+    private int[] artistCodes;
+    private int[] genreCodes;
+    private int[] moodCodes;
+    private float[] durations;
+    private float[] energies;
+    private int[] titleOffsets; // size + 1 entries into titleBytes
+    private byte[] titleBytes;
+
+    // Secondary indexes: code -> ascending track ids
+    private int[][] tracksByCategory;
+    private int[][] tracksByMood;
+    private int[][] tracksByEnergy;
+
+    // Search tag (lower case) -> categories by ascending code: the tags of the category metadata,
+    // and each track mood weighted by the share of the category's tracks that have it
+    private Map<String, TagAffinity[]> affinitiesByTag;
+
+    // Mood vectors of the tracks, for top-K retrieval
+    private TrackVectorIndex vectorIndex;
+
+    private Footprint footprint;
+
+    /**
+     * Approximate heap usage of the catalog, split by structure
+     */
+    public record Footprint(int tracks, long columnBytes, long titleBytes, long dictionaryBytes, long indexBytes) {
+
+        public long totalBytes() {
+            return columnBytes + titleBytes + dictionaryBytes + indexBytes;
+        }
+
+        public double bytesPerTrack() {
+            return tracks == 0 ? 0 : (double) totalBytes() / tracks;
+        }
+    }
+
+    @PostConstruct
+    void load() {
+        long start = System.nanoTime();
+        try {
+            loadCategories();
+            loadTracks();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load song catalog from " + songsLocation, e);
+        }
+        buildIndexes();
+        footprint = measure();
+
+        log.info("Loaded {} tracks in {} categories from {} in {} ms, {} bytes/track "
+                + "(columns {} KB, titles {} KB, dictionaries {} KB, indexes {} KB)",
+            size, categoryDictionary.size(), songsLocation, (System.nanoTime() - start) / 1_000_000,
+            String.format("%.1f", footprint.bytesPerTrack()), footprint.columnBytes() / 1024,
+            footprint.titleBytes() / 1024, footprint.dictionaryBytes() / 1024, footprint.indexBytes() / 1024);
+    }
+
+    // ---- Categories ----
+
+    public Collection<CatalogCategory> categories() {
+        return Collections.unmodifiableCollection(categoriesByKey.values());
+    }
+
+    /**
+     * Returns the metadata of the category, or null if the catalog does not describe it
+     */
+    public CatalogCategory category(String key) {
+        return categoriesByKey.get(key);
+    }
+
+    /**
+     * Dense code of the category, from 0 to {@link #categoryCount()}; -1 if the catalog does not know it
+     */
+    public int categoryCode(String key) {
+        return categoryDictionary.lookup(key);
+    }
+
+    public int categoryCount() {
+        return categoryDictionary.size();
+    }
+
+    /**
+     * Categories the search tag points to, matched case-insensitively. The returned array is
+     * shared and must not be modified.
+     */
+    public TagAffinity[] tagAffinities(String tag) {
+        TagAffinity[] affinities = affinitiesByTag.get(tag.toLowerCase(Locale.ROOT));
+        return affinities != null ? affinities : NO_AFFINITIES;
+    }
+
+    /**
+     * Returns the key of the category with the given display name, or null if unknown
+     */
+    public String categoryKeyForName(String categoryName) {
+        return categoryKeysByName.get(categoryName);
+    }
+
+    // ---- Tracks ----
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Ids of the tracks in the category, ascending. The returned array is shared and must not be modified.
+     */
+    public int[] tracksInCategory(String categoryKey) {
+        return postings(tracksByCategory, categoryDictionary.lookup(categoryKey));
+    }
+
+    /**
+     * Ids of the tracks tagged with the mood, ascending. The returned array is shared and must not be modified.
+     */
+    public int[] tracksWithMood(String mood) {
+        return postings(tracksByMood, moodDictionary.lookup(mood));
+    }
+
+    /**
+     * Ids of the tracks in the energy bucket, ascending. The returned array is shared and must not be modified.
+     */
+    public int[] tracksInEnergyBucket(int bucket) {
+        return postings(tracksByEnergy, bucket);
+    }
+
+    public static int energyBucket(float energy) {
+        return Math.max(0, Math.min(ENERGY_BUCKETS - 1, (int) (energy * ENERGY_BUCKETS)));
+    }
+
+    public String title(int id) {
+        int from = titleOffsets[id];
+        return new String(titleBytes, from, titleOffsets[id + 1] - from, StandardCharsets.UTF_8);
+    }
+
+    public String categoryKey(int id) {
+        return categoryDictionary.decode(categoryCodes[id]);
+    }
+
+    public String artist(int id) {
+        return artistDictionary.decode(artistCodes[id]);
+    }
+
+    public String genre(int id) {
+        return genreDictionary.decode(genreCodes[id]);
+    }
+
+    public String mood(int id) {
+        return moodDictionary.decode(moodCodes[id]);
+    }
+
+    /**
+     * Duration in seconds
+     */
+    public float duration(int id) {
+        return durations[id];
+    }
+
+    public float energy(int id) {
+        return energies[id];
+    }
+
+    /**
+     * Materializes the track as a response object
+     */
+    public Song song(int id) {
+        return new Song(title(id), artist(id), genre(id), Math.round(durations[id]), mood(id),
+            // Widen through the decimal form so 0.3f reads back as 0.3, not 0.30000001192092896
+            Double.parseDouble(Float.toString(energies[id])));
+    }
+
+    /**
+     * Mood vectors of the tracks, for ranking them against a mood distribution
+     */
+    public TrackVectorIndex vectorIndex() {
+        return vectorIndex;
+    }
+
+    public Footprint footprint() {
+        return footprint;
+    }
+
+    // ---- Loading ----
+
+    private void loadCategories() throws IOException {
+        Resource resource = resourceLoader.getResource(categoriesLocation);
+        if (!resource.exists()) {
+            log.warn("No category metadata at {}", categoriesLocation);
+            return;
+        }
+        List<CatalogCategory> categories;
+        try (InputStream in = resource.getInputStream()) {
+            categories = new ObjectMapper().readValue(in, new TypeReference<List<CatalogCategory>>() { });
+        }
+        for (CatalogCategory category : categories) {
+            categoriesByKey.put(category.key(), category);
+            categoryKeysByName.put(category.categoryName(), category.key());
+            // Described categories get the first codes even if they have no tracks
+            categoryDictionary.encode(category.key());
+        }
+    }
+
+    private void loadTracks() throws IOException {
+        CatalogLoader loader = loaders.stream()
+            .filter(candidate -> candidate.supports(songsLocation))
+            .findFirst()
+            .orElseThrow(() -> new IllegalStateException("No catalog loader supports " + songsLocation));
+
+        ColumnBuilder builder = new ColumnBuilder();
+        try (InputStream in = resourceLoader.getResource(songsLocation).getInputStream()) {
+            loader.load(in, builder);
+        }
+        builder.finish();
+    }
+
+    private void buildIndexes() {
+        int[] energyCodes = new int[size];
+        for (int id = 0; id < size; id++) {
+            energyCodes[id] = energyBucket(energies[id]);
+        }
+        tracksByCategory = invert(categoryCodes, categoryDictionary.size());
+        tracksByMood = invert(moodCodes, moodDictionary.size());
+        tracksByEnergy = invert(energyCodes, ENERGY_BUCKETS);
+        affinitiesByTag = buildTagIndex();
+        String[] moodLabels = new String[moodDictionary.size()];
+        for (int code = 0; code < moodLabels.length; code++) {
+            moodLabels[code] = moodDictionary.decode(code);
+        }
+        vectorIndex = TrackVectorIndex.build(size, categoryCodes, categoryDictionary.size(), moodCodes, moodLabels, energies);
+    }
+
+    private Map<String, TagAffinity[]> buildTagIndex() {
+        int categories = categoryDictionary.size();
+        Map<String, float[]> weights = new HashMap<>();
+        for (CatalogCategory category : categoriesByKey.values()) {
+            int code = categoryDictionary.lookup(category.key());
+            category.tags().forEach((tag, weight) -> {
+                float[] byCategory = weights.computeIfAbsent(tag.toLowerCase(Locale.ROOT), t -> new float[categories]);
+                byCategory[code] = Math.max(byCategory[code], weight.floatValue());
+            });
+        }
+        int moods = moodDictionary.size();
+        int[] moodCounts = new int[categories * moods];
+        for (int id = 0; id < size; id++) {
+            moodCounts[categoryCodes[id] * moods + moodCodes[id]]++;
+        }
+        for (int mood = 0; mood < moods; mood++) {
+            float[] byCategory = weights.computeIfAbsent(moodDictionary.decode(mood).toLowerCase(Locale.ROOT),
+                t -> new float[categories]);
+            for (int code = 0; code < categories; code++) {
+                int count = moodCounts[code * moods + mood];
+                if (count > 0) {
+                    byCategory[code] = Math.max(byCategory[code], (float) count / tracksByCategory[code].length);
+                }
+            }
+        }
+
+        Map<String, TagAffinity[]> index = new HashMap<>();
+        weights.forEach((tag, byCategory) -> {
+            List<TagAffinity> affinities = new ArrayList<>();
+            for (int code = 0; code < categories; code++) {
+                if (byCategory[code] > 0) {
+                    affinities.add(new TagAffinity(code, Math.min(1f, byCategory[code])));
+                }
+            }
+            if (!affinities.isEmpty()) {
+                index.put(tag, affinities.toArray(NO_AFFINITIES));
+            }
+        });
+        return index;
+    }
+
+    /**
+     * Builds code -> track ids posting lists with a counting sort, so ids stay ascending
+     */
+    private int[][] invert(int[] codes, int cardinality) {
+        int[] counts = new int[cardinality];
+        for (int id = 0; id < size; id++) {
+            counts[codes[id]]++;
+        }
+        int[][] postings = new int[cardinality][];
+        for (int code = 0; code < cardinality; code++) {
+            postings[code] = new int[counts[code]];
+        }
+        int[] fill = new int[cardinality];
+        for (int id = 0; id < size; id++) {
+            int code = codes[id];
+            postings[code][fill[code]++] = id;
+        }
+        return postings;
+    }
+
+    private static int[] postings(int[][] index, int code) {
+        return code < 0 || code >= index.length ? NO_TRACKS : index[code];
+    }
+
+    private Footprint measure() {
+        long columns = 6L * arrayBytes(size, 4);
+        long titles = arrayBytes(titleOffsets.length, 4) + arrayBytes(titleBytes.length, 1);
+        long dictionaries = categoryDictionary.estimatedBytes() + artistDictionary.estimatedBytes()
+            + genreDictionary.estimatedBytes() + moodDictionary.estimatedBytes();
+        long indexes = 0;
+        for (int[][] index : List.of(tracksByCategory, tracksByMood, tracksByEnergy)) {
+            indexes += arrayBytes(index.length, 4);
+            for (int[] postings : index) {
+                indexes += arrayBytes(postings.length, 4);
+            }
+        }
+        for (Map.Entry<String, TagAffinity[]> entry : affinitiesByTag.entrySet()) {
+            indexes += 32 + stringBytes(entry.getKey()) + arrayBytes(entry.getValue().length, 4) + 24L * entry.getValue().length;
+        }
+        indexes += vectorIndex.estimatedBytes();
+        return new Footprint(size, columns, titles, dictionaries, indexes);
+    }
+
+    /**
+     * Array header plus elements, rounded up to the 8-byte object alignment
+     */
+    private static long arrayBytes(int length, int elementBytes) {
+        return (16 + (long) length * elementBytes + 7) & ~7L;
+    }
+
+    /**
+     * Heap usage of a String with compact strings enabled
+     */
+    static long stringBytes(String value) {
+        if (value == null) {
+            return 0;
+        }
+        boolean latin1 = value.chars().allMatch(c -> c < 256);
+        return 24 + arrayBytes(value.length(), latin1 ? 1 : 2);
+    }
+
+    /**
+     * Appends loaded tracks to growable columns, then installs them trimmed to size
+     */
+    private final class ColumnBuilder implements CatalogLoader.TrackSink {
+
+        private int count;
+        private int[] categories = new int[1024];
+        private int[] artists = new int[1024];
+        private int[] genres = new int[1024];
+        private int[] moods = new int[1024];
+        private float[] durationColumn = new float[1024];
+        private float[] energyColumn = new float[1024];
+        private int[] offsets = new int[1025];
+        private byte[] titles = new byte[1024 * 16];
+
+        @Override
+        public void accept(String category, String title, String artist, String genre,
+                           float duration, String mood, float energy) {
+            require(category, "category");
+            require(title, "title");
+            require(artist, "artist");
+            require(genre, "genre");
+            require(mood, "mood");
+            // Scoring and the vector index assume finite non-negative durations and energies in 0 to 1
+            if (!(duration >= 0) || Float.isInfinite(duration)) {
+                throw new IllegalArgumentException("Catalog track needs a duration of 0 or more seconds, got " + duration);
+            }
+            if (!(energy >= 0 && energy <= 1)) {
+                throw new IllegalArgumentException("Catalog track needs an energy between 0 and 1, got " + energy);
+            }
+            if (count == categories.length) {
+                int capacity = count * 2;
+                categories = Arrays.copyOf(categories, capacity);
+                artists = Arrays.copyOf(artists, capacity);
+                genres = Arrays.copyOf(genres, capacity);
+                moods = Arrays.copyOf(moods, capacity);
+                durationColumn = Arrays.copyOf(durationColumn, capacity);
+                energyColumn = Arrays.copyOf(energyColumn, capacity);
+                offsets = Arrays.copyOf(offsets, capacity + 1);
+            }
+            categories[count] = categoryDictionary.encode(category);
+            artists[count] = artistDictionary.encode(artist);
+            genres[count] = genreDictionary.encode(genre);
+            moods[count] = moodDictionary.encode(mood);
+            durationColumn[count] = duration;
+            energyColumn[count] = energy;
+
+            byte[] encoded = title.getBytes(StandardCharsets.UTF_8);
+            int from = offsets[count];
+            if (from + encoded.length > titles.length) {
+                titles = Arrays.copyOf(titles, Math.max(titles.length * 2, from + encoded.length));
+            }
+            System.arraycopy(encoded, 0, titles, from, encoded.length);
+            offsets[++count] = from + encoded.length;
+        }
+
+        private static void require(String value, String field) {
+            if (value == null || value.isBlank()) {
+                throw new IllegalArgumentException("Catalog track without " + field);
+            }
+        }
+
+        void finish() {
+            size = count;
+            categoryCodes = Arrays.copyOf(categories, count);
+            artistCodes = Arrays.copyOf(artists, count);
+            genreCodes = Arrays.copyOf(genres, count);
+            moodCodes = Arrays.copyOf(moods, count);
+            durations = Arrays.copyOf(durationColumn, count);
+            energies = Arrays.copyOf(energyColumn, count);
+            titleOffsets = Arrays.copyOf(offsets, count + 1);
+            titleBytes = Arrays.copyOf(titles, offsets[count]);
+        }
+    }
+}
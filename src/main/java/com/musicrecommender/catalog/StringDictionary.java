@@ -0,0 +1,53 @@
+package com.musicrecommender.catalog;
+
+import java.util.*;
+
+/**
+ * Maps the distinct values of a low-cardinality column (artist, genre, mood, category)
+ * to dense int codes, so each track stores an int instead of a String reference
+ */
+final class StringDictionary {
+
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    /**
+     * Returns the code of the value, assigning the next one if it is new
+     */
+    int encode(String value) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = values.size();
+            codes.put(value, code);
+            values.add(value);
+        }
+        return code;
+    }
+
+    /**
+     * Returns the code of the value, or -1 if the dictionary does not contain it
+     */
+    int lookup(String value) {
+        Integer code = codes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    String decode(int code) {
+        return values.get(code);
+    }
+
+    int size() {
+        return values.size();
+    }
+
+    /**
+     * Rough heap usage: the strings plus one hash map entry and boxed code per value
+     */
+    long estimatedBytes() {
+        long bytes = 0;
+        for (String value : values) {
+            bytes += SongCatalog.stringBytes(value) + 32 + 16 + 8;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,8 @@
+package com.musicrecommender.catalog;
+
+/**
+ * One posting of the search-tag index: a category the tag points to, by its
+ * {@link SongCatalog#categoryCode code}, and how strongly, in [0, 1]
+ */
+public record TagAffinity(int categoryCode, float weight) {
+}
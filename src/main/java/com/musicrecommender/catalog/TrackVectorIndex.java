@@ -0,0 +1,403 @@
+package com.musicrecommender.catalog;
+
+import com.musicrecommender.model.MoodScore.MoodCategory;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Top-K track retrieval by mood. Every track is embedded as a vector with one weight per
+ * {@link MoodCategory}: how well its labelled mood suits that listener mood, times how close
+ * its energy is to the energy that mood calls for. A query is a mood distribution, and a
+ * track's score is the dot product of the two.
+ *
+ * Vectors are stored column by column (one contiguous float run per dimension), so scoring
+ * a block of rows is a handful of multiply-add loops over adjacent floats that the JIT
+ * vectorizes. The best K rows are kept in a bounded min-heap. Rows are grouped into ranges
+ * by category, energy bucket and mood label, so a range holds near-identical vectors and the
+ * per-dimension maximum of its vectors bounds every score in it. Ranges are scanned best
+ * bound first, and the scan stops once no remaining range can beat the heap's minimum.
+ * Immutable once built.
+ */
+public final class TrackVectorIndex {
+
+    private static final MoodCategory[] MOODS = MoodCategory.values();
+
+    /**
+     * Vector length: one weight per mood category
+     */
+    public static final int DIMENSIONS = MOODS.length;
+
+    // Rows scored per pass of the multiply-add loops
+    private static final int BLOCK_ROWS = 1024;
+
+    // How well a track labelled with a mood suits each listener mood; labels are catalog moods
+    private static final Map<String, Map<MoodCategory, Float>> LABEL_FIT = Map.of(
+        "relaxed", Map.of(MoodCategory.RELAXED, 1f, MoodCategory.STRESSED, 0.7f, MoodCategory.TIRED, 0.6f, MoodCategory.ANXIOUS, 0.6f),
+        "calm", Map.of(MoodCategory.ANXIOUS, 1f, MoodCategory.STRESSED, 0.9f, MoodCategory.TIRED, 0.8f, MoodCategory.RELAXED, 0.8f, MoodCategory.SAD, 0.4f),
+        "focused", Map.of(MoodCategory.FOCUSED, 1f, MoodCategory.STRESSED, 0.4f),
+        "tired", Map.of(MoodCategory.TIRED, 1f, MoodCategory.SAD, 0.4f),
+        "energetic", Map.of(MoodCategory.ENERGETIC, 1f, MoodCategory.HAPPY, 0.6f),
+        "happy", Map.of(MoodCategory.HAPPY, 1f, MoodCategory.ENERGETIC, 0.6f, MoodCategory.RELAXED, 0.3f),
+        "sad", Map.of(MoodCategory.SAD, 1f, MoodCategory.TIRED, 0.3f)
+    );
+    // Fit of a label the table does not know: its own mood category if it names one, else this
+    private static final float UNKNOWN_LABEL_FIT = 0.3f;
+
+    // Energy level (0 to 1) each listener mood calls for, by MoodCategory ordinal
+    private static final float[] PREFERRED_ENERGY = {
+        0.2f, // TIRED
+        0.3f, // STRESSED
+        0.9f, // ENERGETIC
+        0.3f, // RELAXED
+        0.7f, // HAPPY
+        0.3f, // SAD
+        0.4f, // FOCUSED
+        0.2f  // ANXIOUS
+    };
+
+    private final int size;
+    private final int categoryCount;
+    private final int rangesPerCategory;
+    // columns[d * size + row]
+    private final float[] columns;
+    // Track id of each row
+    private final int[] trackIds;
+    // First row of range ((category * ENERGY_BUCKETS + bucket) * moods + mood); one extra entry for the end
+    private final int[] rangeStarts;
+    // Score buffer length: the largest range, up to a block
+    private final int bufferRows;
+    // rangeMax[range * DIMENSIONS + d]: largest weight in dimension d within the range
+    private final float[] rangeMax;
+
+    private TrackVectorIndex(int size, int categoryCount, int rangesPerCategory, float[] columns, int[] trackIds,
+                             int[] rangeStarts, float[] rangeMax) {
+        this.size = size;
+        this.categoryCount = categoryCount;
+        this.rangesPerCategory = rangesPerCategory;
+        this.columns = columns;
+        this.trackIds = trackIds;
+        this.rangeStarts = rangeStarts;
+        int largestRange = 0;
+        for (int range = 0; range + 1 < rangeStarts.length; range++) {
+            largestRange = Math.max(largestRange, rangeStarts[range + 1] - rangeStarts[range]);
+        }
+        this.bufferRows = Math.min(BLOCK_ROWS, largestRange);
+        this.rangeMax = rangeMax;
+    }
+
+    /**
+     * Embeds the tracks given as catalog columns (indexed by track id)
+     *
+     * @param moodLabels mood label of each mood code
+     */
+    public static TrackVectorIndex build(int size, int[] categoryCodes, int categoryCount,
+                                         int[] moodCodes, String[] moodLabels, float[] energies) {
+        float[][] labelFit = new float[moodLabels.length][];
+        for (int code = 0; code < moodLabels.length; code++) {
+            labelFit[code] = labelFit(moodLabels[code]);
+        }
+
+        // Counting sort of the rows by range; track ids stay ascending within a range
+        int moods = moodLabels.length;
+        int ranges = categoryCount * SongCatalog.ENERGY_BUCKETS * moods;
+        int[] rangeStarts = new int[ranges + 1];
+        for (int id = 0; id < size; id++) {
+            rangeStarts[range(categoryCodes[id], energies[id], moodCodes[id], moods) + 1]++;
+        }
+        for (int range = 0; range < ranges; range++) {
+            rangeStarts[range + 1] += rangeStarts[range];
+        }
+        int[] fill = Arrays.copyOf(rangeStarts, ranges);
+        int[] trackIds = new int[size];
+        for (int id = 0; id < size; id++) {
+            trackIds[fill[range(categoryCodes[id], energies[id], moodCodes[id], moods)]++] = id;
+        }
+
+        float[] columns = new float[DIMENSIONS * size];
+        float[] rangeMax = new float[ranges * DIMENSIONS];
+        for (int range = 0; range < ranges; range++) {
+            for (int row = rangeStarts[range]; row < rangeStarts[range + 1]; row++) {
+                int id = trackIds[row];
+                float[] fit = labelFit[moodCodes[id]];
+                for (int d = 0; d < DIMENSIONS; d++) {
+                    float weight = fit[d] * (1 - Math.abs(energies[id] - PREFERRED_ENERGY[d]));
+                    columns[d * size + row] = weight;
+                    rangeMax[range * DIMENSIONS + d] = Math.max(rangeMax[range * DIMENSIONS + d], weight);
+                }
+            }
+        }
+        return new TrackVectorIndex(size, categoryCount, SongCatalog.ENERGY_BUCKETS * moods, columns, trackIds,
+            rangeStarts, rangeMax);
+    }
+
+    /**
+     * The query vector of a mood distribution (keys are mood names in any case; others are ignored)
+     */
+    public static float[] query(Map<String, Double> moodDistribution) {
+        float[] query = new float[DIMENSIONS];
+        if (moodDistribution != null) {
+            for (MoodCategory mood : MOODS) {
+                Double score = moodDistribution.get(mood.name().toLowerCase(Locale.ROOT));
+                if (score != null && score > 0) {
+                    query[mood.ordinal()] = score.floatValue();
+                }
+            }
+        }
+        return query;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The k best-scoring tracks of the category, best first; fewer if the category is smaller,
+     * none if k is not positive
+     */
+    public int[] topK(int categoryCode, float[] query, int k) {
+        if (categoryCode < 0 || categoryCode >= categoryCount || k <= 0) {
+            return new int[0];
+        }
+        int firstRange = categoryCode * rangesPerCategory;
+        return scan(firstRange, firstRange + rangesPerCategory, query, Math.min(k, size)).trackIds(trackIds);
+    }
+
+    /**
+     * The k best-scoring tracks of the whole catalog, best first; none if k is not positive
+     */
+    public int[] topK(float[] query, int k) {
+        if (k <= 0) {
+            return new int[0];
+        }
+        return scan(0, categoryCount * rangesPerCategory, query, Math.min(k, size)).trackIds(trackIds);
+    }
+
+    /**
+     * As {@link #topK(float[], int)}, split across one task per available processor on the
+     * common fork-join pool. Task w takes every n-th range of the best-first order from the
+     * w-th, so each still scans best first into its own heap and stops at its own minimum or
+     * at the highest minimum of any full heap (a lower bound on the final K-th score),
+     * whichever is higher. The heaps are merged at the end.
+     */
+    public int[] topKParallel(float[] query, int k) {
+        if (k <= 0) {
+            return new int[0];
+        }
+        int limit = Math.min(k, size);
+        long[] bounds = bounds(0, categoryCount * rangesPerCategory, query);
+        int tasks = Math.max(1, Math.min(bounds.length, Runtime.getRuntime().availableProcessors()));
+        // Float bits of the shared floor (non-negative floats order like their bits); -1 until a heap fills
+        AtomicInteger floor = new AtomicInteger(-1);
+        TopK merged = IntStream.range(0, tasks).parallel()
+            .mapToObj(task -> {
+                TopK heap = new TopK(limit);
+                float[] scores = new float[bufferRows];
+                for (int i = task; i < bounds.length; i += tasks) {
+                    float bound = bound(bounds[i]);
+                    int bits = floor.get();
+                    if (heap.isFull() && bound <= heap.min() || bits >= 0 && bound <= Float.intBitsToFloat(bits)) {
+                        break;
+                    }
+                    int range = (int) bounds[i];
+                    scoreRows(rangeStarts[range], rangeStarts[range + 1], query, heap, scores);
+                    if (heap.isFull()) {
+                        floor.accumulateAndGet(Float.floatToIntBits(heap.min()), Math::max);
+                    }
+                }
+                return heap;
+            })
+            .reduce(TopK::merge)
+            .orElseGet(() -> new TopK(limit));
+        return merged.trackIds(trackIds);
+    }
+
+    /**
+     * Heap held by the vectors, row order and range bounds
+     */
+    public long estimatedBytes() {
+        return 16 + 4L * columns.length + 16 + 4L * trackIds.length + 16 + 4L * rangeStarts.length
+            + 16 + 4L * rangeMax.length;
+    }
+
+    private TopK scan(int fromRange, int toRange, float[] query, int k) {
+        TopK heap = new TopK(k);
+        float[] scores = new float[bufferRows];
+        for (long bound : bounds(fromRange, toRange, query)) {
+            if (heap.isFull() && bound(bound) <= heap.min()) {
+                break;
+            }
+            int range = (int) bound;
+            scoreRows(rangeStarts[range], rangeStarts[range + 1], query, heap, scores);
+        }
+        return heap;
+    }
+
+    /**
+     * The non-empty ranges in [fromRange, toRange), highest score bound first. Each is packed
+     * into a long that sorts ascending by descending bound: the bound's float bits, inverted,
+     * above the range. Negative query weights add nothing to a bound, as no weight is negative.
+     */
+    private long[] bounds(int fromRange, int toRange, float[] query) {
+        long[] bounds = new long[toRange - fromRange];
+        int count = 0;
+        for (int range = fromRange; range < toRange; range++) {
+            if (rangeStarts[range] < rangeStarts[range + 1]) {
+                float bound = 0;
+                for (int d = 0; d < DIMENSIONS; d++) {
+                    bound += rangeMax[range * DIMENSIONS + d] * Math.max(0, query[d]);
+                }
+                bounds[count++] = (long) (Integer.MAX_VALUE - Float.floatToIntBits(bound)) << 32 | range;
+            }
+        }
+        bounds = Arrays.copyOf(bounds, count);
+        Arrays.sort(bounds);
+        return bounds;
+    }
+
+    /**
+     * The score bound of a packed range
+     */
+    private static float bound(long packed) {
+        return Float.intBitsToFloat(Integer.MAX_VALUE - (int) (packed >>> 32));
+    }
+
+    /**
+     * Scores rows [from, to) block by block and offers each to the heap
+     */
+    private void scoreRows(int from, int to, float[] query, TopK heap, float[] scores) {
+        for (int block = from; block < to; block += BLOCK_ROWS) {
+            int rows = Math.min(BLOCK_ROWS, to - block);
+            Arrays.fill(scores, 0, rows, 0f);
+            for (int d = 0; d < DIMENSIONS; d++) {
+                float weight = query[d];
+                if (weight == 0) {
+                    continue;
+                }
+                int offset = d * size + block;
+                for (int i = 0; i < rows; i++) {
+                    scores[i] += weight * columns[offset + i];
+                }
+            }
+            for (int i = 0; i < rows; i++) {
+                if (!heap.isFull() || scores[i] > heap.min()) {
+                    heap.offer(scores[i], block + i);
+                }
+            }
+        }
+    }
+
+    private static int range(int categoryCode, float energy, int moodCode, int moods) {
+        return (categoryCode * SongCatalog.ENERGY_BUCKETS + SongCatalog.energyBucket(energy)) * moods + moodCode;
+    }
+
+    private static float[] labelFit(String label) {
+        float[] fit = new float[DIMENSIONS];
+        Map<MoodCategory, Float> known = label == null ? null : LABEL_FIT.get(label.toLowerCase(Locale.ROOT));
+        if (known != null) {
+            known.forEach((mood, weight) -> fit[mood.ordinal()] = weight);
+            return fit;
+        }
+        Arrays.fill(fit, UNKNOWN_LABEL_FIT);
+        for (MoodCategory mood : MOODS) {
+            if (mood.name().equalsIgnoreCase(label)) {
+                fit[mood.ordinal()] = 1f;
+            }
+        }
+        return fit;
+    }
+
+    /**
+     * Bounded min-heap of (score, row): keeps the k highest scores seen
+     */
+    private static final class TopK {
+
+        private final float[] scores;
+        private final int[] rows;
+        private int count;
+
+        TopK(int k) {
+            scores = new float[Math.max(0, k)];
+            rows = new int[Math.max(0, k)];
+        }
+
+        boolean isFull() {
+            return count == scores.length;
+        }
+
+        float min() {
+            return scores[0];
+        }
+
+        /**
+         * Adds the row, replacing the lowest score once full
+         */
+        void offer(float score, int row) {
+            if (count < scores.length) {
+                int i = count++;
+                // Sift up
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (scores[parent] <= score) {
+                        break;
+                    }
+                    scores[i] = scores[parent];
+                    rows[i] = rows[parent];
+                    i = parent;
+                }
+                scores[i] = score;
+                rows[i] = row;
+            } else if (count > 0 && score > scores[0]) {
+                siftDown(score, row);
+            }
+        }
+
+        TopK merge(TopK other) {
+            for (int i = 0; i < other.count; i++) {
+                offer(other.scores[i], other.rows[i]);
+            }
+            return this;
+        }
+
+        /**
+         * Track ids of the kept rows, best score first. Empties the heap.
+         */
+        int[] trackIds(int[] trackIdsByRow) {
+            int[] ids = new int[count];
+            // Pop the lowest score into the last free place until the heap is empty
+            while (count > 0) {
+                ids[count - 1] = trackIdsByRow[rows[0]];
+                count--;
+                siftDown(scores[count], rows[count]);
+            }
+            return ids;
+        }
+
+        /**
+         * Puts (score, row) in place of the root and restores the heap order below it
+         */
+        private void siftDown(float score, int row) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= count) {
+                    break;
+                }
+                if (child + 1 < count && scores[child + 1] < scores[child]) {
+                    child++;
+                }
+                if (scores[child] >= score) {
+                    break;
+                }
+                scores[i] = scores[child];
+                rows[i] = rows[child];
+                i = child;
+            }
+            scores[i] = score;
+            rows[i] = row;
+        }
+    }
+}
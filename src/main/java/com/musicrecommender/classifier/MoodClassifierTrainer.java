@@ -0,0 +1,304 @@
+package com.musicrecommender.classifier;
+
+import com.musicrecommender.model.MoodScore.MoodCategory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offline training of a {@link MoodModel} from a labeled dataset: multinomial logistic
+ * regression by stochastic gradient descent with AdaGrad step sizes and L2 regularization.
+ * Prints the accuracy on a held-out share of the dataset and writes the weight file.
+ *
+ * The dataset is tab-separated, one example per line: mood (one of {@link MoodModel#CLASSES}),
+ * typing speed (characters per second), hour of day (0-23), text. Blank lines and lines
+ * starting with '#' are skipped.
+ *
+ * <pre>
+ * mvn compile
+ * java -cp target/classes com.musicrecommender.classifier.MoodClassifierTrainer \
+ *     --data moods.tsv --out mood-model.bin
+ * </pre>
+ *
+ * Options: --data, --out, --hash-bits (default 16), --epochs (5), --learning-rate (0.02),
+ * --l2 (0.000001), --holdout (share of examples held out for evaluation, 0.2), --seed (42).
+ */
+public final class MoodClassifierTrainer {
+
+    private static final MoodCategory[] MOODS = MoodCategory.values();
+
+    /**
+     * One labeled input
+     */
+    public record Example(MoodCategory mood, double typingSpeed, int hour, String text) {
+    }
+
+    public record Options(int hashBits, int epochs, double learningRate, double l2, long seed) {
+
+        public static Options defaults() {
+            return new Options(16, 5, 0.02, 1e-6, 42);
+        }
+    }
+
+    private final Options options;
+    private final MoodCategory[] classes;
+    // Class index of each mood ordinal, -1 for moods without examples
+    private final int[] classOfMood = new int[MOODS.length];
+    private final double[] bias;
+    private final double[] weights;
+    private final double[] squaredGradients;
+    private final double[] biasSquaredGradients;
+
+    private MoodClassifierTrainer(Options options, MoodCategory[] classes) {
+        this.options = options;
+        this.classes = classes;
+        Arrays.fill(classOfMood, -1);
+        for (int c = 0; c < classes.length; c++) {
+            classOfMood[classes[c].ordinal()] = c;
+        }
+        this.bias = new double[classes.length];
+        this.weights = new double[MoodFeatureScan.featureCount(options.hashBits()) * classes.length];
+        this.squaredGradients = new double[weights.length];
+        this.biasSquaredGradients = new double[classes.length];
+    }
+
+    /**
+     * Trains on the examples; the classes are the moods that occur in them
+     *
+     * @throws IllegalArgumentException if fewer than two moods occur, or a mood is not one of
+     *         {@link MoodModel#CLASSES}
+     */
+    public static MoodClassifierTrainer train(List<Example> examples, Options options) {
+        EnumSet<MoodCategory> moods = EnumSet.noneOf(MoodCategory.class);
+        for (Example example : examples) {
+            if (!MoodModel.CLASSES.contains(example.mood())) {
+                throw new IllegalArgumentException("Cannot train mood " + example.mood() + "; moods must be among "
+                    + MoodModel.CLASSES);
+            }
+            moods.add(example.mood());
+        }
+        if (moods.size() < 2) {
+            throw new IllegalArgumentException("Training needs examples of at least two moods, got " + moods);
+        }
+        MoodClassifierTrainer trainer = new MoodClassifierTrainer(options, moods.toArray(new MoodCategory[0]));
+
+        int[][] features = new int[examples.size()][];
+        int[] labels = new int[examples.size()];
+        for (int i = 0; i < examples.size(); i++) {
+            features[i] = trainer.features(examples.get(i));
+            labels[i] = trainer.classOfMood[examples.get(i).mood().ordinal()];
+        }
+
+        List<Integer> order = new ArrayList<>(examples.size());
+        for (int i = 0; i < examples.size(); i++) {
+            order.add(i);
+        }
+        Random random = new Random(options.seed());
+        double[] probabilities = new double[trainer.classes.length];
+        for (int epoch = 0; epoch < options.epochs(); epoch++) {
+            Collections.shuffle(order, random);
+            for (int i : order) {
+                trainer.step(features[i], labels[i], probabilities);
+            }
+        }
+        return trainer;
+    }
+
+    /**
+     * Share of the examples whose mood is the most probable class
+     */
+    public double accuracy(List<Example> examples) {
+        double[] probabilities = new double[classes.length];
+        int correct = 0;
+        for (Example example : examples) {
+            predict(features(example), probabilities);
+            int best = 0;
+            for (int c = 1; c < classes.length; c++) {
+                best = probabilities[c] > probabilities[best] ? c : best;
+            }
+            correct += classes[best] == example.mood() ? 1 : 0;
+        }
+        return examples.isEmpty() ? 0 : correct / (double) examples.size();
+    }
+
+    /**
+     * Writes the trained weights as a {@link MoodModel} file
+     */
+    public void write(Path file) throws IOException {
+        float[] floatBias = new float[bias.length];
+        for (int c = 0; c < bias.length; c++) {
+            floatBias[c] = (float) bias[c];
+        }
+        float[] floatWeights = new float[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            floatWeights[i] = (float) weights[i];
+        }
+        MoodModel.write(file, options.hashBits(), classes, floatBias, floatWeights);
+    }
+
+    /**
+     * Reads a tab-separated dataset
+     *
+     * @throws IllegalArgumentException naming the line of a malformed example
+     */
+    public static List<Example> readExamples(Path file) throws IOException {
+        List<Example> examples = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\t", 4);
+                try {
+                    if (fields.length < 4) {
+                        throw new IllegalArgumentException("expected mood, typing speed, hour and text");
+                    }
+                    int hour = Integer.parseInt(fields[2].trim());
+                    if (hour < 0 || hour > 23) {
+                        throw new IllegalArgumentException("hour out of range: " + hour);
+                    }
+                    MoodCategory mood = MoodCategory.valueOf(fields[0].trim().toUpperCase(Locale.ROOT));
+                    if (!MoodModel.CLASSES.contains(mood)) {
+                        throw new IllegalArgumentException("mood " + mood + " is not among " + MoodModel.CLASSES);
+                    }
+                    examples.add(new Example(mood, Double.parseDouble(fields[1].trim()), hour, fields[3]));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(file + " line " + lineNumber + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        return examples;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String data = option(args, "--data", null);
+        String out = option(args, "--out", null);
+        if (data == null || out == null) {
+            System.err.println("Usage: MoodClassifierTrainer --data <dataset.tsv> --out <model.bin> [--hash-bits 16]"
+                + " [--epochs 5] [--learning-rate 0.02] [--l2 0.000001] [--holdout 0.2] [--seed 42]");
+            System.exit(2);
+        }
+        Options defaults = Options.defaults();
+        Options options = new Options(
+            Integer.parseInt(option(args, "--hash-bits", String.valueOf(defaults.hashBits()))),
+            Integer.parseInt(option(args, "--epochs", String.valueOf(defaults.epochs()))),
+            Double.parseDouble(option(args, "--learning-rate", String.valueOf(defaults.learningRate()))),
+            Double.parseDouble(option(args, "--l2", String.valueOf(defaults.l2()))),
+            Long.parseLong(option(args, "--seed", String.valueOf(defaults.seed()))));
+        double holdout = Double.parseDouble(option(args, "--holdout", "0.2"));
+
+        List<Example> examples = new ArrayList<>(readExamples(Paths.get(data)));
+        Collections.shuffle(examples, new Random(options.seed()));
+        int held = (int) Math.round(examples.size() * holdout);
+        List<Example> evaluation = examples.subList(0, held);
+        List<Example> training = examples.subList(held, examples.size());
+
+        long started = System.nanoTime();
+        MoodClassifierTrainer trainer = train(training, options);
+        long trainingMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        trainer.write(Paths.get(out));
+
+        System.out.printf("classes     %s%n", Arrays.toString(trainer.classes));
+        System.out.printf("examples    %d training, %d held out; %d epochs in %d ms%n",
+            training.size(), evaluation.size(), options.epochs(), trainingMillis);
+        System.out.printf("accuracy    training %.4f%s%n", trainer.accuracy(training),
+            evaluation.isEmpty() ? "" : String.format(", held out %.4f", trainer.accuracy(evaluation)));
+        System.out.printf("model       %s, %d bytes%n", out, Files.size(Paths.get(out)));
+    }
+
+    /**
+     * One AdaGrad step on the softmax cross-entropy of an example
+     */
+    private void step(int[] features, int label, double[] probabilities) {
+        predict(features, probabilities);
+        int classCount = classes.length;
+        for (int c = 0; c < classCount; c++) {
+            double gradient = probabilities[c] - (c == label ? 1 : 0);
+            biasSquaredGradients[c] += gradient * gradient;
+            bias[c] -= options.learningRate() * gradient / Math.sqrt(biasSquaredGradients[c] + 1e-8);
+            for (int feature : features) {
+                int i = feature * classCount + c;
+                double regularized = gradient + options.l2() * weights[i];
+                squaredGradients[i] += regularized * regularized;
+                weights[i] -= options.learningRate() * regularized / Math.sqrt(squaredGradients[i] + 1e-8);
+            }
+        }
+    }
+
+    private void predict(int[] features, double[] probabilities) {
+        int classCount = classes.length;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < classCount; c++) {
+            double logit = bias[c];
+            for (int feature : features) {
+                logit += weights[feature * classCount + c];
+            }
+            probabilities[c] = logit;
+            max = Math.max(max, logit);
+        }
+        double sum = 0;
+        for (int c = 0; c < classCount; c++) {
+            probabilities[c] = Math.exp(probabilities[c] - max);
+            sum += probabilities[c];
+        }
+        for (int c = 0; c < classCount; c++) {
+            probabilities[c] /= sum;
+        }
+    }
+
+    private int[] features(Example example) {
+        Recorder recorder = new Recorder(options.hashBits());
+        recorder.resume(example.text());
+        int[] pending = new int[MoodFeatureScan.MAX_PENDING_FEATURES];
+        int count = recorder.pendingFeatures(example.typingSpeed(), example.hour(), pending);
+        for (int i = 0; i < count; i++) {
+            recorder.tokenFeature(pending[i]);
+        }
+        return Arrays.copyOf(recorder.features, recorder.size);
+    }
+
+    private static String option(String[] args, String name, String defaultValue) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Collects the features of an example
+     */
+    private static final class Recorder extends MoodFeatureScan {
+
+        private int[] features = new int[16];
+        private int size;
+
+        Recorder(int hashBits) {
+            super(hashBits);
+        }
+
+        @Override
+        protected void tokenFeature(int feature) {
+            if (size == features.length) {
+                features = Arrays.copyOf(features, size * 2);
+            }
+            features[size++] = feature;
+        }
+    }
+}
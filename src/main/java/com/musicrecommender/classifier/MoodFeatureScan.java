@@ -0,0 +1,183 @@
+package com.musicrecommender.classifier;
+
+/**
+ * Splits an input into the mood classifier's features, shared by training and inference so
+ * both see exactly the same ones. Every feature is an index into the weight rows and counts
+ * once per occurrence:
+ * - context features, one per input: typing speed bin, hour of day, word count bin and
+ *   exclamation mark bin (what the rules react to)
+ * - text features, one per token: the hashed unigram of its letters and the hashed bigram
+ *   with the previous token. Tokens are whitespace-delimited and reduced to lowercase a-z,
+ *   as in the sentiment lexicon; tokens without letters count as words only.
+ * The text can be scanned piece by piece. Subclasses consume the features of completed
+ * tokens as they are found; those of the open token and the context come from
+ * {@link #pendingFeatures}, which leaves the scan unchanged.
+ */
+public abstract class MoodFeatureScan {
+
+    private static final double[] SPEED_EDGES = {1, 2, 4, 6};
+    private static final int[] WORD_COUNT_EDGES = {1, 3, 6, 12, 24, 48};
+    private static final int MAX_EXCLAMATION_BIN = 3;
+
+    private static final int SPEED_FEATURES = 0;
+    private static final int HOUR_FEATURES = SPEED_FEATURES + SPEED_EDGES.length + 1;
+    private static final int WORD_COUNT_FEATURES = HOUR_FEATURES + 24;
+    private static final int EXCLAMATION_FEATURES = WORD_COUNT_FEATURES + WORD_COUNT_EDGES.length + 1;
+
+    /** Context features, before the hashed text features */
+    public static final int CONTEXT_FEATURES = EXCLAMATION_FEATURES + MAX_EXCLAMATION_BIN + 1;
+
+    /** Most features {@link #pendingFeatures} reports */
+    public static final int MAX_PENDING_FEATURES = 6;
+
+    private static final int FNV_OFFSET = 0x811c9dc5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    private final int hashBits;
+
+    // Open token: hash of its letters so far, whether it has any
+    private int hash = FNV_OFFSET;
+    private boolean letters;
+    private boolean inToken;
+
+    // Last completed token with letters, for the bigram
+    private int previous;
+    private boolean hasPrevious;
+
+    private int words;
+    private int exclamations;
+
+    /**
+     * @param hashBits text features hash into 2^hashBits rows
+     */
+    protected MoodFeatureScan(int hashBits) {
+        if (hashBits < 1 || hashBits > 24) {
+            throw new IllegalArgumentException("Hash bits must be 1-24, got " + hashBits);
+        }
+        this.hashBits = hashBits;
+    }
+
+    /**
+     * Rows of weights the features index: context features, then the hashed text features
+     */
+    public static int featureCount(int hashBits) {
+        return CONTEXT_FEATURES + (1 << hashBits);
+    }
+
+    /**
+     * The typing speed bin; inputs in the same bin get the same context features
+     */
+    public static int typingSpeedBucket(double typingSpeed) {
+        int bin = 0;
+        while (bin < SPEED_EDGES.length && typingSpeed >= SPEED_EDGES[bin]) {
+            bin++;
+        }
+        return bin;
+    }
+
+    /**
+     * Called with each feature of a completed token
+     */
+    protected abstract void tokenFeature(int feature);
+
+    /**
+     * Continues the scan over the next piece of the text
+     */
+    public final void resume(CharSequence piece) {
+        for (int i = 0, n = piece.length(); i < n; i++) {
+            char ch = piece.charAt(i);
+            // Character.toLowerCase, with a shortcut for ASCII
+            ch = ch >= 'A' && ch <= 'Z' ? (char) (ch + ('a' - 'A')) : ch < 128 ? ch : Character.toLowerCase(ch);
+            if (ch == '!') {
+                exclamations++;
+            }
+            if (isSeparator(ch)) {
+                if (inToken) {
+                    closeToken();
+                }
+            } else {
+                inToken = true;
+                if (ch >= 'a' && ch <= 'z') {
+                    hash = (hash ^ ch) * FNV_PRIME;
+                    letters = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the features not yet reported, of the open token and the context, to
+     * {@code features} (at least {@link #MAX_PENDING_FEATURES} long)
+     *
+     * @return how many were written
+     */
+    public final int pendingFeatures(double typingSpeed, int hour, int[] features) {
+        int count = 0;
+        if (letters) {
+            features[count++] = unigram(hash);
+            if (hasPrevious) {
+                features[count++] = bigram(previous, hash);
+            }
+        }
+        int wordCount = words + (inToken ? 1 : 0);
+        int wordBin = 0;
+        while (wordBin < WORD_COUNT_EDGES.length && wordCount >= WORD_COUNT_EDGES[wordBin]) {
+            wordBin++;
+        }
+        features[count++] = SPEED_FEATURES + typingSpeedBucket(typingSpeed);
+        features[count++] = HOUR_FEATURES + Math.floorMod(hour, 24);
+        features[count++] = WORD_COUNT_FEATURES + wordBin;
+        features[count++] = EXCLAMATION_FEATURES + Math.min(exclamations, MAX_EXCLAMATION_BIN);
+        return count;
+    }
+
+    protected void copyFrom(MoodFeatureScan other) {
+        hash = other.hash;
+        letters = other.letters;
+        inToken = other.inToken;
+        previous = other.previous;
+        hasPrevious = other.hasPrevious;
+        words = other.words;
+        exclamations = other.exclamations;
+    }
+
+    protected void reset() {
+        hash = FNV_OFFSET;
+        letters = false;
+        inToken = false;
+        previous = 0;
+        hasPrevious = false;
+        words = 0;
+        exclamations = 0;
+    }
+
+    private void closeToken() {
+        words++;
+        if (letters) {
+            tokenFeature(unigram(hash));
+            if (hasPrevious) {
+                tokenFeature(bigram(previous, hash));
+            }
+            previous = hash;
+            hasPrevious = true;
+        }
+        hash = FNV_OFFSET;
+        letters = false;
+        inToken = false;
+    }
+
+    private int unigram(int tokenHash) {
+        return CONTEXT_FEATURES + ((tokenHash * 0x9e3779b9) >>> (Integer.SIZE - hashBits));
+    }
+
+    private int bigram(int first, int second) {
+        return CONTEXT_FEATURES + (((first * 0x85ebca6b) ^ second) * 0xc2b2ae35 >>> (Integer.SIZE - hashBits));
+    }
+
+    /**
+     * Same character set as the regex \s
+     */
+    private static boolean isSeparator(char ch) {
+        return ch == ' ' || ch == '\t' || ch == '\n' || ch == '\u000B' || ch == '\f' || ch == '\r';
+    }
+}
@@ -0,0 +1,265 @@
+package com.musicrecommender.classifier;
+
+import com.musicrecommender.model.MoodScore.MoodCategory;
+import com.musicrecommender.model.MoodVector;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A trained multinomial logistic regression over the features of {@link MoodFeatureScan},
+ * read from its weight file by memory-mapping it. Opening a model parses nothing: the
+ * mapped weights are bulk-copied into one float[] that scoring indexes directly (reading
+ * the mapping per weight row measured about three times slower, as every direct buffer
+ * read is bounds and scope checked).
+ *
+ * File layout (little-endian): magic (int), version (int), context feature count (int),
+ * hash bits (int), class count (int), class mood ordinals (one byte each, padded to a
+ * multiple of 4), bias per class (float), then one row of per-class weights (float) per
+ * feature. Scoring adds the rows of the input's features to the bias and takes the softmax,
+ * so the mood scores are class probabilities.
+ */
+public final class MoodModel {
+
+    private static final int MAGIC = 0x4d4d4f44;
+    private static final int VERSION = 1;
+    private static final int HEADER = 20;
+
+    private static final MoodCategory[] MOODS = MoodCategory.values();
+
+    /**
+     * Moods a model may classify into: the moods mood prediction reports and ranks
+     */
+    public static final Set<MoodCategory> CLASSES = Collections.unmodifiableSet(EnumSet.of(
+        MoodCategory.ENERGETIC, MoodCategory.RELAXED, MoodCategory.ANXIOUS, MoodCategory.STRESSED,
+        MoodCategory.TIRED, MoodCategory.FOCUSED));
+
+    private final int hashBits;
+    private final MoodCategory[] classes;
+    private final float[] bias;
+    private final float[] weights;
+    private final long sizeBytes;
+
+    private MoodModel(int hashBits, MoodCategory[] classes, float[] bias, float[] weights, long sizeBytes) {
+        this.hashBits = hashBits;
+        this.classes = classes;
+        this.bias = bias;
+        this.weights = weights;
+        this.sizeBytes = sizeBytes;
+    }
+
+    /**
+     * Maps a weight file written by {@link #write}
+     *
+     * @throws IOException if the file cannot be read or is not a model for these features
+     */
+    public static MoodModel open(Path file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Not a mood model: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Unrecognized mood model format: " + file);
+        }
+        int contextFeatures = buffer.getInt();
+        int hashBits = buffer.getInt();
+        int classCount = buffer.getInt();
+        if (contextFeatures != MoodFeatureScan.CONTEXT_FEATURES || hashBits < 1 || hashBits > 24) {
+            throw new IOException("Mood model " + file + " was trained for other features");
+        }
+        if (classCount < 2 || classCount > CLASSES.size()) {
+            throw new IOException("Mood model " + file + " has " + classCount + " classes");
+        }
+
+        MoodCategory[] classes = new MoodCategory[classCount];
+        EnumSet<MoodCategory> seen = EnumSet.noneOf(MoodCategory.class);
+        for (int c = 0; c < classCount; c++) {
+            int ordinal = buffer.get();
+            if (ordinal < 0 || ordinal >= MOODS.length) {
+                throw new IOException("Mood model " + file + " has unknown mood " + ordinal);
+            }
+            classes[c] = MOODS[ordinal];
+            if (!CLASSES.contains(classes[c]) || !seen.add(classes[c])) {
+                throw new IOException("Mood model " + file + " has class " + classes[c] + "; classes must be distinct"
+                    + " moods of " + CLASSES);
+            }
+        }
+        buffer.position(weightsOffset(classCount));
+
+        long rows = MoodFeatureScan.featureCount(hashBits);
+        if (buffer.remaining() != (rows + 1) * classCount * Float.BYTES) {
+            throw new IOException("Truncated mood model: " + file);
+        }
+        FloatBuffer floats = buffer.asFloatBuffer();
+        float[] bias = new float[classCount];
+        floats.get(bias);
+        float[] weights = new float[floats.remaining()];
+        floats.get(weights);
+        return new MoodModel(hashBits, classes, bias, weights, buffer.capacity());
+    }
+
+    /**
+     * Writes a weight file, replacing {@code file} atomically
+     *
+     * @param classes distinct moods of {@link #CLASSES}
+     * @param weights {@code featureCount(hashBits)} rows of one weight per class
+     */
+    public static void write(Path file, int hashBits, MoodCategory[] classes, float[] bias, float[] weights)
+            throws IOException {
+        if (weights.length != (long) MoodFeatureScan.featureCount(hashBits) * classes.length
+                || bias.length != classes.length) {
+            throw new IllegalArgumentException("Weights do not match " + classes.length + " classes and "
+                + hashBits + " hash bits");
+        }
+        EnumSet<MoodCategory> distinct = EnumSet.noneOf(MoodCategory.class);
+        for (MoodCategory mood : classes) {
+            if (!CLASSES.contains(mood) || !distinct.add(mood)) {
+                throw new IllegalArgumentException("Classes must be distinct moods of " + CLASSES + ": "
+                    + Arrays.toString(classes));
+            }
+        }
+        int offset = weightsOffset(classes.length);
+        ByteBuffer buffer = ByteBuffer.allocate(offset + (bias.length + weights.length) * Float.BYTES)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(MoodFeatureScan.CONTEXT_FEATURES).putInt(hashBits)
+            .putInt(classes.length);
+        for (MoodCategory mood : classes) {
+            buffer.put((byte) mood.ordinal());
+        }
+        buffer.position(offset);
+        buffer.asFloatBuffer().put(bias).put(weights);
+        buffer.position(0);
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public int hashBits() {
+        return hashBits;
+    }
+
+    public List<MoodCategory> classes() {
+        return List.of(classes);
+    }
+
+    public long sizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * Classifies a whole input
+     */
+    public MoodVector classify(CharSequence text, double typingSpeed, int hour) {
+        State state = newState();
+        state.resume(text);
+        return classify(state, typingSpeed, hour);
+    }
+
+    /**
+     * Classifies the text scanned into {@code state} so far; the state can keep scanning
+     *
+     * @return the probability of each class; other moods are 0
+     */
+    public MoodVector classify(State state, double typingSpeed, int hour) {
+        if (state.model() != this) {
+            throw new IllegalArgumentException("State of another model");
+        }
+        int classCount = classes.length;
+        double[] logits = new double[classCount];
+        for (int c = 0; c < classCount; c++) {
+            logits[c] = bias[c] + state.logits[c];
+        }
+        int[] pending = new int[MoodFeatureScan.MAX_PENDING_FEATURES];
+        int count = state.pendingFeatures(typingSpeed, hour, pending);
+        for (int i = 0; i < count; i++) {
+            addRow(pending[i], logits);
+        }
+
+        double max = Double.NEGATIVE_INFINITY;
+        for (double logit : logits) {
+            max = Math.max(max, logit);
+        }
+        double sum = 0;
+        for (int c = 0; c < classCount; c++) {
+            logits[c] = Math.exp(logits[c] - max);
+            sum += logits[c];
+        }
+        MoodVector mood = new MoodVector();
+        for (int c = 0; c < classCount; c++) {
+            mood.set(classes[c], logits[c] / sum);
+        }
+        return mood;
+    }
+
+    /**
+     * Starts a scan for text that arrives in pieces
+     */
+    public State newState() {
+        return new State();
+    }
+
+    private void addRow(int feature, double[] logits) {
+        int row = feature * logits.length;
+        for (int c = 0; c < logits.length; c++) {
+            logits[c] += weights[row + c];
+        }
+    }
+
+    private static int weightsOffset(int classCount) {
+        return (HEADER + classCount + 3) & ~3;
+    }
+
+    /**
+     * Scan position plus the summed weights of the tokens completed so far
+     */
+    public final class State extends MoodFeatureScan {
+
+        private final double[] logits = new double[classes.length];
+
+        private State() {
+            super(hashBits);
+        }
+
+        @Override
+        protected void tokenFeature(int feature) {
+            addRow(feature, logits);
+        }
+
+        public void copyFrom(State other) {
+            super.copyFrom(other);
+            System.arraycopy(other.logits, 0, logits, 0, logits.length);
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            Arrays.fill(logits, 0);
+        }
+
+        private MoodModel model() {
+            return MoodModel.this;
+        }
+    }
+}
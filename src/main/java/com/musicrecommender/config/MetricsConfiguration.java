@@ -0,0 +1,128 @@
+package com.musicrecommender.config;
+
+import com.musicrecommender.service.BehaviorRecorder;
+import com.musicrecommender.service.RecommendationCache;
+import com.musicrecommender.service.SentimentAnalysisService;
+import com.musicrecommender.service.TimeContextLearningService;
+import com.musicrecommender.service.TypingSessionService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gauges and counters read from state the services already keep; they are only
+ * evaluated when metrics are scraped, so they add nothing to the request path.
+ * Pipeline stage timers and mood counters are recorded by PipelineMetrics.
+ */
+@Configuration(proxyBeanMethods = false)
+public class MetricsConfiguration {
+
+    @Bean
+    MeterBinder learningMetrics(TimeContextLearningService learningService) {
+        return registry -> {
+            Gauge.builder("recommender.learning.users", learningService, TimeContextLearningService::getUserCount)
+                .description("Users whose learned behavior is in memory")
+                .register(registry);
+            Gauge.builder("recommender.learning.behaviors", learningService, TimeContextLearningService::getBehaviorCount)
+                .description("Behavior records held in memory across all users")
+                .register(registry);
+            Gauge.builder("recommender.learning.bytes", learningService, TimeContextLearningService::getEstimatedBytes)
+                .description("Estimated heap held by learned behavior")
+                .baseUnit("bytes")
+                .register(registry);
+            Gauge.builder("recommender.learning.bytes.per.user", learningService,
+                    s -> s.getUserCount() == 0 ? 0 : (double) s.getEstimatedBytes() / s.getUserCount())
+                .description("Estimated heap per user in memory, in bytes")
+                .register(registry);
+            Gauge.builder("recommender.learning.spilled.users", learningService, TimeContextLearningService::getSpilledUserCount)
+                .description("Users with learned behavior in the spill store")
+                .register(registry);
+            Gauge.builder("recommender.learning.spill.pending", learningService, TimeContextLearningService::getPendingSpillCount)
+                .description("Evicted users waiting to be written to the spill store")
+                .register(registry);
+            Gauge.builder("recommender.learning.tags", learningService, TimeContextLearningService::getTagCount)
+                .description("Distinct search tags held by the users in memory")
+                .register(registry);
+            FunctionCounter.builder("recommender.learning.tags.dropped", learningService,
+                    TimeContextLearningService::getDroppedTagCount)
+                .description("New search tags not learned because the tag dictionary was full")
+                .register(registry);
+            FunctionCounter.builder("recommender.learning.evictions", learningService, TimeContextLearningService::getEvictionCount)
+                .description("Users evicted from memory for the budget or for being idle")
+                .register(registry);
+            FunctionCounter.builder("recommender.learning.reloads", learningService, TimeContextLearningService::getReloadCount)
+                .description("Evicted users read back from the spill store")
+                .register(registry);
+            FunctionCounter.builder("recommender.learning.spill.failures", learningService,
+                    TimeContextLearningService::getSpillFailureCount)
+                .description("Spill store reads and writes that failed, losing a user's learned behavior")
+                .register(registry);
+        };
+    }
+
+    @Bean
+    MeterBinder behaviorRecorderMetrics(BehaviorRecorder recorder) {
+        return registry -> {
+            Gauge.builder("recommender.recorder.queue.depth", recorder, BehaviorRecorder::getQueueDepth)
+                .description("Behaviors waiting to be recorded")
+                .register(registry);
+            TimeGauge.builder("recommender.recorder.lag", recorder, TimeUnit.MILLISECONDS, BehaviorRecorder::getLagMillis)
+                .description("Time between publishing and recording of the newest recorded behavior")
+                .register(registry);
+            FunctionCounter.builder("recommender.recorder.published", recorder, BehaviorRecorder::getPublishedCount)
+                .register(registry);
+            FunctionCounter.builder("recommender.recorder.recorded", recorder, BehaviorRecorder::getRecordedCount)
+                .register(registry);
+            FunctionCounter.builder("recommender.recorder.dropped", recorder, BehaviorRecorder::getDroppedCount)
+                .description("Behaviors dropped because the queue was full")
+                .register(registry);
+        };
+    }
+
+    @Bean
+    MeterBinder responseCacheMetrics(RecommendationCache cache) {
+        return registry -> {
+            Gauge.builder("recommender.cache.size", cache, RecommendationCache::getEntryCount)
+                .register(registry);
+            Gauge.builder("recommender.cache.bytes", cache, RecommendationCache::getEstimatedBytes)
+                .description("Estimated heap held by cached responses")
+                .baseUnit("bytes")
+                .register(registry);
+            Gauge.builder("recommender.cache.hit.ratio", cache, c -> c.getStats().hitRate())
+                .register(registry);
+            FunctionCounter.builder("recommender.cache.requests", cache, c -> c.getStats().hitCount())
+                .tag("result", "hit")
+                .register(registry);
+            FunctionCounter.builder("recommender.cache.requests", cache, c -> c.getStats().missCount())
+                .tag("result", "miss")
+                .register(registry);
+            FunctionCounter.builder("recommender.cache.evictions", cache, c -> c.getStats().evictionCount())
+                .register(registry);
+        };
+    }
+
+    @Bean
+    MeterBinder sentimentLexiconMetrics(SentimentAnalysisService sentimentAnalysisService) {
+        return registry -> {
+            Gauge.builder("recommender.lexicon.terms", sentimentAnalysisService, SentimentAnalysisService::getLexiconSize)
+                .description("Distinct terms in the sentiment lexicon")
+                .register(registry);
+            Gauge.builder("recommender.lexicon.bytes", sentimentAnalysisService, SentimentAnalysisService::getLexiconBytes)
+                .description("Heap held by the sentiment lexicon's hash table")
+                .baseUnit("bytes")
+                .register(registry);
+        };
+    }
+
+    @Bean
+    MeterBinder typingSessionMetrics(TypingSessionService typingSessionService) {
+        return registry -> Gauge.builder("recommender.typing.sessions", typingSessionService, TypingSessionService::getOpenSessionCount)
+            .description("Open live typing sessions")
+            .register(registry);
+    }
+}
@@ -0,0 +1,337 @@
+package com.musicrecommender.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.musicrecommender.model.*;
+import com.musicrecommender.service.*;
+import jakarta.validation.Valid;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Non-blocking variant of {@link RecommendationController}, active when the application
+ * runs on the reactive stack (spring.main.web-application-type=reactive).
+ * The pipeline stages are composed as Mono steps on the event loop (each is a few
+ * microseconds of CPU), and behavior recording is fire-and-forget, so a small number
+ * of event-loop threads can hold many idle connections.
+ */
+@RestController
+@RequestMapping("/api/recommendations")
+@CrossOrigin(origins = "*") // Allow CORS for frontend integration
+@ConditionalOnProperty(name = "spring.main.web-application-type", havingValue = "reactive")
+public class ReactiveRecommendationController {
+    
+    private static final Logger log = LoggerFactory.getLogger(ReactiveRecommendationController.class);
+    
+    @Autowired
+    private MoodPredictionService moodPredictionService;
+    
+    @Autowired
+    private RecommendationEngineService recommendationEngineService;
+    
+    @Autowired
+    private PlaylistGeneratorService playlistGeneratorService;
+    
+    @Autowired
+    private RecommendationPipelineService recommendationPipelineService;
+    
+    @Autowired
+    private RecommendationCache recommendationCache;
+    
+    @Autowired
+    private BehaviorRecorder behaviorRecorder;
+    
+    @Autowired
+    private TypingSessionService typingSessionService;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    // Sessions of a batch in flight at once
+    @Value("${recommender.batch.max-in-flight:256}")
+    private int maxInFlight;
+    
+    // Comment events sent on idle streams so proxies keep them open
+    @Value("${recommender.reactive.heartbeat-seconds:15}")
+    private long heartbeatSeconds;
+    
+    /**
+     * A batch item with its position, or the read error that ended the batch
+     */
+    private record BatchSlot(int index, BatchRecommendationItem item, String error) {
+    }
+    
+    /**
+     * Main endpoint: Get music recommendations based on user input
+     */
+    @PostMapping
+    public Mono<RecommendationResponse> getRecommendations(
+            @Valid @RequestBody Mono<UserInput> userInput,
+            @RequestParam(required = false) String userId,
+            @RequestParam(defaultValue = "30") int playlistLengthMinutes) {
+        
+        return userInput.flatMap(input -> recommend(input, userId, playlistLengthMinutes)
+            .doOnNext(response -> recordBehavior(userId, input, response.getMoodScore())));
+    }
+    
+    /**
+     * Get mood prediction only (without recommendations)
+     */
+    @PostMapping("/mood")
+    public Mono<MoodScore> predictMood(
+            @Valid @RequestBody Mono<UserInput> userInput,
+            @RequestParam(required = false) String userId) {
+        
+        return userInput.map(input -> moodPredictionService.predictMood(input, userId));
+    }
+    
+    /**
+     * Batch endpoint, JSON array in and out: same contract as the servlet variant.
+     * Results are emitted in input order, and learning is fed from that ordered stream.
+     */
+    @PostMapping(value = "/batch",
+                 consumes = MediaType.APPLICATION_JSON_VALUE,
+                 produces = MediaType.APPLICATION_JSON_VALUE)
+    public Flux<BatchRecommendationResult> getBatchRecommendations(
+            @RequestBody Flux<BatchRecommendationItem> items,
+            @RequestParam(defaultValue = "30") int playlistLengthMinutes) {
+        
+        return recommendBatch(items, playlistLengthMinutes);
+    }
+    
+    /**
+     * Batch endpoint, NDJSON in and out. Lines are parsed one by one, so a malformed line
+     * ends the batch exactly there.
+     */
+    @PostMapping(value = "/batch",
+                 consumes = MediaType.APPLICATION_NDJSON_VALUE,
+                 produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<BatchRecommendationResult> getBatchRecommendationsNdjson(
+            @RequestBody Flux<String> lines,
+            @RequestParam(defaultValue = "30") int playlistLengthMinutes) {
+        
+        ObjectReader reader = objectMapper.readerFor(BatchRecommendationItem.class);
+        Flux<BatchRecommendationItem> items = lines
+            .filter(line -> !line.isBlank())
+            .handle((line, sink) -> {
+                try {
+                    sink.next(reader.readValue(line));
+                } catch (IOException e) {
+                    sink.error(e);
+                }
+            });
+        return recommendBatch(items, playlistLengthMinutes);
+    }
+    
+    /**
+     * Live recommendations: the client streams input snapshots (NDJSON) as the user types
+     * and receives a server-sent event whenever the recommendations change.
+     * Snapshots that arrive while one is being scored are skipped in favour of the latest,
+     * and the session's final mood is recorded for learning when the client closes its stream.
+     */
+    @PostMapping(value = "/stream",
+                 consumes = MediaType.APPLICATION_NDJSON_VALUE,
+                 produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<RecommendationResponse>> streamRecommendations(
+            @Valid @RequestBody Flux<UserInput> updates,
+            @RequestParam(required = false) String userId,
+            @RequestParam(defaultValue = "30") int playlistLengthMinutes) {
+        
+        AtomicReference<UserInput> lastInput = new AtomicReference<>();
+        AtomicReference<MoodScore> lastMood = new AtomicReference<>();
+        AtomicInteger eventId = new AtomicInteger();
+        
+        Flux<ServerSentEvent<RecommendationResponse>> recommendations = updates
+            .onBackpressureLatest()
+            .concatMap(input -> recommend(input, userId, playlistLengthMinutes)
+                .doOnNext(response -> {
+                    lastInput.set(input);
+                    lastMood.set(response.getMoodScore());
+                }), 1)
+            // Only push when the outcome differs; the playlist is reshuffled on every update
+            .distinctUntilChanged(response -> Map.entry(response.getMoodScore(), response.getRecommendedCategories()))
+            .map(response -> ServerSentEvent.builder(response)
+                .id(String.valueOf(eventId.incrementAndGet()))
+                .event("recommendation")
+                .build())
+            .doOnComplete(() -> {
+                if (lastInput.get() != null) {
+                    recordBehavior(userId, lastInput.get(), lastMood.get());
+                }
+            });
+        
+        Flux<ServerSentEvent<RecommendationResponse>> heartbeats = Flux.interval(Duration.ofSeconds(heartbeatSeconds))
+            .map(tick -> ServerSentEvent.<RecommendationResponse>builder().comment("keep-alive").build());
+        
+        // Heartbeats stop when the recommendation stream ends (one subscription to the request body)
+        return recommendations.publish(shared -> Flux.merge(shared, heartbeats.takeUntilOther(shared.then())));
+    }
+    
+    /**
+     * Opens a live typing session; the text then arrives as deltas
+     */
+    @PostMapping("/sessions")
+    public Mono<TypingSessionUpdate> openTypingSession(
+            @Valid @RequestBody(required = false) Mono<TypingSessionStart> start,
+            @RequestParam(required = false) String userId) {
+        
+        return start.map(Optional::of)
+            .defaultIfEmpty(Optional.empty())
+            .map(body -> typingSessionService.open(body.orElse(null), userId));
+    }
+    
+    /**
+     * Applies a text delta to a typing session; the mood is included only when it changed
+     */
+    @PostMapping("/sessions/{sessionId}/deltas")
+    public Mono<ResponseEntity<TypingSessionUpdate>> updateTypingSession(
+            @PathVariable String sessionId,
+            @Valid @RequestBody Mono<TypingDelta> delta) {
+        
+        return delta.map(body -> {
+            try {
+                TypingSessionUpdate update = typingSessionService.update(sessionId, body);
+                return update != null ? ResponseEntity.ok(update) : ResponseEntity.notFound().<TypingSessionUpdate>build();
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().<TypingSessionUpdate>build();
+            }
+        });
+    }
+    
+    /**
+     * Streams deltas (NDJSON) into an open typing session and sends a server-sent event
+     * whenever the mood changes. The session is closed, and its final mood recorded for
+     * learning, when the client ends its stream.
+     */
+    @PostMapping(value = "/sessions/{sessionId}/stream",
+                 consumes = MediaType.APPLICATION_NDJSON_VALUE,
+                 produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<TypingSessionUpdate>> streamTypingSession(
+            @PathVariable String sessionId,
+            @Valid @RequestBody Flux<TypingDelta> deltas) {
+        
+        Flux<ServerSentEvent<TypingSessionUpdate>> moods = deltas
+            // Deltas must all be applied, in order; each costs only its own length
+            .concatMap(delta -> Mono.justOrEmpty(typingSessionService.update(sessionId, delta)))
+            .filter(update -> update.getMoodScore() != null)
+            .map(update -> typingEvent(update, "mood"))
+            .concatWith(Mono.fromCallable(() -> typingSessionService.close(sessionId))
+                .map(update -> typingEvent(update, "closed")));
+        
+        Flux<ServerSentEvent<TypingSessionUpdate>> heartbeats = Flux.interval(Duration.ofSeconds(heartbeatSeconds))
+            .map(tick -> ServerSentEvent.<TypingSessionUpdate>builder().comment("keep-alive").build());
+        
+        return moods.publish(shared -> Flux.merge(shared, heartbeats.takeUntilOther(shared.then())));
+    }
+    
+    private static ServerSentEvent<TypingSessionUpdate> typingEvent(TypingSessionUpdate update, String event) {
+        return ServerSentEvent.builder(update)
+            .id(String.valueOf(update.getRevision()))
+            .event(event)
+            .build();
+    }
+    
+    /**
+     * Closes a typing session, returning its final mood (recorded for learning if the session has a user)
+     */
+    @DeleteMapping("/sessions/{sessionId}")
+    public Mono<ResponseEntity<TypingSessionUpdate>> closeTypingSession(@PathVariable String sessionId) {
+        return Mono.fromCallable(() -> {
+            TypingSessionUpdate update = typingSessionService.close(sessionId);
+            return update != null ? ResponseEntity.ok(update) : ResponseEntity.notFound().<TypingSessionUpdate>build();
+        });
+    }
+    
+    /**
+     * Health check endpoint
+     */
+    @GetMapping("/health")
+    public Mono<Map<String, String>> health() {
+        return Mono.just(Map.of(
+            "status", "UP",
+            "service", "Mood-Driven Music Recommendation Engine"
+        ));
+    }
+    
+    /**
+     * Runs batch items in parallel and returns their results in input order
+     */
+    private Flux<BatchRecommendationResult> recommendBatch(Flux<BatchRecommendationItem> items, int playlistLengthMinutes) {
+        AtomicInteger received = new AtomicInteger();
+        return items
+            .map(item -> new BatchSlot(received.getAndIncrement(), item, null))
+            // Unreadable input ends the batch with an error result, after the sessions already read
+            .onErrorResume(e -> Mono.just(new BatchSlot(received.get(), null,
+                "Malformed batch input: " + NestedExceptionUtils.getMostSpecificCause(e).getMessage())))
+            // Sessions run in parallel; flatMapSequential hands results back in input order
+            .flatMapSequential(slot -> slot.error() != null
+                ? Mono.just(Map.entry(slot, new BatchRecommendationResult(slot.index(), null, null, slot.error())))
+                : Mono.fromCallable(() -> Map.entry(slot,
+                        recommendationPipelineService.recommendItem(slot.index(), slot.item(), playlistLengthMinutes)))
+                    .subscribeOn(Schedulers.parallel()),
+                maxInFlight)
+            .doOnNext(entry -> {
+                BatchRecommendationResult result = entry.getValue();
+                if (result.getResponse() != null) {
+                    recordBehavior(result.getUserId(), entry.getKey().item().getInput(), result.getResponse().getMoodScore());
+                }
+            })
+            .map(Map.Entry::getValue);
+    }
+    
+    /**
+     * The pipeline as Mono stages: mood, then categories, then playlist and reasoning.
+     * Anonymous requests go through the pipeline service in one step, to share its response cache.
+     */
+    private Mono<RecommendationResponse> recommend(UserInput userInput, String userId, int playlistLengthMinutes) {
+        if (recommendationCache.isCacheable(userId)) {
+            return Mono.fromCallable(() -> recommendationPipelineService.recommend(userInput, userId, playlistLengthMinutes));
+        }
+        return Mono.fromCallable(() -> moodPredictionService.predictMood(userInput, userId))
+            .map(moodScore -> Map.entry(moodScore, recommendationEngineService.getRecommendations(
+                moodScore, userInput.getSearchHistoryTags(), userId)))
+            .map(scored -> {
+                MoodScore moodScore = scored.getKey();
+                var recommendedCategories = scored.getValue();
+                Playlist playlist = playlistGeneratorService.generatePlaylist(
+                    moodScore,
+                    recommendedCategories,
+                    playlistLengthMinutes
+                );
+                String reasoning = recommendationEngineService.generateReasoning(moodScore, recommendedCategories);
+                return new RecommendationResponse(moodScore, recommendedCategories, playlist, reasoning);
+            });
+    }
+    
+    /**
+     * Fire-and-forget: never delays the response. Publishing is a non-blocking queue offer
+     * unless the recorder is configured to wait, in which case it moves off the event loop.
+     */
+    private void recordBehavior(String userId, UserInput userInput, MoodScore moodScore) {
+        if (!behaviorRecorder.mayBlock()) {
+            recommendationPipelineService.recordBehavior(userId, userInput, moodScore);
+            return;
+        }
+        Mono.fromRunnable(() -> recommendationPipelineService.recordBehavior(userId, userInput, moodScore))
+            .subscribeOn(Schedulers.boundedElastic())
+            .subscribe(null, e -> log.error("Failed to record behavior for user {}", userId, e));
+    }
+}
@@ -2,33 +2,47 @@ package com.musicrecommender.controller;
 
 import com.musicrecommender.model.*;
 import com.musicrecommender.service.*;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * REST API controller for mood-based music recommendations
+ * (servlet stack; see {@link ReactiveRecommendationController} for the reactive one)
  */
 @RestController
 @RequestMapping("/api/recommendations")
 @CrossOrigin(origins = "*") // Allow CORS for frontend integration
+@ConditionalOnProperty(name = "spring.main.web-application-type", havingValue = "servlet", matchIfMissing = true)
 public class RecommendationController {
     
     @Autowired
     private MoodPredictionService moodPredictionService;
     
     @Autowired
-    private RecommendationEngineService recommendationEngineService;
+    private RecommendationPipelineService recommendationPipelineService;
     
     @Autowired
-    private PlaylistGeneratorService playlistGeneratorService;
+    private TypingSessionService typingSessionService;
     
     @Autowired
-    private TimeContextLearningService timeContextLearningService;
+    private ObjectMapper objectMapper;
     
     /**
      * Main endpoint: Get music recommendations based on user input
@@ -48,35 +62,102 @@ public class RecommendationController {
             @RequestParam(required = false) String userId,
             @RequestParam(defaultValue = "30") int playlistLengthMinutes) {
         
-        // Predict mood
-        MoodScore moodScore = moodPredictionService.predictMood(userInput, userId);
-        
-        // Get music category recommendations
-        var recommendedCategories = recommendationEngineService.getRecommendations(moodScore);
-        
-        // Generate playlist
-        Playlist playlist = playlistGeneratorService.generatePlaylist(
-            moodScore, 
-            recommendedCategories, 
+        RecommendationResponse response = recommendationPipelineService.recommend(
+            userInput,
+            userId,
             playlistLengthMinutes
         );
         
-        // Generate reasoning
-        String reasoning = recommendationEngineService.generateReasoning(moodScore, recommendedCategories);
+        // Record behavior for learning (if userId provided), off the request thread
+        recommendationPipelineService.recordBehavior(userId, userInput, response.getMoodScore());
+        
+        return ResponseEntity.ok(response);
+    }
+    
+    /**
+     * Batch endpoint: recommendations for many sessions in one request
+     * 
+     * Accepts a JSON array or an NDJSON stream (Content-Type: application/x-ndjson) of items:
+     * { "userId": "u1", "playlistLengthMinutes": 30, "input": { ...UserInput... } }
+     * 
+     * Sessions run in parallel; results are streamed back in input order, in the same
+     * format as the request, as {"index", "userId", "response"} or {"index", "userId", "error"}.
+     */
+    @PostMapping(value = "/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public void getBatchRecommendations(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            @RequestParam(defaultValue = "30") int playlistLengthMinutes) throws IOException {
+        
+        boolean ndjson = MediaType.APPLICATION_NDJSON.isCompatibleWith(MediaType.parseMediaType(request.getContentType()));
+        response.setContentType(ndjson ? MediaType.APPLICATION_NDJSON_VALUE : MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
         
-        // Record behavior for learning (if userId provided)
-        if (userId != null && !userId.isEmpty()) {
-            recordUserBehavior(userId, userInput, moodScore);
+        ObjectWriter writer = objectMapper.writer();
+        OutputStream out = response.getOutputStream();
+        // Reads a root-level array element by element, or whitespace-separated values
+        try (MappingIterator<BatchRecommendationItem> items = objectMapper
+                 .readerFor(BatchRecommendationItem.class)
+                 .readValues(request.getInputStream());
+             SequenceWriter array = ndjson ? null : writer.writeValuesAsArray(out)) {
+            
+            // Each result is pushed to the client as soon as it is ready
+            recommendationPipelineService.recommendBatch(items, playlistLengthMinutes, result -> {
+                try {
+                    if (ndjson) {
+                        out.write(writer.writeValueAsBytes(result));
+                        out.write('\n');
+                        out.flush();
+                    } else {
+                        array.write(result);
+                        array.flush();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
         }
+    }
+    
+    /**
+     * Opens a live typing session; the text then arrives as deltas
+     */
+    @PostMapping("/sessions")
+    public ResponseEntity<TypingSessionUpdate> openTypingSession(
+            @Valid @RequestBody(required = false) TypingSessionStart start,
+            @RequestParam(required = false) String userId) {
         
-        RecommendationResponse response = new RecommendationResponse(
-            moodScore,
-            recommendedCategories,
-            playlist,
-            reasoning
-        );
+        return ResponseEntity.ok(typingSessionService.open(start, userId));
+    }
+    
+    /**
+     * Applies a text delta to a typing session. The response carries the mood only when
+     * it changed since the last one sent.
+     * 
+     * Example request:
+     * POST /api/recommendations/sessions/{sessionId}/deltas
+     * { "deleted": 0, "text": "studying fr", "keystrokes": [1705284000000, 1705284000180, ...] }
+     */
+    @PostMapping("/sessions/{sessionId}/deltas")
+    public ResponseEntity<TypingSessionUpdate> updateTypingSession(
+            @PathVariable String sessionId,
+            @Valid @RequestBody TypingDelta delta) {
         
-        return ResponseEntity.ok(response);
+        try {
+            TypingSessionUpdate update = typingSessionService.update(sessionId, delta);
+            return update != null ? ResponseEntity.ok(update) : ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+    
+    /**
+     * Closes a typing session, returning its final mood (recorded for learning if the session has a user)
+     */
+    @DeleteMapping("/sessions/{sessionId}")
+    public ResponseEntity<TypingSessionUpdate> closeTypingSession(@PathVariable String sessionId) {
+        TypingSessionUpdate update = typingSessionService.close(sessionId);
+        return update != null ? ResponseEntity.ok(update) : ResponseEntity.notFound().build();
     }
     
     /**
@@ -101,32 +182,4 @@ public class RecommendationController {
         response.put("service", "Mood-Driven Music Recommendation Engine");
         return ResponseEntity.ok(response);
     }
-    
-    /**
-     * Records user behavior for learning
-     */
-    private void recordUserBehavior(String userId, UserInput userInput, MoodScore moodScore) {
-        UserBehavior behavior = new UserBehavior();
-        behavior.setUserId(userId);
-        behavior.setTimestamp(userInput.getTimeOfDay());
-        
-        // Create mood history
-        Map<String, Integer> moodHistory = new HashMap<>();
-        moodHistory.put(moodScore.getPrimaryMood(), 1);
-        behavior.setMoodHistory(moodHistory);
-        
-        // Create tag frequency from search history
-        if (userInput.getSearchHistoryTags() != null) {
-            Map<String, Integer> tagFrequency = new HashMap<>();
-            for (String tag : userInput.getSearchHistoryTags()) {
-                tagFrequency.put(tag, tagFrequency.getOrDefault(tag, 0) + 1);
-            }
-            behavior.setTagFrequency(tagFrequency);
-        }
-        
-        behavior.setAverageTypingSpeed(userInput.getTypingSpeed());
-        
-        timeContextLearningService.recordBehavior(userId, behavior);
-    }
 }
-
@@ -0,0 +1,25 @@
+package com.musicrecommender.model;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One session of a batch recommendation request
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchRecommendationItem {
+    private String userId; // Optional; enables learning for this session
+    
+    @Min(value = 1, message = "Playlist length must be at least one minute")
+    private Integer playlistLengthMinutes; // Optional; defaults to the request parameter
+    
+    @Valid
+    @NotNull(message = "Input cannot be null")
+    private UserInput input;
+}
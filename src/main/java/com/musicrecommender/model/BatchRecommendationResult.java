@@ -0,0 +1,20 @@
+package com.musicrecommender.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The outcome for one session of a batch, in input order; either response or error is set
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchRecommendationResult {
+    private int index; // Position of the session in the batch
+    private String userId;
+    private RecommendationResponse response;
+    private String error;
+}
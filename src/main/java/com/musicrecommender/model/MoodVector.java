@@ -0,0 +1,126 @@
+package com.musicrecommender.model;
+
+import com.musicrecommender.model.MoodScore.MoodCategory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fixed-dimension mood scores indexed by {@link MoodCategory}, backed by a double[].
+ * Used inside the prediction pipeline instead of boxed maps; converted to the
+ * JSON map only when the final {@link MoodScore} is built.
+ */
+public final class MoodVector {
+
+    private static final MoodCategory[] CATEGORIES = MoodCategory.values();
+    private static final String[] KEYS = new String[CATEGORIES.length];
+
+    static {
+        for (MoodCategory mood : CATEGORIES) {
+            KEYS[mood.ordinal()] = mood.name().toLowerCase();
+        }
+    }
+
+    private final double[] values = new double[CATEGORIES.length];
+
+    public double get(MoodCategory mood) {
+        return values[mood.ordinal()];
+    }
+
+    public void set(MoodCategory mood, double value) {
+        values[mood.ordinal()] = value;
+    }
+
+    public void add(MoodCategory mood, double delta) {
+        values[mood.ordinal()] += delta;
+    }
+
+    /**
+     * Adds {@code deltas[offset + ordinal]} to the score of every mood
+     */
+    public void add(double[] deltas, int offset) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] += deltas[offset + i];
+        }
+    }
+
+    /**
+     * Caps every score at {@code max}
+     */
+    public void clampMax(double max) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.min(max, values[i]);
+        }
+    }
+
+    /**
+     * Restricts every score to the [min, max] range
+     */
+    public void clamp(double min, double max) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.min(max, Math.max(min, values[i]));
+        }
+    }
+
+    /**
+     * Replaces each score with {@code this * selfWeight + other * otherWeight}
+     */
+    public void blend(double selfWeight, MoodVector other, double otherWeight) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = values[i] * selfWeight + other.values[i] * otherWeight;
+        }
+    }
+
+    /**
+     * Replaces each score with {@code this * selfWeight + other[offset + ordinal] * otherWeight}
+     */
+    public void blend(double selfWeight, float[] other, int offset, double otherWeight) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = values[i] * selfWeight + other[offset + i] * otherWeight;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(values, 0.0);
+    }
+
+    /**
+     * Returns the highest scoring mood among {@code candidates}; ties go to the earliest candidate
+     */
+    public MoodCategory argMax(MoodCategory[] candidates) {
+        MoodCategory best = candidates[0];
+        for (int i = 1; i < candidates.length; i++) {
+            if (values[candidates[i].ordinal()] > values[best.ordinal()]) {
+                best = candidates[i];
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Converts the given dimensions to the lowercase-keyed map exposed in the API
+     */
+    public Map<String, Double> toMap(MoodCategory[] dimensions) {
+        Map<String, Double> map = new HashMap<>();
+        for (MoodCategory mood : dimensions) {
+            map.put(KEYS[mood.ordinal()], values[mood.ordinal()]);
+        }
+        return map;
+    }
+
+    public static String key(MoodCategory mood) {
+        return KEYS[mood.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("MoodVector{");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(KEYS[i]).append('=').append(values[i]);
+        }
+        return sb.append('}').toString();
+    }
+}
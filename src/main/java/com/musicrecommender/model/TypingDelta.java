@@ -0,0 +1,26 @@
+package com.musicrecommender.model;
+
+import jakarta.validation.constraints.Min;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.List;
+
+/**
+ * An edit to the text of a typing session: {@code deleted} characters are removed
+ * from the end (backspaces), then {@code text} is appended
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TypingDelta {
+    @Min(value = 0, message = "Deleted characters cannot be negative")
+    private int deleted;
+    
+    private String text; // Optional; appended after the deletion
+    
+    private List<Long> keystrokes; // Optional; epoch milliseconds of the keys in this delta
+    
+    @Min(value = 0, message = "Typing speed must be positive")
+    private Double typingSpeed; // Optional; overrides the speed estimated from keystrokes
+}
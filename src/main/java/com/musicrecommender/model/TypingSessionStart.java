@@ -0,0 +1,23 @@
+package com.musicrecommender.model;
+
+import jakarta.validation.constraints.Min;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Opens a typing session; the text then arrives as {@link TypingDelta}s
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TypingSessionStart {
+    private LocalDateTime timeOfDay; // Optional; the client's local time, defaults to the server's
+    
+    @Min(value = 0, message = "Typing speed must be positive")
+    private Double typingSpeed; // Optional; used until keystroke timestamps arrive
+    
+    private List<String> searchHistoryTags; // Optional search history
+}
@@ -0,0 +1,22 @@
+package com.musicrecommender.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * State of a typing session after a delta. The mood score is only included when it
+ * differs from the one last sent (new primary mood, or confidence past the threshold).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TypingSessionUpdate {
+    private String sessionId;
+    private long revision; // Deltas applied so far
+    private int length; // Characters of text in the session
+    private double typingSpeed; // Smoothed characters per second
+    private MoodScore moodScore;
+}
@@ -0,0 +1,470 @@
+package com.musicrecommender.persistence;
+
+import com.musicrecommender.model.UserBehavior;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Durable store for user behavior: an append-only log of memory-mapped segment files
+ * plus periodic snapshots of every user's retained history.
+ *
+ * Log records are [payload length (int)][CRC32C (int)][sequence (long), userId, behavior];
+ * a zero length marks the end of a segment. A snapshot stores, per user, the retained
+ * behaviors and the sequence of the last one, together with the log position it was
+ * started at. Startup loads the newest snapshot and replays only the log from that
+ * position, skipping records a user's snapshot already contains. Segments before the
+ * snapshot position are deleted once the snapshot is durable.
+ */
+@Component
+@ConditionalOnProperty(prefix = "recommender.persistence", name = "enabled", havingValue = "true")
+public class BehaviorJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(BehaviorJournal.class);
+
+    private static final int SNAPSHOT_MAGIC = 0x4d4d5253;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int RECORD_HEADER = 8;
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+    private static final int IO_BUFFER_SIZE = 1 << 20;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+
+    /**
+     * Receives the persisted state during {@link #restore}
+     */
+    public interface RecoveryHandler {
+
+        /** A user's history as of the snapshot, oldest first */
+        void restoreUser(String userId, long lastSequence, List<UserBehavior> behaviors);
+
+        /** A logged behavior; may already be covered by the user's snapshot */
+        void replay(String userId, long sequence, UserBehavior behavior);
+    }
+
+    /**
+     * Supplies the current per-user state when a snapshot is taken. The snapshot covers the
+     * log up to the position taken just before {@link #forEachUser} is called, so every
+     * behavior appended before then must be in the state it supplies: a source that appends
+     * and applies behaviors under its own lock must wait for the lock to be free first.
+     */
+    public interface SnapshotSource {
+        void forEachUser(SnapshotWriter writer) throws IOException;
+    }
+
+    public interface SnapshotWriter {
+        void writeUser(String userId, long lastSequence, List<UserBehavior> behaviors) throws IOException;
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long snapshotIntervalSeconds;
+    private final long flushIntervalMillis;
+    private final boolean snapshotOnShutdown;
+
+    // Guards the active segment, the sequence counter and the encode buffer
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ByteBuffer recordBuffer = ByteBuffer.allocate(MAX_RECORD_SIZE);
+    private final CRC32C checksum = new CRC32C();
+
+    private MappedByteBuffer segment;
+    private long segmentId;
+    private long nextSequence = 1;
+    private long bytesSinceSnapshot;
+
+    private ScheduledExecutorService scheduler;
+    private volatile SnapshotSource snapshotSource;
+    private boolean closed;
+
+    public BehaviorJournal(
+            @Value("${recommender.persistence.directory:data/behavior}") String directory,
+            @Value("${recommender.persistence.segment-size-mb:64}") int segmentSizeMb,
+            @Value("${recommender.persistence.snapshot-interval-seconds:300}") long snapshotIntervalSeconds,
+            @Value("${recommender.persistence.flush-interval-ms:1000}") long flushIntervalMillis,
+            @Value("${recommender.persistence.snapshot-on-shutdown:true}") boolean snapshotOnShutdown) {
+        this.directory = Paths.get(directory);
+        this.segmentSize = segmentSizeMb * 1024 * 1024;
+        this.snapshotIntervalSeconds = snapshotIntervalSeconds;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.snapshotOnShutdown = snapshotOnShutdown;
+    }
+
+    /**
+     * Loads the newest snapshot, replays the log written after it and opens the log for appends
+     */
+    public void restore(RecoveryHandler handler) throws IOException {
+        long started = System.nanoTime();
+        Files.createDirectories(directory);
+
+        long replayFromSegment = 0;
+        int replayFromOffset = 0;
+        long users = 0;
+
+        Path snapshot = latest(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        if (snapshot != null) {
+            try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+                ChannelReader reader = new ChannelReader(channel);
+                ByteBuffer buffer = reader.fill(24);
+                if (buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != SNAPSHOT_VERSION) {
+                    throw new IOException("Unrecognized snapshot format: " + snapshot);
+                }
+                replayFromSegment = buffer.getLong();
+                replayFromOffset = buffer.getInt();
+                nextSequence = Math.max(nextSequence, buffer.getLong() + 1);
+
+                while (reader.fill(MAX_RECORD_SIZE).get() != 0) {
+                    buffer = reader.fill(MAX_RECORD_SIZE);
+                    String userId = BehaviorRecordCodec.readString(buffer);
+                    long lastSequence = buffer.getLong();
+                    int count = buffer.getInt();
+                    List<UserBehavior> behaviors = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        behaviors.add(BehaviorRecordCodec.readBehavior(reader.fill(MAX_RECORD_SIZE), userId));
+                    }
+                    handler.restoreUser(userId, lastSequence, behaviors);
+                    users++;
+                }
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Truncated snapshot: " + snapshot, e);
+            }
+        }
+
+        long[] replayed = new long[1];
+        List<Long> segments = segmentIds();
+        for (long id : segments) {
+            if (id < replayFromSegment) {
+                continue;
+            }
+            int offset = id == replayFromSegment ? replayFromOffset : 0;
+            MappedByteBuffer mapped = map(id);
+            int end = replaySegment(mapped, offset, handler, replayed);
+            segmentId = id;
+            segment = mapped;
+            segment.position(end);
+        }
+
+        if (segment == null) {
+            // Never reuse the snapshot's segment id: its replay offset would skip new records
+            segmentId = replayFromSegment + 1;
+            segment = map(segmentId);
+        }
+
+        log.info("Restored behavior history of {} snapshot users and {} log records in {} ms",
+            users, replayed[0], TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    /**
+     * Appends a behavior to the log and returns its sequence number
+     */
+    public long append(String userId, UserBehavior behavior) {
+        appendLock.lock();
+        try {
+            recordBuffer.clear();
+            try {
+                recordBuffer.putLong(nextSequence);
+                BehaviorRecordCodec.writeString(recordBuffer, userId);
+                BehaviorRecordCodec.writeBehavior(recordBuffer, behavior);
+            } catch (BufferOverflowException e) {
+                throw new IllegalArgumentException("Behavior record exceeds " + MAX_RECORD_SIZE + " bytes");
+            }
+            int length = recordBuffer.position();
+
+            if (segment.remaining() < RECORD_HEADER + length) {
+                roll();
+            }
+
+            checksum.reset();
+            checksum.update(recordBuffer.array(), 0, length);
+            int position = segment.position();
+            segment.putInt(position + 4, (int) checksum.getValue());
+            segment.put(position + RECORD_HEADER, recordBuffer.array(), 0, length);
+            // Length goes last: a record is only visible once it is complete
+            segment.putInt(position, length);
+            segment.position(position + RECORD_HEADER + length);
+
+            bytesSinceSnapshot += RECORD_HEADER + length;
+            return nextSequence++;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not append to behavior log in " + directory, e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Starts periodic flushing and snapshots of the given source
+     */
+    public void start(SnapshotSource source) {
+        this.snapshotSource = source;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "behavior-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                log.error("Behavior log flush failed", e);
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot(source);
+            } catch (IOException | RuntimeException e) {
+                log.error("Behavior snapshot failed", e);
+            }
+        }, snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Forces appended records to disk
+     */
+    public void flush() {
+        MappedByteBuffer active;
+        appendLock.lock();
+        try {
+            active = segment;
+        } finally {
+            appendLock.unlock();
+        }
+        if (active != null) {
+            active.force();
+        }
+    }
+
+    /**
+     * Writes a snapshot of the source, then drops the log segments and snapshots it supersedes
+     */
+    public void snapshot(SnapshotSource source) throws IOException {
+        long started = System.nanoTime();
+        long fromSegment;
+        int fromOffset;
+        long lastSequence;
+        long appendedBytes;
+        appendLock.lock();
+        try {
+            fromSegment = segmentId;
+            fromOffset = segment.position();
+            lastSequence = nextSequence - 1;
+            appendedBytes = bytesSinceSnapshot;
+            bytesSinceSnapshot = 0;
+        } finally {
+            appendLock.unlock();
+        }
+
+        Path temp = directory.resolve(SNAPSHOT_PREFIX + "tmp");
+        long[] users = new long[1];
+        long size;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ChannelWriter writer = new ChannelWriter(channel);
+            ByteBuffer buffer = writer.reserve(24);
+            buffer.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putLong(fromSegment).putInt(fromOffset).putLong(lastSequence);
+
+            source.forEachUser((userId, userLastSequence, behaviors) -> {
+                ByteBuffer out = writer.reserve(MAX_RECORD_SIZE);
+                out.put((byte) 1);
+                BehaviorRecordCodec.writeString(out, userId);
+                out.putLong(userLastSequence);
+                out.putInt(behaviors.size());
+                for (UserBehavior behavior : behaviors) {
+                    BehaviorRecordCodec.writeBehavior(writer.reserve(MAX_RECORD_SIZE), behavior);
+                }
+                users[0]++;
+            });
+            writer.reserve(1).put((byte) 0);
+            writer.flush();
+            channel.force(true);
+            size = channel.size();
+        }
+
+        Path target = directory.resolve(String.format("%s%016d%s", SNAPSHOT_PREFIX, lastSequence, SNAPSHOT_SUFFIX));
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                boolean staleSnapshot = name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX)
+                    && !file.equals(target);
+                boolean staleSegment = name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)
+                    && parseId(name, SEGMENT_PREFIX, SEGMENT_SUFFIX) < fromSegment;
+                if (staleSnapshot || staleSegment) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+
+        log.info("Behavior snapshot of {} users ({} bytes) written in {} ms; {} log bytes appended since the previous one",
+            users[0], size, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), appendedBytes);
+    }
+
+    /**
+     * Stops flushing and snapshots, then takes the shutdown snapshot; later calls do nothing
+     */
+    @PreDestroy
+    public void close() throws IOException, InterruptedException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        flush();
+        SnapshotSource source = snapshotSource;
+        if (snapshotOnShutdown && source != null) {
+            snapshot(source);
+        }
+    }
+
+    private void roll() throws IOException {
+        segment.force();
+        segmentId++;
+        segment = map(segmentId);
+    }
+
+    private MappedByteBuffer map(long id) throws IOException {
+        Path file = directory.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            if (raf.length() < segmentSize) {
+                raf.setLength(segmentSize);
+            }
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+        }
+    }
+
+    /**
+     * Replays a segment from {@code offset}; returns the offset after the last valid record
+     */
+    private int replaySegment(MappedByteBuffer mapped, int offset, RecoveryHandler handler, long[] replayed) {
+        int position = offset;
+        while (position + RECORD_HEADER <= mapped.capacity()) {
+            int length = mapped.getInt(position);
+            if (length <= 0 || length > MAX_RECORD_SIZE || position + RECORD_HEADER + length > mapped.capacity()) {
+                break;
+            }
+            ByteBuffer record = mapped.slice(position + RECORD_HEADER, length);
+            checksum.reset();
+            checksum.update(record.duplicate());
+            if ((int) checksum.getValue() != mapped.getInt(position + 4)) {
+                // Torn write at the tail: clear it so later appends start from a clean slate
+                log.warn("Discarding incomplete behavior record at offset {}", position);
+                for (int i = position; i < mapped.capacity(); i++) {
+                    mapped.put(i, (byte) 0);
+                }
+                break;
+            }
+            long sequence = record.getLong();
+            String userId = BehaviorRecordCodec.readString(record);
+            handler.replay(userId, sequence, BehaviorRecordCodec.readBehavior(record, userId));
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            replayed[0]++;
+            position += RECORD_HEADER + length;
+        }
+        return position;
+    }
+
+    private List<Long> segmentIds() throws IOException {
+        List<Long> ids = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(file -> file.getFileName().toString())
+                .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                .forEach(name -> ids.add(parseId(name, SEGMENT_PREFIX, SEGMENT_SUFFIX)));
+        }
+        ids.sort(null);
+        return ids;
+    }
+
+    private Path latest(String prefix, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                .filter(file -> {
+                    String name = file.getFileName().toString();
+                    return name.startsWith(prefix) && name.endsWith(suffix);
+                })
+                .max((a, b) -> Long.compare(
+                    parseId(a.getFileName().toString(), prefix, suffix),
+                    parseId(b.getFileName().toString(), prefix, suffix)))
+                .orElse(null);
+        }
+    }
+
+    private static long parseId(String name, String prefix, String suffix) {
+        return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+    }
+
+    /**
+     * Buffered sequential reader that keeps at least the requested number of bytes available
+     */
+    private static final class ChannelReader {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER_SIZE).flip();
+
+        ChannelReader(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        ByteBuffer fill(int wanted) throws IOException {
+            if (buffer.remaining() < wanted) {
+                buffer.compact();
+                while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                    // keep reading until the buffer is full or the file ends
+                }
+                buffer.flip();
+            }
+            return buffer;
+        }
+    }
+
+    /**
+     * Buffered sequential writer that hands out buffer space for the next write
+     */
+    private static final class ChannelWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER_SIZE);
+
+        ChannelWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        ByteBuffer reserve(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+            return buffer;
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
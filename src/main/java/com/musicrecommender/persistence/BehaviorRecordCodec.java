@@ -0,0 +1,115 @@
+package com.musicrecommender.persistence;
+
+import com.musicrecommender.model.MoodScore.MoodCategory;
+import com.musicrecommender.model.UserBehavior;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary form of a {@link UserBehavior}, shared by the log and the snapshots.
+ *
+ * Layout: epoch second (long), typing speed (float, NaN when absent),
+ * mood count (byte) then per mood its ordinal (byte) and count (int),
+ * tag count (unsigned short) then per tag its UTF-8 bytes (unsigned short length + bytes) and
+ * frequency (int). Moods outside {@link MoodCategory} and hourMoodPatterns are not persisted;
+ * a count or length beyond an unsigned short is rejected with IllegalArgumentException.
+ * Strings are written the same way wherever the records store them.
+ */
+final class BehaviorRecordCodec {
+
+    private static final MoodCategory[] MOODS = MoodCategory.values();
+
+    private static final int MAX_UNSIGNED_SHORT = 0xFFFF;
+
+    private BehaviorRecordCodec() {
+    }
+
+    static void writeBehavior(ByteBuffer buffer, UserBehavior behavior) {
+        buffer.putLong(behavior.getTimestamp().toEpochSecond(ZoneOffset.UTC));
+        buffer.putFloat(behavior.getAverageTypingSpeed() != null
+            ? behavior.getAverageTypingSpeed().floatValue() : Float.NaN);
+
+        Map<String, Integer> moodHistory = behavior.getMoodHistory();
+        int moodCountPosition = buffer.position();
+        buffer.put((byte) 0);
+        int moods = 0;
+        if (moodHistory != null) {
+            for (Map.Entry<String, Integer> entry : moodHistory.entrySet()) {
+                MoodCategory mood = parseMood(entry.getKey());
+                if (mood != null) {
+                    buffer.put((byte) mood.ordinal());
+                    buffer.putInt(entry.getValue());
+                    moods++;
+                }
+            }
+        }
+        buffer.put(moodCountPosition, (byte) moods);
+
+        Map<String, Integer> tagFrequency = behavior.getTagFrequency();
+        putUnsignedShort(buffer, tagFrequency == null ? 0 : tagFrequency.size(), "Tag count");
+        if (tagFrequency != null) {
+            for (Map.Entry<String, Integer> entry : tagFrequency.entrySet()) {
+                writeString(buffer, entry.getKey());
+                buffer.putInt(entry.getValue());
+            }
+        }
+    }
+
+    static UserBehavior readBehavior(ByteBuffer buffer, String userId) {
+        UserBehavior behavior = new UserBehavior();
+        behavior.setUserId(userId);
+        behavior.setTimestamp(LocalDateTime.ofEpochSecond(buffer.getLong(), 0, ZoneOffset.UTC));
+        float typingSpeed = buffer.getFloat();
+        behavior.setAverageTypingSpeed(Float.isNaN(typingSpeed) ? null : (double) typingSpeed);
+
+        int moods = buffer.get();
+        Map<String, Integer> moodHistory = new HashMap<>();
+        for (int i = 0; i < moods; i++) {
+            moodHistory.put(MOODS[buffer.get()].name(), buffer.getInt());
+        }
+        behavior.setMoodHistory(moodHistory);
+
+        int tags = Short.toUnsignedInt(buffer.getShort());
+        if (tags > 0) {
+            Map<String, Integer> tagFrequency = new HashMap<>();
+            for (int i = 0; i < tags; i++) {
+                tagFrequency.put(readString(buffer), buffer.getInt());
+            }
+            behavior.setTagFrequency(tagFrequency);
+        }
+        return behavior;
+    }
+
+    static void writeString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putUnsignedShort(buffer, bytes.length, "String length");
+        buffer.put(bytes);
+    }
+
+    static String readString(ByteBuffer buffer) {
+        int length = Short.toUnsignedInt(buffer.getShort());
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putUnsignedShort(ByteBuffer buffer, int value, String what) {
+        if (value > MAX_UNSIGNED_SHORT) {
+            throw new IllegalArgumentException(what + " too large to persist: " + value);
+        }
+        buffer.putShort((short) value);
+    }
+
+    private static MoodCategory parseMood(String mood) {
+        for (MoodCategory category : MOODS) {
+            if (category.name().equalsIgnoreCase(mood)) {
+                return category;
+            }
+        }
+        return null;
+    }
+}
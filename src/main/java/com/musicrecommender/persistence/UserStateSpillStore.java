@@ -0,0 +1,581 @@
+package com.musicrecommender.persistence;
+
+import com.musicrecommender.model.UserBehavior;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Local on-disk home for the learning state of users evicted from memory, read back
+ * when such a user is seen again. It is scratch space: it starts empty and is deleted
+ * at shutdown; durability across restarts stays with {@link BehaviorJournal}.
+ *
+ * A user's state is appended to a data file as [length (int)][userId][last sequence (long)]
+ * [behavior count (int)][behaviors], behaviors in the journal's record format. A memory-mapped
+ * open-addressing table maps a 64-bit hash of the userId to the location of the user's newest
+ * record, so users on disk cost no heap. Rewriting a user leaves the old record behind; once
+ * dead records make up more than half of the data, the live ones are copied to a new data
+ * file in the background.
+ *
+ * The data file channels are shared by all callers, and a FileChannel is closed for every
+ * thread when one thread is interrupted during its I/O. A caller interrupted that way
+ * gets the ClosedByInterruptException; the channel is reopened for everyone else, whose
+ * operation is retried.
+ */
+@Component
+@ConditionalOnProperty(prefix = "recommender.learning.spill", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class UserStateSpillStore {
+
+    private static final Logger log = LoggerFactory.getLogger(UserStateSpillStore.class);
+
+    // Index slots are [hash (long), location (long)]; a zero hash marks an empty slot
+    private static final int SLOT_BYTES = 16;
+    private static final int INITIAL_SLOTS = 1 << 16;
+    private static final int MAX_SLOTS = 1 << 27;
+    // Locations are [data file id (16 bits)][offset (48 bits)]
+    private static final int OFFSET_BITS = 48;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+    // Slots visited per lock acquisition by scans and compaction
+    private static final int CHUNK_SLOTS = 1024;
+
+    private static final String INDEX_PREFIX = "index-";
+    private static final String DATA_PREFIX = "data-";
+
+    /**
+     * A user's state as it was written
+     */
+    public record StoredUser(long lastSequence, List<UserBehavior> behaviors) {
+    }
+
+    private final String configuredDirectory;
+    private final long compactMinBytes;
+
+    // Write lock: appends, index updates, resizes and compaction steps. Read lock: lookups
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private Path directory;
+    private boolean temporaryDirectory;
+    private MappedByteBuffer index;
+    private int slotMask;
+    // Bumped when the index is resized, so scans can tell that slots moved
+    private int indexVersion;
+    private int users;
+
+    // Concurrent: a channel closed by an interrupt is replaced under the read lock and reopenLock
+    private final Map<Integer, FileChannel> dataFiles = new ConcurrentHashMap<>();
+    private final ReentrantLock reopenLock = new ReentrantLock();
+    private int activeFile;
+    private long activeFileSize;
+    private long totalBytes;
+    private long liveBytes;
+    private ByteBuffer encodeBuffer = ByteBuffer.allocate(64 * 1024);
+
+    private ExecutorService compactor;
+    private volatile boolean compacting;
+
+    public UserStateSpillStore(
+            @Value("${recommender.learning.spill.directory:}") String directory,
+            @Value("${recommender.learning.spill.compact-min-mb:64}") long compactMinMb) {
+        this.configuredDirectory = directory;
+        this.compactMinBytes = compactMinMb * 1024 * 1024;
+    }
+
+    @PostConstruct
+    void open() throws IOException {
+        if (configuredDirectory == null || configuredDirectory.isBlank()) {
+            directory = Files.createTempDirectory("user-state-spill");
+            temporaryDirectory = true;
+        } else {
+            directory = Paths.get(configuredDirectory);
+            Files.createDirectories(directory);
+            deleteStoreFiles();
+        }
+        index = mapIndex(INITIAL_SLOTS);
+        slotMask = INITIAL_SLOTS - 1;
+        openDataFile(0);
+        compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "user-state-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Stores the user's state, replacing any earlier copy
+     */
+    public void write(String userId, long lastSequence, List<UserBehavior> behaviors) throws IOException {
+        long hash = hash(userId);
+        byte[] userIdBytes = userId.getBytes(StandardCharsets.UTF_8);
+        lock.writeLock().lock();
+        try {
+            if (index == null) {
+                throw new IOException("User state spill store is closed");
+            }
+            ByteBuffer record = encode(userId, lastSequence, behaviors);
+            int length = record.remaining();
+            long location = append(record);
+
+            int slot = findSlot(hash, userIdBytes);
+            int position = slot * SLOT_BYTES;
+            if (index.getLong(position) == 0) {
+                index.putLong(position, hash);
+                users++;
+            } else {
+                liveBytes -= recordLength(index.getLong(position + 8));
+            }
+            index.putLong(position + 8, location);
+            liveBytes += length;
+
+            if (users > (slotMask + 1) / 4 * 3) {
+                resize();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        maybeCompact();
+    }
+
+    /**
+     * The user's stored state, or null when the user was never written
+     */
+    public StoredUser read(String userId) throws IOException {
+        long hash = hash(userId);
+        lock.readLock().lock();
+        try {
+            if (index == null) {
+                throw new IOException("User state spill store is closed");
+            }
+            for (int slot = (int) hash & slotMask; ; slot = (slot + 1) & slotMask) {
+                long slotHash = index.getLong(slot * SLOT_BYTES);
+                if (slotHash == 0) {
+                    return null;
+                }
+                if (slotHash == hash) {
+                    ByteBuffer record = readRecord(index.getLong(slot * SLOT_BYTES + 8));
+                    // Distinct users sharing a 64-bit hash are told apart by the stored userId
+                    if (BehaviorRecordCodec.readString(record).equals(userId)) {
+                        return decode(record, userId);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Visits every stored user. Users written during the scan may be visited twice, with
+     * their older and newer state; none is missed.
+     */
+    public void forEach(BehaviorJournal.SnapshotWriter visitor) throws IOException {
+        int slot = 0;
+        int version;
+        lock.readLock().lock();
+        try {
+            version = indexVersion;
+        } finally {
+            lock.readLock().unlock();
+        }
+        while (true) {
+            List<String> userIds = new ArrayList<>();
+            List<StoredUser> states = new ArrayList<>();
+            lock.readLock().lock();
+            try {
+                if (version != indexVersion) {
+                    // Resized mid-scan: slots moved, so start over on the new index
+                    version = indexVersion;
+                    slot = 0;
+                }
+                if (slot > slotMask) {
+                    return;
+                }
+                int end = Math.min(slotMask + 1, slot + CHUNK_SLOTS);
+                for (; slot < end; slot++) {
+                    if (index.getLong(slot * SLOT_BYTES) != 0) {
+                        ByteBuffer record = readRecord(index.getLong(slot * SLOT_BYTES + 8));
+                        String userId = BehaviorRecordCodec.readString(record);
+                        userIds.add(userId);
+                        states.add(decode(record, userId));
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            // Visited outside the lock, so a slow visitor does not hold up evictions
+            for (int i = 0; i < userIds.size(); i++) {
+                visitor.writeUser(userIds.get(i), states.get(i).lastSequence(), states.get(i).behaviors());
+            }
+        }
+    }
+
+    /**
+     * Users with a stored state
+     */
+    public int getUserCount() {
+        lock.readLock().lock();
+        try {
+            return users;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Size of the data files, live and dead records
+     */
+    public long getDiskBytes() {
+        lock.readLock().lock();
+        try {
+            return totalBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException, InterruptedException {
+        if (compactor != null) {
+            compactor.shutdownNow();
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        lock.writeLock().lock();
+        try {
+            for (FileChannel channel : dataFiles.values()) {
+                channel.close();
+            }
+            dataFiles.clear();
+            index = null;
+            deleteStoreFiles();
+            if (temporaryDirectory) {
+                Files.deleteIfExists(directory);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private ByteBuffer encode(String userId, long lastSequence, List<UserBehavior> behaviors) {
+        while (true) {
+            ByteBuffer buffer = encodeBuffer.clear();
+            try {
+                buffer.putInt(0);
+                BehaviorRecordCodec.writeString(buffer, userId);
+                buffer.putLong(lastSequence);
+                buffer.putInt(behaviors.size());
+                for (UserBehavior behavior : behaviors) {
+                    BehaviorRecordCodec.writeBehavior(buffer, behavior);
+                }
+                buffer.putInt(0, buffer.position());
+                return buffer.flip();
+            } catch (BufferOverflowException e) {
+                encodeBuffer = ByteBuffer.allocate(encodeBuffer.capacity() * 2);
+            }
+        }
+    }
+
+    /**
+     * Reads the rest of a record whose userId has been read
+     */
+    private static StoredUser decode(ByteBuffer record, String userId) {
+        long lastSequence = record.getLong();
+        int count = record.getInt();
+        List<UserBehavior> behaviors = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            behaviors.add(BehaviorRecordCodec.readBehavior(record, userId));
+        }
+        return new StoredUser(lastSequence, behaviors);
+    }
+
+    /**
+     * Appends a complete record to the active data file and returns its location
+     */
+    private long append(ByteBuffer record) throws IOException {
+        long offset = activeFileSize;
+        int length = record.remaining();
+        // A write cut short leaves the size unchanged, so the next append overwrites it
+        writeFully(activeFile, record, offset);
+        activeFileSize += length;
+        totalBytes += length;
+        return (long) activeFile << OFFSET_BITS | offset;
+    }
+
+    private ByteBuffer readRecord(long location) throws IOException {
+        int file = (int) (location >>> OFFSET_BITS);
+        long offset = location & OFFSET_MASK;
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(file, length, offset);
+        ByteBuffer record = ByteBuffer.allocate(length.getInt(0) - 4);
+        readFully(file, record, offset + 4);
+        return record.flip();
+    }
+
+    private int recordLength(long location) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully((int) (location >>> OFFSET_BITS), length, location & OFFSET_MASK);
+        return length.getInt(0);
+    }
+
+    /**
+     * The slot holding the user, or the empty slot where it belongs
+     */
+    private int findSlot(long hash, byte[] userIdBytes) throws IOException {
+        for (int slot = (int) hash & slotMask; ; slot = (slot + 1) & slotMask) {
+            long slotHash = index.getLong(slot * SLOT_BYTES);
+            if (slotHash == 0 || (slotHash == hash && storesUser(index.getLong(slot * SLOT_BYTES + 8), userIdBytes))) {
+                return slot;
+            }
+        }
+    }
+
+    private boolean storesUser(long location, byte[] userIdBytes) throws IOException {
+        int file = (int) (location >>> OFFSET_BITS);
+        long offset = location & OFFSET_MASK;
+        ByteBuffer header = ByteBuffer.allocate(4 + 2);
+        readFully(file, header, offset);
+        if (header.getShort(4) != userIdBytes.length) {
+            return false;
+        }
+        ByteBuffer stored = ByteBuffer.allocate(userIdBytes.length);
+        readFully(file, stored, offset + header.capacity());
+        return stored.flip().equals(ByteBuffer.wrap(userIdBytes));
+    }
+
+    /**
+     * Doubles the index. Every slot holds a distinct user, so entries move by hash alone.
+     */
+    private void resize() throws IOException {
+        int slots = (slotMask + 1) * 2;
+        if (slots > MAX_SLOTS) {
+            throw new IOException("User state spill index is full (" + users + " users)");
+        }
+        MappedByteBuffer grown = mapIndex(slots);
+        int mask = slots - 1;
+        for (int slot = 0; slot <= slotMask; slot++) {
+            long hash = index.getLong(slot * SLOT_BYTES);
+            if (hash != 0) {
+                int target = (int) hash & mask;
+                while (grown.getLong(target * SLOT_BYTES) != 0) {
+                    target = (target + 1) & mask;
+                }
+                grown.putLong(target * SLOT_BYTES, hash);
+                grown.putLong(target * SLOT_BYTES + 8, index.getLong(slot * SLOT_BYTES + 8));
+            }
+        }
+        int oldSlots = slotMask + 1;
+        index = grown;
+        slotMask = mask;
+        indexVersion++;
+        // The old mapping is released when it is garbage collected; unlinking it now is enough
+        Files.deleteIfExists(directory.resolve(INDEX_PREFIX + oldSlots + ".bin"));
+    }
+
+    private void maybeCompact() {
+        if (compacting) {
+            return;
+        }
+        lock.readLock().lock();
+        try {
+            if (totalBytes < compactMinBytes || liveBytes * 2 >= totalBytes) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        compacting = true;
+        compactor.execute(() -> {
+            try {
+                compact();
+            } catch (IOException | RuntimeException e) {
+                log.error("User state spill compaction failed", e);
+            } finally {
+                compacting = false;
+            }
+        });
+    }
+
+    /**
+     * Copies the live records of the active data file to a new one, a chunk of slots at a
+     * time so reads and writes go on in between, then deletes the old file
+     */
+    private void compact() throws IOException {
+        long started = System.nanoTime();
+        int source;
+        long sourceSize;
+        lock.writeLock().lock();
+        try {
+            source = activeFile;
+            sourceSize = activeFileSize;
+            openDataFile(source + 1 & 0xffff);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        // Repeat until a full pass sees no resize, which could have moved unvisited slots behind the scan
+        boolean complete = false;
+        while (!complete) {
+            int version;
+            lock.readLock().lock();
+            try {
+                version = indexVersion;
+            } finally {
+                lock.readLock().unlock();
+            }
+            for (int start = 0; ; start += CHUNK_SLOTS) {
+                lock.writeLock().lock();
+                try {
+                    if (version != indexVersion) {
+                        break;
+                    }
+                    if (start > slotMask) {
+                        complete = true;
+                        break;
+                    }
+                    int end = Math.min(slotMask + 1, start + CHUNK_SLOTS);
+                    for (int slot = start; slot < end; slot++) {
+                        long location = index.getLong(slot * SLOT_BYTES + 8);
+                        if (index.getLong(slot * SLOT_BYTES) != 0 && (int) (location >>> OFFSET_BITS) == source) {
+                            ByteBuffer record = readRecord(location);
+                            ByteBuffer copy = ByteBuffer.allocate(4 + record.remaining());
+                            copy.putInt(copy.capacity()).put(record).flip();
+                            index.putLong(slot * SLOT_BYTES + 8, append(copy));
+                        }
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        }
+
+        long live;
+        lock.writeLock().lock();
+        try {
+            dataFiles.remove(source).close();
+            Files.deleteIfExists(dataFile(source));
+            totalBytes -= sourceSize;
+            live = liveBytes;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Compacted user state spill store to {} live bytes in {} ms",
+            live, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    private void openDataFile(int id) throws IOException {
+        FileChannel channel = FileChannel.open(dataFile(id), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        dataFiles.put(id, channel);
+        activeFile = id;
+        activeFileSize = 0;
+    }
+
+    private Path dataFile(int id) {
+        return directory.resolve(String.format("%s%05d.bin", DATA_PREFIX, id));
+    }
+
+    private MappedByteBuffer mapIndex(int slots) throws IOException {
+        Path file = directory.resolve(INDEX_PREFIX + slots + ".bin");
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(0);
+            raf.setLength((long) slots * SLOT_BYTES);
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+        }
+    }
+
+    private void deleteStoreFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(INDEX_PREFIX) || name.startsWith(DATA_PREFIX)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private void readFully(int file, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            FileChannel channel = dataFiles.get(file);
+            int read;
+            try {
+                read = channel.read(buffer, position);
+            } catch (ClosedChannelException e) {
+                reopen(file, channel, e);
+                continue;
+            }
+            if (read < 0) {
+                throw new IOException("Truncated user state record");
+            }
+            position += read;
+        }
+    }
+
+    private void writeFully(int file, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            FileChannel channel = dataFiles.get(file);
+            try {
+                position += channel.write(buffer, position);
+            } catch (ClosedChannelException e) {
+                reopen(file, channel, e);
+            }
+        }
+    }
+
+    /**
+     * Replaces a data file channel closed by an interrupted caller, unless another caller
+     * already has, then rethrows to the interrupted caller itself. Only called with the lock
+     * held, so the store is not closed meanwhile.
+     */
+    private void reopen(int file, FileChannel closed, ClosedChannelException cause) throws IOException {
+        reopenLock.lock();
+        try {
+            if (dataFiles.get(file) == closed) {
+                log.warn("User state spill file {} was closed by an interrupted caller; reopening it", file);
+                dataFiles.put(file, FileChannel.open(dataFile(file), StandardOpenOption.READ, StandardOpenOption.WRITE));
+            }
+        } finally {
+            reopenLock.unlock();
+        }
+        if (cause instanceof ClosedByInterruptException || Thread.currentThread().isInterrupted()) {
+            throw cause;
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters, then a final avalanche; never zero
+     */
+    private static long hash(String userId) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < userId.length(); i++) {
+            hash = (hash ^ userId.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash == 0 ? 1 : hash;
+    }
+}
@@ -0,0 +1,378 @@
+package com.musicrecommender.service;
+
+import com.musicrecommender.model.MoodScore.MoodCategory;
+import com.musicrecommender.model.UserBehavior;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fixed-capacity ring buffer holding a user's most recent behaviors as packed ints rather
+ * than objects. Each behavior is a four-int record (epoch minute, typing speed as float bits,
+ * start and length of its entries) plus one (key, count) pair per mood and per tag in a
+ * second ring: a key of zero or more is a {@link TagDictionary} id, a negative key is a mood.
+ * Timestamps are taken as UTC, as in the journal; seconds and hourMoodPatterns are not kept.
+ *
+ * Appends are O(1) and come from one writer at a time (the learning cache serializes changes
+ * to a user). Readers scan through a {@link Cursor} without locking and without creating an
+ * object per behavior; a record overwritten while it is being read may yield a mix of the
+ * old and the newer behavior. Both arrays start small and grow as behaviors are added.
+ */
+final class BehaviorHistory {
+
+    private static final MoodCategory[] MOODS = MoodCategory.values();
+
+    // Entry key of a mood outside MoodCategory; other moods are -1 - ordinal
+    private static final int OTHER_MOOD = -1 - MOODS.length;
+
+    // Record layout
+    private static final int STRIDE = 4;
+    private static final int MINUTE = 0;
+    private static final int TYPING_SPEED = 1;
+    private static final int ENTRY_START = 2;
+    private static final int ENTRY_COUNT = 3;
+
+    private static final int INITIAL_RECORDS = 4;
+    private static final int INITIAL_ENTRIES = 8;
+    private static final int NO_TYPING_SPEED = Float.floatToRawIntBits(Float.NaN);
+
+    /**
+     * Told about the oldest behavior just before an append overwrites it
+     */
+    interface Overwrite {
+
+        void overwriting(Cursor oldest);
+    }
+
+    private final int capacity;
+    private final TagDictionary tags;
+    // Record of sequence s at (s % records) * STRIDE; grows until it holds capacity records
+    private volatile int[] records;
+    // Pair at entry position p: key at (p & (pairs - 1)) * 2, count after it; pairs is a power of two
+    private volatile int[] entries;
+    // Entry position after the newest behavior's entries (wraps around like the positions)
+    private int entryEnd;
+    // Behaviors appended so far; written after the record, so readers only see complete ones
+    private volatile long sequence;
+
+    BehaviorHistory(int capacity, TagDictionary tags) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Behavior history capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.tags = tags;
+        this.records = new int[Math.min(capacity, INITIAL_RECORDS) * STRIDE];
+        this.entries = new int[INITIAL_ENTRIES * 2];
+    }
+
+    /**
+     * Appends a behavior, overwriting the oldest one once the buffer is full. Each tag entry
+     * takes a dictionary reference, which the caller gives back when the entry is
+     * overwritten or the history dropped; tags the dictionary has no room for are dropped.
+     * The behavior is checked first: one that cannot be stored throws
+     * IllegalArgumentException before {@code overwrite} is called or anything changes.
+     */
+    void append(UserBehavior behavior, Overwrite overwrite) {
+        int minute = epochMinute(behavior.getTimestamp());
+        long seq = sequence;
+        if (seq >= capacity) {
+            overwrite.overwriting(oldest());
+        }
+        int[] records = this.records;
+        int slots = records.length / STRIDE;
+        if (seq == slots && slots < capacity) {
+            records = Arrays.copyOf(records, Math.min(capacity, slots * 2) * STRIDE);
+            slots = records.length / STRIDE;
+        }
+
+        // Entries from the oldest behavior retained after this append onwards stay live
+        long oldest = Math.max(0, seq + 1 - capacity);
+        int liveStart = oldest == seq ? entryEnd : records[slot(oldest, slots) + ENTRY_START];
+        Map<String, Integer> moodHistory = behavior.getMoodHistory();
+        Map<String, Integer> tagFrequency = behavior.getTagFrequency();
+        int[] entries = reserve(liveStart,
+            (moodHistory == null ? 0 : moodHistory.size()) + (tagFrequency == null ? 0 : tagFrequency.size()));
+        int mask = entries.length / 2 - 1;
+
+        int position = entryEnd;
+        if (moodHistory != null) {
+            for (Map.Entry<String, Integer> mood : moodHistory.entrySet()) {
+                if (mood.getValue() != null) {
+                    position = put(entries, mask, position, moodKey(mood.getKey()), mood.getValue());
+                }
+            }
+        }
+        if (tagFrequency != null) {
+            for (Map.Entry<String, Integer> tag : tagFrequency.entrySet()) {
+                if (tag.getKey() == null || tag.getValue() == null) {
+                    continue;
+                }
+                int id = tags.encode(tag.getKey());
+                if (id >= 0) {
+                    position = put(entries, mask, position, id, tag.getValue());
+                }
+            }
+        }
+
+        int base = slot(seq, slots);
+        records[base + MINUTE] = minute;
+        records[base + TYPING_SPEED] = behavior.getAverageTypingSpeed() != null
+            ? Float.floatToRawIntBits(behavior.getAverageTypingSpeed().floatValue()) : NO_TYPING_SPEED;
+        records[base + ENTRY_START] = entryEnd;
+        records[base + ENTRY_COUNT] = position - entryEnd;
+        entryEnd = position;
+        this.entries = entries;
+        this.records = records;
+        sequence = seq + 1;
+    }
+
+    /**
+     * The timestamp as a UTC epoch minute; IllegalArgumentException when it is missing or
+     * outside the int minutes a record holds (roughly years -2114 to 6053)
+     */
+    static int epochMinute(LocalDateTime timestamp) {
+        if (timestamp == null) {
+            throw new IllegalArgumentException("Behavior has no timestamp");
+        }
+        long minute = Math.floorDiv(timestamp.toEpochSecond(ZoneOffset.UTC), 60);
+        if (minute != (int) minute) {
+            throw new IllegalArgumentException("Behavior timestamp " + timestamp + " is out of range");
+        }
+        return (int) minute;
+    }
+
+    int size() {
+        return (int) Math.min(sequence, capacity);
+    }
+
+    boolean isEmpty() {
+        return sequence == 0;
+    }
+
+    boolean isFull() {
+        return sequence >= capacity;
+    }
+
+    /**
+     * A cursor before the oldest retained behavior; call {@link Cursor#next()} to visit
+     * them from oldest to newest
+     */
+    Cursor cursor() {
+        long end = sequence;
+        return new Cursor(Math.max(0, end - capacity), end);
+    }
+
+    /**
+     * A cursor on the oldest retained behavior; the history must not be empty
+     */
+    Cursor oldest() {
+        Cursor cursor = cursor();
+        cursor.next();
+        return cursor;
+    }
+
+    /**
+     * A cursor on the newest behavior; the history must not be empty
+     */
+    Cursor newest() {
+        long end = sequence;
+        Cursor cursor = new Cursor(end - 1, end);
+        cursor.next();
+        return cursor;
+    }
+
+    /**
+     * Materializes the retained behaviors, oldest first, for persistence
+     */
+    List<UserBehavior> toList(String userId) {
+        List<UserBehavior> behaviors = new ArrayList<>(size());
+        Cursor cursor = cursor();
+        while (cursor.next()) {
+            behaviors.add(cursor.toBehavior(userId));
+        }
+        return behaviors;
+    }
+
+    /**
+     * Heap held by this history and its arrays
+     */
+    int estimatedBytes() {
+        return 40 + 16 + 4 * records.length + 16 + 4 * entries.length;
+    }
+
+    /**
+     * Array offset of the record with the given sequence number
+     */
+    private static int slot(long seq, int slots) {
+        return (int) (seq % slots) * STRIDE;
+    }
+
+    /**
+     * The entry array, grown if needed so the live entries plus {@code added} more fit
+     */
+    private int[] reserve(int liveStart, int added) {
+        int[] entries = this.entries;
+        int pairs = entries.length / 2;
+        int needed = entryEnd - liveStart + added;
+        if (needed <= pairs) {
+            return entries;
+        }
+        int grownPairs = pairs;
+        while (grownPairs < needed) {
+            grownPairs *= 2;
+        }
+        int[] grown = new int[grownPairs * 2];
+        for (int position = liveStart; position != entryEnd; position++) {
+            int from = (position & (pairs - 1)) * 2;
+            int to = (position & (grownPairs - 1)) * 2;
+            grown[to] = entries[from];
+            grown[to + 1] = entries[from + 1];
+        }
+        return grown;
+    }
+
+    private static int put(int[] entries, int mask, int position, int key, int count) {
+        int index = (position & mask) * 2;
+        entries[index] = key;
+        entries[index + 1] = count;
+        return position + 1;
+    }
+
+    private static int moodKey(String mood) {
+        for (MoodCategory category : MOODS) {
+            if (category.name().equalsIgnoreCase(mood)) {
+                return -1 - category.ordinal();
+            }
+        }
+        return OTHER_MOOD;
+    }
+
+    /**
+     * Flyweight view of one behavior at a time. {@link #next()} moves it along and the
+     * accessors read the current behavior's fields in place.
+     */
+    final class Cursor {
+
+        private final int[] records;
+        private final int[] entries;
+        private final int slots;
+        private final int mask;
+        private final long end;
+        private long seq;
+        private int base;
+
+        private Cursor(long first, long end) {
+            // The arrays are read after the sequence, so they hold every behavior before end
+            this.end = end;
+            this.records = BehaviorHistory.this.records;
+            this.entries = BehaviorHistory.this.entries;
+            this.slots = records.length / STRIDE;
+            this.mask = entries.length / 2 - 1;
+            this.seq = first - 1;
+        }
+
+        /**
+         * Moves to the next behavior; false when there is none
+         */
+        boolean next() {
+            if (seq + 1 >= end) {
+                return false;
+            }
+            seq++;
+            base = slot(seq, slots);
+            return true;
+        }
+
+        int epochMinute() {
+            return records[base + MINUTE];
+        }
+
+        int hour() {
+            return Math.floorMod(epochMinute(), 24 * 60) / 60;
+        }
+
+        /**
+         * Typing speed, or NaN when the behavior had none
+         */
+        float typingSpeed() {
+            return Float.intBitsToFloat(records[base + TYPING_SPEED]);
+        }
+
+        /**
+         * Number of mood and tag entries
+         */
+        int entryCount() {
+            // Bounded in case the record is being overwritten
+            return Math.max(0, Math.min(records[base + ENTRY_COUNT], mask + 1));
+        }
+
+        int count(int entry) {
+            return entries[index(entry) + 1];
+        }
+
+        boolean isMood(int entry) {
+            return entries[index(entry)] < 0;
+        }
+
+        /**
+         * Mood ordinal of a mood entry, or -1 for a mood outside MoodCategory
+         */
+        int mood(int entry) {
+            int key = entries[index(entry)];
+            return key == OTHER_MOOD ? -1 : -1 - key;
+        }
+
+        /**
+         * Dictionary id of a tag entry
+         */
+        int tagId(int entry) {
+            return entries[index(entry)];
+        }
+
+        /**
+         * Tag of a tag entry
+         */
+        String tag(int entry) {
+            return tags.decode(tagId(entry));
+        }
+
+        /**
+         * The current behavior as an object; moods outside MoodCategory are left out
+         */
+        UserBehavior toBehavior(String userId) {
+            UserBehavior behavior = new UserBehavior();
+            behavior.setUserId(userId);
+            behavior.setTimestamp(LocalDateTime.ofEpochSecond(epochMinute() * 60L, 0, ZoneOffset.UTC));
+            float typingSpeed = typingSpeed();
+            behavior.setAverageTypingSpeed(Float.isNaN(typingSpeed) ? null : (double) typingSpeed);
+            Map<String, Integer> moodHistory = new HashMap<>();
+            Map<String, Integer> tagFrequency = new HashMap<>();
+            for (int entry = 0; entry < entryCount(); entry++) {
+                if (isMood(entry)) {
+                    int mood = mood(entry);
+                    if (mood >= 0) {
+                        moodHistory.merge(MOODS[mood].name(), count(entry), Integer::sum);
+                    }
+                } else {
+                    String tag = tag(entry);
+                    if (tag != null) {
+                        tagFrequency.merge(tag, count(entry), Integer::sum);
+                    }
+                }
+            }
+            behavior.setMoodHistory(moodHistory);
+            if (!tagFrequency.isEmpty()) {
+                behavior.setTagFrequency(tagFrequency);
+            }
+            return behavior;
+        }
+
+        private int index(int entry) {
+            return ((records[base + ENTRY_START] + entry) & mask) * 2;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.musicrecommender.service;
+
+import com.musicrecommender.model.MoodScore;
+import com.musicrecommender.model.UserBehavior;
+import com.musicrecommender.model.UserInput;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves behavior learning off the request thread.
+ * Requests publish a compact event to a bounded queue (many producers, one consumer);
+ * a background thread drains it in batches into {@link TimeContextLearningService}.
+ * When the queue is full the event is dropped, or with the BLOCK policy the
+ * publisher waits up to the configured timeout first.
+ */
+@Service
+public class BehaviorRecorder {
+
+    private static final Logger log = LoggerFactory.getLogger(BehaviorRecorder.class);
+
+    // How long the consumer waits for an event before checking whether it was stopped
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+
+    /**
+     * What a publisher does when the queue is full
+     */
+    public enum OverflowPolicy {
+        DROP, BLOCK
+    }
+
+    /**
+     * The part of a request that learning needs
+     */
+    private record BehaviorEvent(String userId, LocalDateTime timestamp, String mood,
+                                 List<String> tags, Double typingSpeed, long publishedNanos) {
+    }
+
+    @Autowired
+    private TimeContextLearningService timeContextLearningService;
+
+    @Autowired
+    private Environment environment;
+
+    // When false, behaviors are recorded synchronously on the calling thread
+    @Value("${recommender.learning.recorder.async:true}")
+    private boolean async;
+
+    @Value("${recommender.learning.recorder.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${recommender.learning.recorder.batch-size:256}")
+    private int batchSize;
+
+    @Value("${recommender.learning.recorder.overflow-policy:DROP}")
+    private OverflowPolicy overflowPolicy;
+
+    @Value("${recommender.learning.recorder.block-timeout-ms:50}")
+    private long blockTimeoutMillis;
+
+    private BlockingQueue<BehaviorEvent> queue;
+    private Thread consumer;
+    private volatile boolean running;
+
+    // Metrics
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long lagNanos;
+
+    @PostConstruct
+    void start() {
+        if (!async) {
+            return;
+        }
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        running = true;
+        // Follows spring.threads.virtual.enabled, like the request threads
+        if (Threading.VIRTUAL.isActive(environment)) {
+            consumer = new VirtualThreadTaskExecutor("behavior-recorder-").getVirtualThreadFactory().newThread(this::drainLoop);
+        } else {
+            consumer = new Thread(this::drainLoop, "behavior-recorder");
+            consumer.setDaemon(true);
+        }
+        consumer.start();
+    }
+
+    /**
+     * Publishes the behavior of one request for learning
+     */
+    public void publish(String userId, UserInput userInput, MoodScore moodScore) {
+        BehaviorEvent event = new BehaviorEvent(
+            userId,
+            userInput.getTimeOfDay(),
+            moodScore.getPrimaryMood(),
+            learnableTags(userInput.getSearchHistoryTags()),
+            userInput.getTypingSpeed(),
+            System.nanoTime()
+        );
+
+        if (!async) {
+            // The recommendation is already computed; as on the consumer, a failure only skips learning
+            try {
+                record(event);
+            } catch (RuntimeException e) {
+                log.error("Failed to record behavior for user {}", userId, e);
+            }
+            return;
+        }
+
+        published.incrementAndGet();
+        boolean accepted;
+        try {
+            accepted = overflowPolicy == OverflowPolicy.BLOCK
+                ? queue.offer(event, blockTimeoutMillis, TimeUnit.MILLISECONDS)
+                : queue.offer(event);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            accepted = false;
+        }
+        if (!accepted && dropped.incrementAndGet() % 1000 == 1) {
+            log.warn("Behavior queue full ({} events), {} behaviors dropped so far", queueCapacity, dropped.get());
+        }
+    }
+
+    /**
+     * The search tags worth learning, in order: null and blank tags are left out, as the
+     * recommendation's affinity tags leave them out. Null for no tags.
+     */
+    static List<String> learnableTags(List<String> tags) {
+        if (tags == null) {
+            return null;
+        }
+        List<String> learnable = new ArrayList<>(tags.size());
+        for (String tag : tags) {
+            if (tag != null && !tag.isBlank()) {
+                learnable.add(tag);
+            }
+        }
+        return List.copyOf(learnable);
+    }
+
+    /**
+     * Whether publish may block the caller: recording synchronously, or waiting for queue space
+     */
+    public boolean mayBlock() {
+        return !async || overflowPolicy == OverflowPolicy.BLOCK;
+    }
+
+    public int getQueueDepth() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * Time between publishing and recording for the newest event of the last batch
+     */
+    public long getLagMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lagNanos);
+    }
+
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    public long getRecordedCount() {
+        return recorded.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Stops the consumer without interrupting it (an interrupt could land inside the
+     * learning service's journal or spill I/O), then records what is still queued once the
+     * consumer has exited
+     */
+    @PreDestroy
+    void stop() throws InterruptedException {
+        if (consumer == null) {
+            return;
+        }
+        running = false;
+        consumer.join(TimeUnit.SECONDS.toMillis(10));
+        if (consumer.isAlive()) {
+            log.warn("Behavior recorder did not stop within 10s; {} queued behaviors are not recorded", queue.size());
+            return;
+        }
+        // Record whatever was published after the consumer's last drain
+        List<BehaviorEvent> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        recordBatch(remaining);
+    }
+
+    private void drainLoop() {
+        List<BehaviorEvent> batch = new ArrayList<>(batchSize);
+        while (running) {
+            BehaviorEvent first;
+            try {
+                // Wakes up periodically to notice stop()
+                first = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (first == null) {
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, batchSize - 1);
+            recordBatch(batch);
+            batch.clear();
+        }
+        // Stopped: record what is queued before exiting
+        while (queue.drainTo(batch, batchSize) > 0) {
+            recordBatch(batch);
+            batch.clear();
+        }
+    }
+
+    private void recordBatch(List<BehaviorEvent> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        for (BehaviorEvent event : batch) {
+            try {
+                record(event);
+            } catch (RuntimeException e) {
+                log.error("Failed to record behavior for user {}", event.userId(), e);
+            }
+        }
+        lagNanos = System.nanoTime() - batch.get(batch.size() - 1).publishedNanos();
+    }
+
+    private void record(BehaviorEvent event) {
+        UserBehavior behavior = new UserBehavior();
+        behavior.setUserId(event.userId());
+        behavior.setTimestamp(event.timestamp());
+
+        // Create mood history
+        Map<String, Integer> moodHistory = new HashMap<>();
+        moodHistory.put(event.mood(), 1);
+        behavior.setMoodHistory(moodHistory);
+
+        // Create tag frequency from search history
+        if (event.tags() != null) {
+            Map<String, Integer> tagFrequency = new HashMap<>();
+            for (String tag : event.tags()) {
+                tagFrequency.put(tag, tagFrequency.getOrDefault(tag, 0) + 1);
+            }
+            behavior.setTagFrequency(tagFrequency);
+        }
+
+        behavior.setAverageTypingSpeed(event.typingSpeed());
+
+        timeContextLearningService.recordBehavior(event.userId(), behavior);
+        recorded.incrementAndGet();
+    }
+}
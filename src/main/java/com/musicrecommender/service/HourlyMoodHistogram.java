@@ -0,0 +1,119 @@
+package com.musicrecommender.service;
+
+import com.musicrecommender.model.MoodScore.MoodCategory;
+
+import java.util.Arrays;
+
+/**
+ * Running hour-of-day x mood counts for one user, and the mood priors read from them.
+ * Counts are updated incrementally as behaviors enter and leave the user's history, by
+ * one writer at a time (a user's state only changes inside the cache's compute). After
+ * each recorded behavior, or once after replaying a stored history, the writer publishes
+ * a new priors snapshot: for every hour, the mood probabilities of the behaviors within
+ * {@link #RADIUS} hours of it (wrapping around midnight), precomputed into one float[]
+ * and swapped in with a volatile write. Only the hours near the changed ones are
+ * recomputed into a copy of the previous snapshot. Readers
+ * take the current snapshot without locking or allocating; a published snapshot is never
+ * modified, so learning writes, which are rare next to reads, pay for the copy.
+ */
+final class HourlyMoodHistogram {
+
+    static final int HOURS = 24;
+
+    // Priors cover behaviors within this many hours
+    static final int RADIUS = 2;
+
+    private static final int MOODS = MoodCategory.values().length;
+
+    /** Priors of a user with no moods recorded: 0 for every hour and mood */
+    static final float[] NO_PRIORS = new float[HOURS * MOODS];
+
+    // counts[hour * MOODS + mood]
+    private final int[] counts = new int[HOURS * MOODS];
+    // All mood counts per hour, including moods outside MoodCategory
+    private final int[] totals = new int[HOURS];
+    // Bit per hour whose counts changed since the last publish
+    private int changedHours;
+
+    private volatile float[] priors = NO_PRIORS;
+
+    void add(BehaviorHistory.Cursor behavior) {
+        update(behavior, 1);
+    }
+
+    void remove(BehaviorHistory.Cursor behavior) {
+        update(behavior, -1);
+    }
+
+    /**
+     * Index of the hour's first mood in {@link #priors()}; any int is taken modulo 24
+     */
+    static int row(int hour) {
+        return Math.floorMod(hour, HOURS) * MOODS;
+    }
+
+    /**
+     * The published priors, {@code priors[row(hour) + mood ordinal]}: the share of the
+     * moods recorded near the hour that were the mood, 0 where none were recorded
+     */
+    float[] priors() {
+        return priors;
+    }
+
+    /**
+     * Publishes priors for the counts: a copy of the current snapshot with the hours near
+     * the hours changed since the last publish recomputed
+     */
+    void publish() {
+        if (changedHours == 0) {
+            return;
+        }
+        int affected = 0;
+        for (int changed = changedHours; changed != 0; changed &= changed - 1) {
+            int hour = Integer.numberOfTrailingZeros(changed);
+            for (int offset = -RADIUS; offset <= RADIUS; offset++) {
+                affected |= 1 << Math.floorMod(hour + offset, HOURS);
+            }
+        }
+        changedHours = 0;
+
+        float[] next = priors.clone();
+        for (; affected != 0; affected &= affected - 1) {
+            computeRow(Integer.numberOfTrailingZeros(affected), next);
+        }
+        priors = next;
+    }
+
+    private void computeRow(int hour, float[] into) {
+        int row = hour * MOODS;
+        // Sum the window's counts into the row (exact: far below 2^24), then scale to shares
+        Arrays.fill(into, row, row + MOODS, 0f);
+        int total = 0;
+        for (int offset = -RADIUS; offset <= RADIUS; offset++) {
+            int windowHour = Math.floorMod(hour + offset, HOURS);
+            total += totals[windowHour];
+            for (int mood = 0, counted = windowHour * MOODS; mood < MOODS; mood++) {
+                into[row + mood] += counts[counted + mood];
+            }
+        }
+        double share = total > 0 ? 1.0 / total : 0;
+        for (int mood = 0; mood < MOODS; mood++) {
+            into[row + mood] = (float) (into[row + mood] * share);
+        }
+    }
+
+    private void update(BehaviorHistory.Cursor behavior, int sign) {
+        int hour = behavior.hour();
+        for (int entry = 0; entry < behavior.entryCount(); entry++) {
+            if (behavior.isMood(entry)) {
+                int count = behavior.count(entry);
+                totals[hour] += sign * count;
+                changedHours |= 1 << hour;
+                int mood = behavior.mood(entry);
+                if (mood >= 0) {
+                    counts[hour * MOODS + mood] += sign * count;
+                }
+            }
+        }
+    }
+}
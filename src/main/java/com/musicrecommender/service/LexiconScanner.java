@@ -0,0 +1,321 @@
+package com.musicrecommender.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Precompiled lexicon matcher behind the text features (see {@link TextFeatures}).
+ * Scans the text once, char by char, without allocating:
+ * - whitespace-delimited tokens extend a rolling hash over their key characters (see
+ *   {@link WordTable}); at the end of each token the hash is looked up in the word
+ *   table and the token's word classes are added to a primitive counter array
+ * - phrase markers (intensifiers, negations) are found anywhere in the text
+ *   with an Aho-Corasick automaton, mirroring the old String.contains checks
+ * Text that arrives in pieces can be scanned piece by piece with a {@link State},
+ * giving the same counts and flags as one scan over the whole text.
+ */
+final class LexiconScanner {
+
+    // Phrase automaton alphabet: a-z, space, apostrophe, everything else
+    private static final int SPACE_SYMBOL = 26;
+    private static final int APOSTROPHE_SYMBOL = 27;
+    private static final int OTHER_SYMBOL = 28;
+    private static final int PHRASE_ALPHABET = 29;
+
+    private final int classCount;
+
+    private final WordTable words;
+
+    // Phrase DFA: next state per (state, symbol) with failure links folded in
+    private final int[] phraseNext;
+    // Bitmask of phrase flags reported on entering each state
+    private final int[] phraseFlags;
+
+    private LexiconScanner(int classCount, WordTable words, int[] phraseNext, int[] phraseFlags) {
+        this.classCount = classCount;
+        this.words = words;
+        this.phraseNext = phraseNext;
+        this.phraseFlags = phraseFlags;
+    }
+
+    State newState() {
+        return new State(classCount);
+    }
+
+    /**
+     * Continues the scan of {@code state} over the next piece of the text
+     */
+    void resume(State state, CharSequence piece) {
+        long word = state.word;
+        int phrase = state.phraseState;
+        int flags = state.flags;
+
+        for (int i = 0, n = piece.length(); i < n; i++) {
+            char ch = Character.toLowerCase(piece.charAt(i));
+
+            phrase = phraseNext[phrase * PHRASE_ALPHABET + phraseSymbol(ch)];
+            flags |= phraseFlags[phrase];
+            if (ch == '!') {
+                state.exclamations++;
+            }
+
+            if (isTokenSeparator(ch)) {
+                if (state.inToken) {
+                    state.tokens++;
+                    state.inToken = false;
+                    countToken(words.classes(word), state.counts);
+                    word = WordTable.EMPTY;
+                } else if (state.length + i == 0) {
+                    state.leadingSeparator = true;
+                }
+            } else {
+                state.inToken = true;
+                if (WordTable.isKeyChar(ch)) {
+                    word = WordTable.next(word, ch);
+                }
+            }
+        }
+
+        state.word = word;
+        state.phraseState = phrase;
+        state.flags = flags;
+        state.length += piece.length();
+        if (piece.length() > 0) {
+            state.openClasses = -1;
+        }
+    }
+
+    /**
+     * Tokens of the word class in everything scanned into {@code state}, including the
+     * token still open at its end
+     */
+    int count(State state, int wordClass) {
+        if (state.openClasses < 0) {
+            state.openClasses = state.inToken ? words.classes(state.word) : 0;
+        }
+        return state.counts[wordClass] + (state.openClasses >>> wordClass & 1);
+    }
+
+    private static void countToken(int classes, int[] classCounts) {
+        while (classes != 0) {
+            int wordClass = Integer.numberOfTrailingZeros(classes);
+            classCounts[wordClass]++;
+            classes &= classes - 1;
+        }
+    }
+
+    /**
+     * Same character set as the regex \s used by the old split("\\s+")
+     */
+    static boolean isTokenSeparator(char ch) {
+        return ch == ' ' || ch == '\t' || ch == '\n' || ch == '\u000B' || ch == '\f' || ch == '\r';
+    }
+
+    private static int phraseSymbol(char ch) {
+        if (ch >= 'a' && ch <= 'z') {
+            return ch - 'a';
+        }
+        if (ch == ' ') {
+            return SPACE_SYMBOL;
+        }
+        if (ch == '\'') {
+            return APOSTROPHE_SYMBOL;
+        }
+        return OTHER_SYMBOL;
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Takes the word table and collects phrase flags, then compiles the phrases into a flat table
+     */
+    static final class Builder {
+
+        private int classCount;
+        private WordTable words = WordTable.builder().build();
+
+        private final List<String> phrases = new ArrayList<>();
+        private final List<Integer> phraseFlagBits = new ArrayList<>();
+
+        /**
+         * Counts tokens by the classes {@code words} gives them, numbered below {@code classCount}
+         */
+        Builder words(WordTable words, int classCount) {
+            if (classCount < 0 || classCount > WordTable.MAX_CLASSES) {
+                throw new IllegalArgumentException("Word class count out of range: " + classCount);
+            }
+            this.words = words;
+            this.classCount = classCount;
+            return this;
+        }
+
+        /**
+         * Reports {@code flag} whenever any of the phrases occurs in the lowercased text
+         */
+        Builder addPhrases(int flag, Collection<String> values) {
+            for (String phrase : values) {
+                if (phrase.isEmpty()) {
+                    throw new IllegalArgumentException("Phrase cannot be empty");
+                }
+                for (int i = 0; i < phrase.length(); i++) {
+                    if (phraseSymbol(phrase.charAt(i)) == OTHER_SYMBOL) {
+                        throw new IllegalArgumentException("Unsupported character in phrase: " + phrase);
+                    }
+                }
+                phrases.add(phrase);
+                phraseFlagBits.add(flag);
+            }
+            return this;
+        }
+
+        LexiconScanner build() {
+            PhraseTables tables = compilePhrases();
+            return new LexiconScanner(classCount, words, tables.next, tables.flags);
+        }
+
+        /**
+         * Builds the Aho-Corasick goto/failure structure and flattens it into a DFA
+         */
+        private PhraseTables compilePhrases() {
+            int maxStates = 1;
+            for (String phrase : phrases) {
+                maxStates += phrase.length();
+            }
+
+            int[] next = new int[maxStates * PHRASE_ALPHABET];
+            Arrays.fill(next, -1);
+            int[] flags = new int[maxStates];
+            int states = 1;
+
+            for (int p = 0; p < phrases.size(); p++) {
+                String phrase = phrases.get(p);
+                int state = 0;
+                for (int i = 0; i < phrase.length(); i++) {
+                    int slot = state * PHRASE_ALPHABET + phraseSymbol(phrase.charAt(i));
+                    if (next[slot] < 0) {
+                        next[slot] = states++;
+                    }
+                    state = next[slot];
+                }
+                flags[state] |= phraseFlagBits.get(p);
+            }
+
+            // Breadth-first: resolve failure transitions so every (state, symbol) is defined
+            int[] fail = new int[states];
+            Queue<Integer> queue = new ArrayDeque<>();
+            for (int symbol = 0; symbol < PHRASE_ALPHABET; symbol++) {
+                int child = next[symbol];
+                if (child < 0) {
+                    next[symbol] = 0;
+                } else {
+                    fail[child] = 0;
+                    queue.add(child);
+                }
+            }
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                flags[state] |= flags[fail[state]];
+                for (int symbol = 0; symbol < PHRASE_ALPHABET; symbol++) {
+                    int slot = state * PHRASE_ALPHABET + symbol;
+                    int child = next[slot];
+                    int fallback = next[fail[state] * PHRASE_ALPHABET + symbol];
+                    if (child < 0) {
+                        next[slot] = fallback;
+                    } else {
+                        fail[child] = fallback;
+                        queue.add(child);
+                    }
+                }
+            }
+
+            return new PhraseTables(Arrays.copyOf(next, states * PHRASE_ALPHABET), Arrays.copyOf(flags, states));
+        }
+    }
+
+    private record PhraseTables(int[] next, int[] flags) {
+    }
+
+    /**
+     * Scan position within a text: counts of the completed tokens, the hash of the open
+     * token (and its classes once looked up), the phrase automaton state, the flags seen so far and the number of '!'
+     */
+    static final class State {
+
+        private final int[] counts;
+        private long word = WordTable.EMPTY;
+        // Classes of the open token, -1 until looked up
+        private int openClasses = -1;
+        private int phraseState;
+        private int flags;
+        private int tokens;
+        private int exclamations;
+        private boolean inToken;
+        private boolean leadingSeparator;
+        private int length;
+
+        private State(int classCount) {
+            this.counts = new int[classCount];
+        }
+
+        int flags() {
+            return flags;
+        }
+
+        /**
+         * Characters scanned so far
+         */
+        int length() {
+            return length;
+        }
+
+        /**
+         * Exclamation marks scanned so far
+         */
+        int exclamations() {
+            return exclamations;
+        }
+
+        /**
+         * Same as {@code text.split("\\s+").length} for the scanned text
+         */
+        int splitLength() {
+            int words = tokens + (inToken ? 1 : 0);
+            if (words == 0) {
+                return length == 0 ? 1 : 0;
+            }
+            return leadingSeparator ? words + 1 : words;
+        }
+
+        void copyFrom(State other) {
+            System.arraycopy(other.counts, 0, counts, 0, counts.length);
+            word = other.word;
+            openClasses = other.openClasses;
+            phraseState = other.phraseState;
+            flags = other.flags;
+            tokens = other.tokens;
+            exclamations = other.exclamations;
+            inToken = other.inToken;
+            leadingSeparator = other.leadingSeparator;
+            length = other.length;
+        }
+
+        void reset() {
+            Arrays.fill(counts, 0);
+            word = WordTable.EMPTY;
+            openClasses = -1;
+            phraseState = 0;
+            flags = 0;
+            tokens = 0;
+            exclamations = 0;
+            inToken = false;
+            leadingSeparator = false;
+            length = 0;
+        }
+    }
+}
@@ -1,19 +1,40 @@
 package com.musicrecommender.service;
 
+import com.musicrecommender.classifier.MoodModel;
 import com.musicrecommender.model.MoodScore;
+import com.musicrecommender.model.MoodScore.MoodCategory;
+import com.musicrecommender.model.MoodVector;
 import com.musicrecommender.model.UserInput;
+import com.musicrecommender.service.PipelineMetrics.Stage;
+import com.musicrecommender.service.SentimentAnalysisService.Sentiment;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import java.util.*;
-import java.util.stream.Collectors;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import static com.musicrecommender.model.MoodScore.MoodCategory.*;
 
 /**
  * Main service that combines sentiment analysis, rules engine, and time-context learning
  * to predict user mood
+ *
+ * With a trained classifier configured (recommender.classifier.model-file, see
+ * {@link com.musicrecommender.classifier.MoodClassifierTrainer}), its class probabilities
+ * replace sentiment analysis, the rules and their combination; learning still applies.
  */
 @Service
 public class MoodPredictionService {
     
+    private static final Logger log = LoggerFactory.getLogger(MoodPredictionService.class);
+    
+    @Autowired
+    private TextFeatureService textFeatureService;
+    
     @Autowired
     private SentimentAnalysisService sentimentAnalysisService;
     
@@ -23,83 +44,128 @@ public class MoodPredictionService {
     @Autowired
     private TimeContextLearningService timeContextLearningService;
     
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+    
+    // Weight file of a trained mood classifier; empty predicts from sentiment and rules
+    @Value("${recommender.classifier.model-file:}")
+    private String classifierModelFile;
+    
+    private MoodModel classifier;
+    
+    /**
+     * Moods reported in the distribution, also the classes a {@link MoodModel} may have
+     * ({@link MoodModel#CLASSES}). The order is the tie-break order for the primary mood
+     * (it matches the iteration order of the original HashMap-based result).
+     */
+    private static final MoodCategory[] PREDICTED_MOODS = {
+        ENERGETIC, RELAXED, ANXIOUS, STRESSED, TIRED, FOCUSED
+    };
+    
+    @PostConstruct
+    void loadClassifier() throws IOException {
+        if (!classifierModelFile.isBlank()) {
+            classifier = MoodModel.open(Paths.get(classifierModelFile));
+            log.info("Mood classifier {} loaded: {} classes, {} hash bits, {} bytes", classifierModelFile,
+                classifier.classes(), classifier.hashBits(), classifier.sizeBytes());
+        }
+    }
+    
     /**
      * Predicts mood based on all inputs
      */
     public MoodScore predictMood(UserInput userInput, String userId) {
-        // Step 1: Sentiment analysis
-        Map<String, Double> sentimentScores = sentimentAnalysisService.analyzeSentiment(userInput.getTextInput());
+        if (classifier != null) {
+            MoodModel.State text = classifier.newState();
+            text.resume(userInput.getTextInput());
+            MoodScore moodScore = predictMood(text, userInput.getTypingSpeed(), userInput.getHourOfDay(), userId);
+            pipelineMetrics.countMood(moodScore.getPrimaryMood());
+            return moodScore;
+        }
+        
+        // Step 1: Extract text features (one scan of the text, read by the next two steps)
+        TextFeatures features = textFeatureService.extractFeatures(userInput.getTextInput());
         
-        // Step 2: Apply rules
-        Map<String, Double> ruleAdjustments = rulesEngineService.applyRules(userInput, sentimentScores);
+        // Step 2: Sentiment analysis
+        double[] sentimentScores = sentimentAnalysisService.analyzeSentiment(features);
         
-        // Step 3: Combine sentiment and rules (weighted combination)
-        Map<String, Double> combinedMood = combineMoodScores(sentimentScores, ruleAdjustments);
+        // Step 3: Apply rules
+        MoodVector mood = rulesEngineService.applyRules(userInput, features, sentimentScores);
         
-        // Step 4: Apply time-context learning (if userId provided)
-        Map<String, Double> finalMood;
+        MoodScore moodScore = predictMood(sentimentScores, mood, userInput.getHourOfDay(), userId);
+        pipelineMetrics.countMood(moodScore.getPrimaryMood());
+        return moodScore;
+    }
+    
+    /**
+     * Predicts mood from sentiment scores and rule adjustments that were already computed
+     * (typing sessions keep them up to date incrementally). The adjustments are modified in place.
+     */
+    MoodScore predictMood(double[] sentimentScores, MoodVector mood, int hour, String userId) {
+        // Step 4: Combine sentiment and rules (weighted combination)
+        long start = pipelineMetrics.start();
+        combineMoodScores(sentimentScores, mood);
+        pipelineMetrics.stop(Stage.COMBINE_MOOD_SCORES, start);
+        return learnAndRank(mood, hour, userId);
+    }
+    
+    /**
+     * Predicts mood with the classifier from its scan of text that arrived in pieces
+     * (typing sessions keep it up to date incrementally)
+     */
+    MoodScore predictMood(MoodModel.State text, double typingSpeed, int hour, String userId) {
+        long start = pipelineMetrics.start();
+        MoodVector mood = classifier.classify(text, typingSpeed, hour);
+        pipelineMetrics.stop(Stage.CLASSIFY_MOOD, start);
+        return learnAndRank(mood, hour, userId);
+    }
+    
+    /**
+     * The trained classifier, or null when moods are predicted from sentiment and rules
+     */
+    MoodModel classifier() {
+        return classifier;
+    }
+    
+    private MoodScore learnAndRank(MoodVector mood, int hour, String userId) {
+        // Step 5: Apply time-context learning (if userId provided)
         if (userId != null && !userId.isEmpty()) {
-            finalMood = timeContextLearningService.adjustMoodWithLearning(
-                userId, 
-                userInput.getHourOfDay(), 
-                combinedMood
-            );
-        } else {
-            finalMood = combinedMood;
+            timeContextLearningService.adjustMoodWithLearning(userId, hour, mood);
         }
         
-        // Step 5: Determine primary mood
-        String primaryMood = determinePrimaryMood(finalMood);
-        Double confidence = finalMood.getOrDefault(primaryMood.toLowerCase(), 0.0);
+        // Step 6: Determine primary mood
+        MoodCategory primaryMood = mood.argMax(PREDICTED_MOODS);
         
-        return new MoodScore(primaryMood, confidence, finalMood);
+        return new MoodScore(primaryMood.name(), mood.get(primaryMood), mood.toMap(PREDICTED_MOODS));
     }
     
     /**
-     * Combines sentiment scores with rule adjustments
+     * Combines sentiment scores into the rule adjustments (in place)
      */
-    private Map<String, Double> combineMoodScores(
-            Map<String, Double> sentimentScores, 
-            Map<String, Double> ruleAdjustments) {
-        
-        Map<String, Double> combined = new HashMap<>();
-        
+    private void combineMoodScores(double[] sentimentScores, MoodVector mood) {
         // Map sentiment scores to mood categories
-        double stressScore = sentimentScores.getOrDefault("stress", 0.0);
-        double negativeScore = sentimentScores.getOrDefault("negative", 0.0);
-        double focusScore = sentimentScores.getOrDefault("focus", 0.0);
-        double energyScore = sentimentScores.getOrDefault("energy", 0.0);
-        double positiveScore = sentimentScores.getOrDefault("positive", 0.0);
+        double stressScore = sentimentScores[Sentiment.STRESS.ordinal()];
+        double negativeScore = sentimentScores[Sentiment.NEGATIVE.ordinal()];
+        double focusScore = sentimentScores[Sentiment.FOCUS.ordinal()];
+        double energyScore = sentimentScores[Sentiment.ENERGY.ordinal()];
+        double positiveScore = sentimentScores[Sentiment.POSITIVE.ordinal()];
         
         // Combine with rule adjustments
-        combined.put("tired", ruleAdjustments.getOrDefault("tired", 0.0) + 
-                     (negativeScore * 0.3));
-        combined.put("stressed", ruleAdjustments.getOrDefault("stressed", 0.0) + 
-                     (stressScore * 0.7) + (negativeScore * 0.3));
-        combined.put("energetic", ruleAdjustments.getOrDefault("energetic", 0.0) + 
-                     (energyScore * 0.7) + (positiveScore * 0.3));
-        combined.put("relaxed", ruleAdjustments.getOrDefault("relaxed", 0.0) + 
-                     (positiveScore * 0.5));
-        combined.put("focused", ruleAdjustments.getOrDefault("focused", 0.0) + 
-                     (focusScore * 0.7));
-        combined.put("anxious", ruleAdjustments.getOrDefault("anxious", 0.0) + 
-                     (stressScore * 0.5));
+        mood.set(TIRED, mood.get(TIRED) + 
+                 (negativeScore * 0.3));
+        mood.set(STRESSED, mood.get(STRESSED) + 
+                 (stressScore * 0.7) + (negativeScore * 0.3));
+        mood.set(ENERGETIC, mood.get(ENERGETIC) + 
+                 (energyScore * 0.7) + (positiveScore * 0.3));
+        mood.set(RELAXED, mood.get(RELAXED) + 
+                 (positiveScore * 0.5));
+        mood.set(FOCUSED, mood.get(FOCUSED) + 
+                 (focusScore * 0.7));
+        mood.set(ANXIOUS, mood.get(ANXIOUS) + 
+                 (stressScore * 0.5));
         
         // Normalize all values to 0.0-1.0
-        combined.replaceAll((k, v) -> Math.min(1.0, Math.max(0.0, v)));
-        
-        return combined;
-    }
-    
-    /**
-     * Determines the primary mood from mood distribution
-     */
-    private String determinePrimaryMood(Map<String, Double> moodDistribution) {
-        return moodDistribution.entrySet().stream()
-            .max(Map.Entry.comparingByValue())
-            .map(Map.Entry::getKey)
-            .orElse("relaxed")
-            .toUpperCase();
+        mood.clamp(0.0, 1.0);
     }
 }
 
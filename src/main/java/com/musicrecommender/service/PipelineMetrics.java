@@ -0,0 +1,118 @@
+package com.musicrecommender.service;
+
+import com.musicrecommender.model.MoodScore.MoodCategory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer timers for the pipeline stages and counters for the predicted moods.
+ * Meters are registered once and kept in arrays indexed by stage and mood ordinal, so
+ * timing a stage is two nanoTime reads and a histogram update with no lookups or
+ * allocation. Without a meter registry (or with recommender.metrics.enabled=false)
+ * every call is a no-op.
+ */
+@Component
+public class PipelineMetrics {
+
+    /**
+     * Timed pipeline stages; the tag value is the name of the method that implements the stage
+     */
+    public enum Stage {
+        EXTRACT_FEATURES("extractFeatures"),
+        ANALYZE_SENTIMENT("analyzeSentiment"),
+        APPLY_RULES("applyRules"),
+        COMBINE_MOOD_SCORES("combineMoodScores"),
+        CLASSIFY_MOOD("classifyMood"),
+        ADJUST_MOOD_WITH_LEARNING("adjustMoodWithLearning"),
+        GET_RECOMMENDATIONS("getRecommendations"),
+        GENERATE_PLAYLIST("generatePlaylist"),
+        RECORD_BEHAVIOR("recordBehavior");
+
+        private final String tag;
+
+        Stage(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final MoodCategory[] MOODS = MoodCategory.values();
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Value("${recommender.metrics.enabled:true}")
+    private boolean enabled;
+
+    // Client-side percentiles (HdrHistogram based) published for every stage timer, comma separated.
+    // Off by default: they are computed per instance and cost more than the timer itself
+    @Value("${recommender.metrics.percentiles:}")
+    private String percentiles;
+
+    // Publish histogram buckets, from which the monitoring system computes percentiles across instances
+    @Value("${recommender.metrics.percentile-histogram:true}")
+    private boolean percentileHistogram;
+
+    private Timer[] stageTimers;
+    private Counter[] moodCounters;
+
+    @PostConstruct
+    void register() {
+        enabled = enabled && meterRegistry != null;
+        if (!enabled) {
+            return;
+        }
+        double[] publishedPercentiles = Arrays.stream(percentiles.split(","))
+            .map(String::trim)
+            .filter(value -> !value.isEmpty())
+            .mapToDouble(Double::parseDouble)
+            .toArray();
+        stageTimers = new Timer[STAGES.length];
+        for (Stage stage : STAGES) {
+            stageTimers[stage.ordinal()] = Timer.builder("recommender.pipeline.stage")
+                .description("Time spent in one recommendation pipeline stage")
+                .tag("stage", stage.tag)
+                .publishPercentiles(publishedPercentiles)
+                .publishPercentileHistogram(percentileHistogram)
+                .register(meterRegistry);
+        }
+        moodCounters = new Counter[MOODS.length];
+        for (MoodCategory mood : MOODS) {
+            moodCounters[mood.ordinal()] = Counter.builder("recommender.mood.predicted")
+                .description("Primary moods of the recommendations served")
+                .tag("mood", mood.name().toLowerCase())
+                .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Start time to pass to {@link #stop}
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    public void stop(Stage stage, long start) {
+        if (enabled) {
+            stageTimers[stage.ordinal()].record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Counts a served primary mood, given as in {@link com.musicrecommender.model.MoodScore#getPrimaryMood()}
+     */
+    public void countMood(String primaryMood) {
+        if (enabled) {
+            MoodCategory mood = MoodCategory.valueOf(primaryMood);
+            moodCounters[mood.ordinal()].increment();
+        }
+    }
+}
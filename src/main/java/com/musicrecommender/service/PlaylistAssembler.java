@@ -0,0 +1,206 @@
+package com.musicrecommender.service;
+
+import com.musicrecommender.catalog.SongCatalog;
+import com.musicrecommender.catalog.TrackVectorIndex;
+
+import java.util.*;
+
+/**
+ * Picks catalog tracks whose total duration lands within a tolerance of a target.
+ * The target is split into per-category quotas proportional to the category weights.
+ * Each quota is filled by a subset-sum DP over duration buckets, run on a random
+ * sample of the category's tracks that best fit the mood (its top tracks by
+ * {@link TrackVectorIndex} score, or all of them when retrieval is off); whatever a
+ * category misses or overshoots is carried into the next quota, and a last DP over
+ * the unused samples closes any remaining gap. Apart from the top-K scan, work is bounded by categories x sample
+ * size x buckets, independent of the catalog size.
+ */
+final class PlaylistAssembler {
+
+    private final SongCatalog catalog;
+    private final int bucketSeconds;
+    private final int candidatesPerCategory;
+    private final int toleranceSeconds;
+    private final int retrievalPoolSize;
+
+    /**
+     * @param retrievalPoolSize best-fitting tracks per category to sample from; 0 samples from all
+     */
+    PlaylistAssembler(SongCatalog catalog, int bucketSeconds, int candidatesPerCategory, int toleranceSeconds,
+                      int retrievalPoolSize) {
+        if (bucketSeconds <= 0 || candidatesPerCategory <= 0 || toleranceSeconds < 0 || retrievalPoolSize < 0) {
+            throw new IllegalArgumentException("Invalid playlist assembly settings: bucket " + bucketSeconds
+                + "s, " + candidatesPerCategory + " candidates, tolerance " + toleranceSeconds + "s, pool "
+                + retrievalPoolSize);
+        }
+        this.catalog = catalog;
+        this.bucketSeconds = bucketSeconds;
+        this.candidatesPerCategory = candidatesPerCategory;
+        this.toleranceSeconds = toleranceSeconds;
+        // The pool must leave room to sample from
+        this.retrievalPoolSize = retrievalPoolSize == 0 ? 0 : Math.max(retrievalPoolSize, candidatesPerCategory);
+    }
+
+    /**
+     * Selects tracks for the target duration, grouped by category in the given order
+     *
+     * @param categoryKeys distinct categories, most relevant first
+     * @param weights      quota weight of each category (non-negative)
+     * @param query        mood query vector (see {@link TrackVectorIndex#query}); all zeros ranks nothing
+     */
+    int[] assemble(String[] categoryKeys, double[] weights, float[] query, int targetSeconds, Random random) {
+        boolean retrieve = retrievalPoolSize > 0;
+        if (retrieve) {
+            retrieve = false;
+            for (float weight : query) {
+                retrieve |= weight > 0;
+            }
+        }
+
+        double totalWeight = 0;
+        for (double weight : weights) {
+            totalWeight += Math.max(0, weight);
+        }
+
+        // Every sampled track, selected ones first in selection order
+        int[] pool = new int[categoryKeys.length * candidatesPerCategory];
+        int selectedCount = 0;
+        int poolCount = 0;
+        double remaining = targetSeconds;
+        double plannedShare = 0;
+
+        for (int c = 0; c < categoryKeys.length; c++) {
+            plannedShare += totalWeight > 0 ? Math.max(0, weights[c]) / totalWeight : 1.0 / categoryKeys.length;
+            // Quota: the category's own share plus whatever earlier categories missed (or minus their overshoot)
+            double filled = targetSeconds - remaining;
+            int quota = (int) Math.round(Math.min(1.0, plannedShare) * targetSeconds - filled);
+
+            int[] tracks = retrieve
+                ? catalog.vectorIndex().topK(catalog.categoryCode(categoryKeys[c]), query, retrievalPoolSize)
+                : catalog.tracksInCategory(categoryKeys[c]);
+            int[] candidates = sample(tracks, random);
+            boolean[] taken = select(candidates, 0, candidates.length, quota);
+            for (int i = 0; i < candidates.length; i++) {
+                pool[poolCount++] = candidates[i];
+                if (taken[i]) {
+                    swap(pool, selectedCount++, poolCount - 1);
+                    remaining -= catalog.duration(candidates[i]);
+                }
+            }
+        }
+
+        // Categories that were short of tracks leave a gap; close it from the unused samples
+        if (remaining > toleranceSeconds) {
+            int unusedFrom = selectedCount;
+            boolean[] taken = select(pool, unusedFrom, poolCount - unusedFrom, (int) Math.round(remaining));
+            for (int i = 0; i < taken.length; i++) {
+                // Swaps only move tracks at or before unusedFrom + i, so later flags still line up
+                if (taken[i]) {
+                    remaining -= catalog.duration(pool[unusedFrom + i]);
+                    swap(pool, selectedCount++, unusedFrom + i);
+                }
+            }
+        }
+
+        // Quotas can make the target unreachable when categories hold few or long tracks;
+        // then give up on the quotas and fill the target from all samples
+        if (Math.abs(remaining) > toleranceSeconds) {
+            boolean[] taken = select(pool, 0, poolCount, targetSeconds);
+            int[] fallback = new int[poolCount];
+            int fallbackCount = 0;
+            double fallbackRemaining = targetSeconds;
+            for (int i = 0; i < poolCount; i++) {
+                if (taken[i]) {
+                    fallback[fallbackCount++] = pool[i];
+                    fallbackRemaining -= catalog.duration(pool[i]);
+                }
+            }
+            if (Math.abs(fallbackRemaining) < Math.abs(remaining)) {
+                return Arrays.copyOf(fallback, fallbackCount);
+            }
+        }
+        return Arrays.copyOf(pool, selectedCount);
+    }
+
+    private static void swap(int[] values, int i, int j) {
+        int value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+
+    /**
+     * Up to candidatesPerCategory distinct tracks of the list, in random order
+     */
+    private int[] sample(int[] tracks, Random random) {
+        int n = tracks.length;
+        int k = Math.min(n, candidatesPerCategory);
+        int[] sample = new int[k];
+        if (k == n) {
+            System.arraycopy(tracks, 0, sample, 0, n);
+            for (int i = n - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = sample[i];
+                sample[i] = sample[j];
+                sample[j] = swap;
+            }
+            return sample;
+        }
+        // Rejection sampling; k is small next to n, so collisions are rare
+        int count = 0;
+        while (count < k) {
+            int track = tracks[random.nextInt(n)];
+            boolean duplicate = false;
+            for (int i = 0; i < count && !duplicate; i++) {
+                duplicate = sample[i] == track;
+            }
+            if (!duplicate) {
+                sample[count++] = track;
+            }
+        }
+        return sample;
+    }
+
+    /**
+     * Subset-sum DP over duration buckets: finds the subset of candidates[from, from + count)
+     * whose bucketed duration is closest to the quota without exceeding it by more than the tolerance
+     */
+    private boolean[] select(int[] candidates, int from, int count, int quotaSeconds) {
+        boolean[] taken = new boolean[count];
+        if (quotaSeconds <= 0 || count == 0) {
+            return taken;
+        }
+        int[] weights = new int[count];
+        long totalBuckets = 0;
+        for (int i = 0; i < count; i++) {
+            weights[i] = Math.max(1, Math.round(catalog.duration(candidates[from + i]) / bucketSeconds));
+            totalBuckets += weights[i];
+        }
+        int target = Math.round((float) quotaSeconds / bucketSeconds);
+        int capacity = (int) Math.min(totalBuckets, (quotaSeconds + toleranceSeconds) / bucketSeconds);
+
+        // reachedBy[b]: the candidate that first reached b buckets; backtracking through it
+        // only visits sums reached by earlier candidates, so no candidate is used twice
+        int[] reachedBy = new int[capacity + 1];
+        Arrays.fill(reachedBy, -1);
+        reachedBy[0] = count;
+        for (int i = 0; i < count; i++) {
+            int w = weights[i];
+            for (int b = capacity; b >= w; b--) {
+                if (reachedBy[b] < 0 && reachedBy[b - w] >= 0) {
+                    reachedBy[b] = i;
+                }
+            }
+        }
+
+        int best = 0;
+        for (int b = 1; b <= capacity; b++) {
+            if (reachedBy[b] >= 0 && Math.abs(b - target) < Math.abs(best - target)) {
+                best = b;
+            }
+        }
+        for (int b = best; b > 0; b -= weights[reachedBy[b]]) {
+            taken[reachedBy[b]] = true;
+        }
+        return taken;
+    }
+}
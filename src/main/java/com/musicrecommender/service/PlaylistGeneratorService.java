@@ -1,10 +1,15 @@
 package com.musicrecommender.service;
 
+import com.musicrecommender.catalog.SongCatalog;
+import com.musicrecommender.catalog.TrackVectorIndex;
 import com.musicrecommender.model.*;
+import com.musicrecommender.service.PipelineMetrics.Stage;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Generates dynamic playlists based on mood and recommendations
@@ -15,87 +20,57 @@ public class PlaylistGeneratorService {
     @Autowired
     private RecommendationEngineService recommendationEngineService;
     
-    // Song database (in production, this would come from a music API)
-    private static final Map<String, List<Song>> SONGS_BY_CATEGORY = new HashMap<>();
-    
-    static {
-        // Lo-Fi songs
-        SONGS_BY_CATEGORY.put("lofi", Arrays.asList(
-            new Song("Midnight City", "Lofi Girl", "Lo-Fi", 180, "relaxed", 0.3),
-            new Song("Study Session", "ChilledCow", "Lo-Fi", 200, "focused", 0.2),
-            new Song("Coffee Break", "Jinsang", "Lo-Fi", 175, "relaxed", 0.25),
-            new Song("Rainy Day", "Idealism", "Lo-Fi", 190, "calm", 0.2),
-            new Song("Late Night", "Kupla", "Lo-Fi", 185, "tired", 0.15)
-        ));
-        
-        // Electronic songs
-        SONGS_BY_CATEGORY.put("electronic", Arrays.asList(
-            new Song("Wake Me Up", "Avicii", "Electronic", 247, "energetic", 0.9),
-            new Song("Closer", "The Chainsmokers", "Electronic", 244, "energetic", 0.85),
-            new Song("Summer", "Calvin Harris", "Electronic", 223, "happy", 0.8),
-            new Song("Animals", "Martin Garrix", "Electronic", 195, "energetic", 0.95),
-            new Song("Levels", "Avicii", "Electronic", 202, "energetic", 0.9)
-        ));
-        
-        // Jazz songs
-        SONGS_BY_CATEGORY.put("jazz", Arrays.asList(
-            new Song("Kind of Blue", "Miles Davis", "Jazz", 345, "relaxed", 0.4),
-            new Song("Blue Train", "John Coltrane", "Jazz", 420, "focused", 0.5),
-            new Song("Waltz for Debby", "Bill Evans", "Jazz", 380, "relaxed", 0.3),
-            new Song("Take the A Train", "Duke Ellington", "Jazz", 280, "happy", 0.6),
-            new Song("So What", "Miles Davis", "Jazz", 320, "relaxed", 0.4)
-        ));
-        
-        // Classical songs
-        SONGS_BY_CATEGORY.put("classical", Arrays.asList(
-            new Song("Eine kleine Nachtmusik", "Mozart", "Classical", 360, "focused", 0.5),
-            new Song("Moonlight Sonata", "Beethoven", "Classical", 900, "relaxed", 0.3),
-            new Song("Air on G String", "Bach", "Classical", 240, "calm", 0.2),
-            new Song("Nocturne Op.9 No.2", "Chopin", "Classical", 280, "relaxed", 0.25),
-            new Song("Clair de Lune", "Debussy", "Classical", 300, "calm", 0.2)
-        ));
-        
-        // Ambient songs
-        SONGS_BY_CATEGORY.put("ambient", Arrays.asList(
-            new Song("Music for Airports", "Brian Eno", "Ambient", 1200, "calm", 0.1),
-            new Song("Selected Ambient Works", "Aphex Twin", "Ambient", 420, "relaxed", 0.15),
-            new Song("Geogaddi", "Boards of Canada", "Ambient", 380, "calm", 0.2),
-            new Song("Harmony in Ultraviolet", "Tim Hecker", "Ambient", 450, "relaxed", 0.15),
-            new Song("Disintegration Loops", "William Basinski", "Ambient", 3600, "calm", 0.1)
-        ));
-        
-        // Indie songs
-        SONGS_BY_CATEGORY.put("indie", Arrays.asList(
-            new Song("Holocene", "Bon Iver", "Indie", 320, "relaxed", 0.4),
-            new Song("White Winter Hymnal", "Fleet Foxes", "Indie", 180, "calm", 0.3),
-            new Song("Naked as We Came", "Iron & Wine", "Indie", 200, "relaxed", 0.35),
-            new Song("Chicago", "Sufjan Stevens", "Indie", 380, "happy", 0.5),
-            new Song("Skinny Love", "Bon Iver", "Indie", 240, "sad", 0.3)
-        ));
-        
-        // Rock songs
-        SONGS_BY_CATEGORY.put("rock", Arrays.asList(
-            new Song("Hey Jude", "The Beatles", "Rock", 431, "happy", 0.7),
-            new Song("Stairway to Heaven", "Led Zeppelin", "Rock", 482, "energetic", 0.8),
-            new Song("Bohemian Rhapsody", "Queen", "Rock", 355, "energetic", 0.85),
-            new Song("Thunderstruck", "AC/DC", "Rock", 292, "energetic", 0.95),
-            new Song("Sweet Child O' Mine", "Guns N' Roses", "Rock", 356, "happy", 0.75)
-        ));
-        
-        // Hip-Hop songs
-        SONGS_BY_CATEGORY.put("hiphop", Arrays.asList(
-            new Song("HUMBLE.", "Kendrick Lamar", "Hip-Hop", 177, "energetic", 0.9),
-            new Song("No Role Modelz", "J. Cole", "Hip-Hop", 289, "focused", 0.7),
-            new Song("God's Plan", "Drake", "Hip-Hop", 198, "happy", 0.8),
-            new Song("SICKO MODE", "Travis Scott", "Hip-Hop", 312, "energetic", 0.95),
-            new Song("Money Trees", "Kendrick Lamar", "Hip-Hop", 386, "focused", 0.75)
-        ));
+    @Autowired
+    private SongCatalog songCatalog;
+    
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+    
+    // Duration resolution of the track selection DP
+    @Value("${recommender.playlist.bucket-seconds:5}")
+    private int bucketSeconds;
+    
+    // Tracks sampled from each recommended category as selection candidates
+    @Value("${recommender.playlist.candidates-per-category:64}")
+    private int candidatesPerCategory;
+    
+    // How far the playlist may miss the requested length
+    @Value("${recommender.playlist.tolerance-seconds:30}")
+    private int toleranceSeconds;
+    
+    // Best-fitting tracks per category (by mood vector score) that candidates are sampled from; 0 samples from all
+    @Value("${recommender.playlist.retrieval-pool-size:256}")
+    private int retrievalPoolSize;
+    
+    private PlaylistAssembler playlistAssembler;
+    
+    @PostConstruct
+    void createAssembler() {
+        playlistAssembler = new PlaylistAssembler(songCatalog, bucketSeconds, candidatesPerCategory, toleranceSeconds,
+            retrievalPoolSize);
+    }
+    
+    /**
+     * The tracks chosen for a playlist, before they are shuffled and materialized.
+     * Immutable once built, so it can be reused (see {@link RecommendationCache}).
+     */
+    record PlaylistPlan(String playlistName, String mood, int[] trackIds, boolean shuffle) {
     }
     
     /**
      * Generates a dynamic playlist based on mood and recommendations
      */
     public Playlist generatePlaylist(MoodScore moodScore, List<MusicCategory> recommendations, int playlistLength) {
+        long start = pipelineMetrics.start();
+        Playlist playlist = materialize(planPlaylist(moodScore, recommendations, playlistLength));
+        pipelineMetrics.stop(Stage.GENERATE_PLAYLIST, start);
+        return playlist;
+    }
+    
+    /**
+     * Chooses the playlist's tracks: the costly part of playlist generation
+     */
+    PlaylistPlan planPlaylist(MoodScore moodScore, List<MusicCategory> recommendations, int playlistLength) {
         if (recommendations.isEmpty()) {
             return createDefaultPlaylist(moodScore);
         }
@@ -103,39 +78,48 @@ public class PlaylistGeneratorService {
         String primaryMood = moodScore.getPrimaryMood().toLowerCase();
         String playlistName = generatePlaylistName(primaryMood);
         
-        // Get songs from top recommended categories
-        List<Song> playlistSongs = new ArrayList<>();
-        int targetDuration = playlistLength * 60; // Convert minutes to seconds
-        int currentDuration = 0;
-        
-        // Prioritize top recommendation
-        MusicCategory topCategory = recommendations.get(0);
-        String categoryKey = getCategoryKey(topCategory.getCategoryName());
-        List<Song> categorySongs = SONGS_BY_CATEGORY.getOrDefault(categoryKey, new ArrayList<>());
-        
-        // Add songs from top category
-        for (Song song : categorySongs) {
-            if (currentDuration >= targetDuration) break;
-            playlistSongs.add(song);
-            currentDuration += song.getDuration();
+        // Quota per category, proportional to its relevance (a category listed twice pools its weight)
+        Map<String, Double> categoryWeights = new LinkedHashMap<>();
+        for (MusicCategory recommendation : recommendations) {
+            Double relevance = recommendation.getRelevanceScore();
+            categoryWeights.merge(getCategoryKey(recommendation.getCategoryName()),
+                relevance == null ? 0.0 : relevance, Double::sum);
         }
+        String[] categoryKeys = categoryWeights.keySet().toArray(new String[0]);
+        double[] weights = categoryWeights.values().stream().mapToDouble(Double::doubleValue).toArray();
         
-        // Fill remaining time with songs from other recommended categories
-        for (int i = 1; i < recommendations.size() && currentDuration < targetDuration; i++) {
-            categoryKey = getCategoryKey(recommendations.get(i).getCategoryName());
-            categorySongs = SONGS_BY_CATEGORY.getOrDefault(categoryKey, new ArrayList<>());
-            
-            for (Song song : categorySongs) {
-                if (currentDuration >= targetDuration) break;
-                playlistSongs.add(song);
-                currentDuration += song.getDuration();
+        int targetDuration = playlistLength * 60; // Convert minutes to seconds
+        float[] query = TrackVectorIndex.query(moodScore.getMoodDistribution());
+        int[] trackIds = playlistAssembler.assemble(categoryKeys, weights, query, targetDuration,
+            ThreadLocalRandom.current());
+        return new PlaylistPlan(playlistName, primaryMood, trackIds, true);
+    }
+    
+    /**
+     * Builds the playlist of a plan, in a fresh random order unless the plan is fixed
+     */
+    Playlist materialize(PlaylistPlan plan) {
+        int[] trackIds = plan.trackIds();
+        if (plan.shuffle()) {
+            // Shuffle playlist for variety
+            trackIds = trackIds.clone();
+            Random random = ThreadLocalRandom.current();
+            for (int i = trackIds.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = trackIds[i];
+                trackIds[i] = trackIds[j];
+                trackIds[j] = swap;
             }
         }
         
-        // Shuffle playlist for variety
-        Collections.shuffle(playlistSongs);
-        
-        return new Playlist(playlistName, primaryMood, playlistSongs, currentDuration);
+        List<Song> playlistSongs = new ArrayList<>(trackIds.length);
+        int currentDuration = 0;
+        for (int id : trackIds) {
+            Song song = songCatalog.song(id);
+            playlistSongs.add(song);
+            currentDuration += song.getDuration();
+        }
+        return new Playlist(plan.playlistName(), plan.mood(), playlistSongs, currentDuration);
     }
     
     /**
@@ -157,26 +141,16 @@ public class PlaylistGeneratorService {
      * Gets category key from category name
      */
     private String getCategoryKey(String categoryName) {
-        Map<String, String> nameToKey = new HashMap<>();
-        nameToKey.put("Lo-Fi Beats", "lofi");
-        nameToKey.put("Electronic/EDM", "electronic");
-        nameToKey.put("Jazz", "jazz");
-        nameToKey.put("Classical", "classical");
-        nameToKey.put("Ambient", "ambient");
-        nameToKey.put("Indie/Folk", "indie");
-        nameToKey.put("Rock", "rock");
-        nameToKey.put("Hip-Hop", "hiphop");
-        
-        return nameToKey.getOrDefault(categoryName, "lofi");
+        String key = songCatalog.categoryKeyForName(categoryName);
+        return key != null ? key : "lofi";
     }
     
     /**
      * Creates a default playlist if no recommendations
      */
-    private Playlist createDefaultPlaylist(MoodScore moodScore) {
-        List<Song> defaultSongs = SONGS_BY_CATEGORY.get("lofi").subList(0, 5);
-        return new Playlist("Default Playlist", moodScore.getPrimaryMood().toLowerCase(), 
-                           defaultSongs, defaultSongs.stream().mapToInt(Song::getDuration).sum());
+    private PlaylistPlan createDefaultPlaylist(MoodScore moodScore) {
+        int[] lofiTracks = songCatalog.tracksInCategory("lofi");
+        return new PlaylistPlan("Default Playlist", moodScore.getPrimaryMood().toLowerCase(),
+                                Arrays.copyOf(lofiTracks, Math.min(5, lofiTracks.length)), false);
     }
 }
-
@@ -0,0 +1,166 @@
+package com.musicrecommender.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.musicrecommender.classifier.MoodFeatureScan;
+import com.musicrecommender.model.*;
+import com.musicrecommender.service.PlaylistGeneratorService.PlaylistPlan;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Caches recommendations for anonymous requests. Without a userId there is no learning,
+ * so the outcome depends only on the text, the rules version and the typing speed bucket
+ * its rules (or the trained classifier) react to, the hour of day, the search tags the tag
+ * index knows and the playlist length; those form the key. An entry holds the mood,
+ * the ranked categories, the reasoning and the chosen tracks. Each hit gets the tracks
+ * in a fresh random order, as an uncached request would; the track selection itself is
+ * reused until the entry expires.
+ * Backed by Caffeine (W-TinyLFU admission), bounded by the estimated heap size of the entries.
+ */
+@Service
+public class RecommendationCache {
+
+    @Autowired
+    private PlaylistGeneratorService playlistGeneratorService;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Autowired
+    private RecommendationEngineService recommendationEngineService;
+
+    @Autowired
+    private RulesEngineService rulesEngineService;
+
+    @Autowired
+    private MoodPredictionService moodPredictionService;
+
+    @Value("${recommender.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${recommender.cache.max-size-mb:64}")
+    private long maxSizeMb;
+
+    @Value("${recommender.cache.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    private Cache<Key, Entry> cache;
+
+    /**
+     * What the response depends on for an anonymous request
+     */
+    private record Key(String text, int rulesVersion, int typingSpeedBucket, int hour, List<String> tags,
+                       int playlistLengthMinutes) {
+    }
+
+    private record Entry(MoodScore moodScore, List<MusicCategory> recommendedCategories,
+                         PlaylistPlan playlistPlan, String reasoning) {
+    }
+
+    @PostConstruct
+    void createCache() {
+        if (!enabled) {
+            return;
+        }
+        cache = Caffeine.newBuilder()
+            .maximumWeight(maxSizeMb * 1024 * 1024)
+            .weigher(RecommendationCache::estimatedBytes)
+            .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * Whether responses for this user may be cached: only anonymous ones, which learning does not affect
+     */
+    public boolean isCacheable(String userId) {
+        return cache != null && (userId == null || userId.isEmpty());
+    }
+
+    /**
+     * The cached response for the input with a freshly shuffled playlist, or null on a miss
+     */
+    public RecommendationResponse get(UserInput userInput, int playlistLengthMinutes) {
+        Entry entry = cache.getIfPresent(key(userInput, playlistLengthMinutes));
+        if (entry == null) {
+            return null;
+        }
+        pipelineMetrics.countMood(entry.moodScore().getPrimaryMood());
+        return new RecommendationResponse(entry.moodScore(), entry.recommendedCategories(),
+            playlistGeneratorService.materialize(entry.playlistPlan()), entry.reasoning());
+    }
+
+    public void put(UserInput userInput, int playlistLengthMinutes, MoodScore moodScore,
+                    List<MusicCategory> recommendedCategories, PlaylistPlan playlistPlan, String reasoning) {
+        cache.put(key(userInput, playlistLengthMinutes),
+            new Entry(moodScore, List.copyOf(recommendedCategories), playlistPlan, reasoning));
+    }
+
+    public long getEntryCount() {
+        return cache == null ? 0 : cache.estimatedSize();
+    }
+
+    /**
+     * Estimated heap held by the cached entries
+     */
+    public long getEstimatedBytes() {
+        return cache == null ? 0 : cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L);
+    }
+
+    /**
+     * Hits, misses and evictions since startup
+     */
+    public CacheStats getStats() {
+        return cache == null ? CacheStats.empty() : cache.stats();
+    }
+
+    /**
+     * Text is canonicalized to lower case, since every text signal is case-insensitive.
+     * Tags are reduced to the distinct known ones, so unknown tags do not split entries.
+     * Only ASCII text is lowercased: elsewhere the scanners (char by char) and
+     * String.toLowerCase can disagree, so such texts are kept as sent. Entries of earlier
+     * rule versions are no longer hit after a reload and age out.
+     */
+    private Key key(UserInput userInput, int playlistLengthMinutes) {
+        String text = userInput.getTextInput();
+        boolean ascii = true;
+        for (int i = 0; i < text.length() && ascii; i++) {
+            ascii = text.charAt(i) < 128;
+        }
+        RuleTable rules = rulesEngineService.currentRules();
+        int typingSpeedBucket = moodPredictionService.classifier() != null
+            ? MoodFeatureScan.typingSpeedBucket(userInput.getTypingSpeed())
+            : rules.typingSpeedBucket(userInput.getTypingSpeed());
+        return new Key(ascii ? text.toLowerCase(Locale.ROOT) : text, rules.version(), typingSpeedBucket,
+            userInput.getHourOfDay(), recommendationEngineService.affinityTags(userInput.getSearchHistoryTags()),
+            playlistLengthMinutes);
+    }
+
+    /**
+     * Rough heap size of an entry and its key. Category metadata (names, artists, tracks)
+     * is shared with the catalog and not counted.
+     */
+    private static int estimatedBytes(Key key, Entry entry) {
+        long bytes = 32 + stringBytes(key.text());                     // key
+        bytes += 16;                                                    // tag list
+        for (String tag : key.tags()) {
+            bytes += 4 + stringBytes(tag);
+        }
+        bytes += 32 + 400;                                              // entry, mood score and its 6-entry map
+        bytes += 16 + 48L * entry.recommendedCategories().size();       // category list and objects
+        bytes += 32 + 16 + 4L * entry.playlistPlan().trackIds().length; // plan and track ids
+        bytes += stringBytes(entry.reasoning());
+        return (int) Math.min(Integer.MAX_VALUE, bytes);
+    }
+
+    private static long stringBytes(String value) {
+        return value == null ? 0 : 40 + 2L * value.length();
+    }
+}
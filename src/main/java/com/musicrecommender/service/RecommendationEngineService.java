@@ -1,168 +1,216 @@
 package com.musicrecommender.service;
 
+import com.musicrecommender.catalog.CatalogCategory;
+import com.musicrecommender.catalog.SongCatalog;
+import com.musicrecommender.catalog.TagAffinity;
 import com.musicrecommender.model.MoodScore;
 import com.musicrecommender.model.MusicCategory;
+import com.musicrecommender.service.PipelineMetrics.Stage;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * Recommendation engine that maps moods to music categories
+ *
+ * Search tags, from the request and learned from the user's recent requests, boost the
+ * categories they point to in the catalog's tag index. Each tag is one index lookup, so
+ * the cost grows with the number of tags, not with the catalog or the user's history.
  */
 @Service
 public class RecommendationEngineService {
     
-    // Music category database
-    private static final Map<String, MusicCategory> MUSIC_CATEGORIES = new HashMap<>();
-    
-    static {
-        // Lo-Fi Beats
-        MUSIC_CATEGORIES.put("lofi", new MusicCategory(
-            "Lo-Fi Beats",
-            "Chill, relaxed beats perfect for studying and focus",
-            0.0,
-            Arrays.asList("Lofi Girl", "ChilledCow", "Jinsang", "Idealism"),
-            Arrays.asList("Lofi Hip Hop", "Study Beats", "Chill Vibes", "Focus Music")
-        ));
-        
-        // Electronic/EDM
-        MUSIC_CATEGORIES.put("electronic", new MusicCategory(
-            "Electronic/EDM",
-            "High-energy electronic music for workouts and parties",
-            0.0,
-            Arrays.asList("Avicii", "The Chainsmokers", "Calvin Harris", "Martin Garrix"),
-            Arrays.asList("Wake Me Up", "Closer", "Summer", "Animals")
-        ));
-        
-        // Jazz
-        MUSIC_CATEGORIES.put("jazz", new MusicCategory(
-            "Jazz",
-            "Smooth jazz for relaxation and background ambiance",
-            0.0,
-            Arrays.asList("Miles Davis", "John Coltrane", "Bill Evans", "Duke Ellington"),
-            Arrays.asList("Kind of Blue", "Blue Train", "Waltz for Debby", "Take the A Train")
-        ));
-        
-        // Classical
-        MUSIC_CATEGORIES.put("classical", new MusicCategory(
-            "Classical",
-            "Classical music for deep focus and concentration",
-            0.0,
-            Arrays.asList("Mozart", "Beethoven", "Bach", "Chopin"),
-            Arrays.asList("Eine kleine Nachtmusik", "Moonlight Sonata", "Air on G String", "Nocturne")
-        ));
-        
-        // Ambient
-        MUSIC_CATEGORIES.put("ambient", new MusicCategory(
-            "Ambient",
-            "Atmospheric sounds for relaxation and meditation",
-            0.0,
-            Arrays.asList("Brian Eno", "Aphex Twin", "Boards of Canada", "Tim Hecker"),
-            Arrays.asList("Music for Airports", "Selected Ambient Works", "Geogaddi", "Harmony in Ultraviolet")
-        ));
-        
-        // Indie/Folk
-        MUSIC_CATEGORIES.put("indie", new MusicCategory(
-            "Indie/Folk",
-            "Chill indie and folk music for casual listening",
-            0.0,
-            Arrays.asList("Bon Iver", "Fleet Foxes", "Iron & Wine", "Sufjan Stevens"),
-            Arrays.asList("Holocene", "White Winter Hymnal", "Naked as We Came", "Chicago")
-        ));
-        
-        // Rock
-        MUSIC_CATEGORIES.put("rock", new MusicCategory(
-            "Rock",
-            "Energetic rock music for motivation and energy",
-            0.0,
-            Arrays.asList("The Beatles", "Led Zeppelin", "Queen", "AC/DC"),
-            Arrays.asList("Hey Jude", "Stairway to Heaven", "Bohemian Rhapsody", "Thunderstruck")
-        ));
-        
-        // Hip-Hop
-        MUSIC_CATEGORIES.put("hiphop", new MusicCategory(
-            "Hip-Hop",
-            "Hip-hop beats for energy and motivation",
-            0.0,
-            Arrays.asList("Kendrick Lamar", "J. Cole", "Drake", "Travis Scott"),
-            Arrays.asList("HUMBLE.", "No Role Modelz", "God's Plan", "SICKO MODE")
-        ));
+    @Autowired
+    private SongCatalog songCatalog;
+    
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+    
+    @Autowired
+    private TimeContextLearningService timeContextLearningService;
+    
+    // Relevance added to a category the search tags point to fully (affinity 1)
+    @Value("${recommender.recommendation.tag-boost:0.2}")
+    private double tagBoost;
+    
+    // Most recommendations returned per request
+    private static final int MAX_RECOMMENDATIONS = 4;
+    
+    // Mood to category mapping
+    private static final Map<String, List<String>> MOOD_TO_CATEGORIES = Map.of(
+        "tired", List.of("lofi", "ambient", "jazz", "classical"),
+        "stressed", List.of("lofi", "ambient", "classical", "indie"),
+        "energetic", List.of("electronic", "rock", "hiphop"),
+        "relaxed", List.of("jazz", "ambient", "indie", "lofi"),
+        "focused", List.of("classical", "lofi", "ambient", "jazz"),
+        "anxious", List.of("ambient", "classical", "lofi", "jazz")
+    );
+    private static final List<String> DEFAULT_CATEGORIES = List.of("lofi", "ambient");
+    
+    // How well each category fits the moods it is recommended for
+    private static final Map<String, Double> CATEGORY_MOOD_FIT = Map.of(
+        "lofi", 0.9, // Fits tired, stressed, focused, relaxed
+        "ambient", 0.85, // Fits anxious, stressed, relaxed
+        "classical", 0.8, // Fits focused, stressed
+        "jazz", 0.75, // Fits relaxed, focused
+        "electronic", 0.9, // Fits energetic
+        "rock", 0.85, // Fits energetic
+        "hiphop", 0.8, // Fits energetic
+        "indie", 0.7 // Fits relaxed
+    );
+    private static final double DEFAULT_MOOD_FIT = 0.5;
+    
+    /**
+     * A category that can be recommended for a mood, with its catalog metadata
+     */
+    private record Candidate(CatalogCategory category, int categoryCode, double moodFit) {
     }
     
     /**
-     * Gets music category recommendations based on mood
+     * A mood's candidates in listing order and ranked by mood fit (equal fits keep listing order)
      */
-    public List<MusicCategory> getRecommendations(MoodScore moodScore) {
-        String primaryMood = moodScore.getPrimaryMood().toLowerCase();
-        Map<String, Double> moodDistribution = moodScore.getMoodDistribution();
-        
-        // Mood to category mapping
-        Map<String, List<String>> moodToCategories = new HashMap<>();
-        moodToCategories.put("tired", Arrays.asList("lofi", "ambient", "jazz", "classical"));
-        moodToCategories.put("stressed", Arrays.asList("lofi", "ambient", "classical", "indie"));
-        moodToCategories.put("energetic", Arrays.asList("electronic", "rock", "hiphop"));
-        moodToCategories.put("relaxed", Arrays.asList("jazz", "ambient", "indie", "lofi"));
-        moodToCategories.put("focused", Arrays.asList("classical", "lofi", "ambient", "jazz"));
-        moodToCategories.put("anxious", Arrays.asList("ambient", "classical", "lofi", "jazz"));
-        
-        // Get categories for primary mood
-        List<String> categoryKeys = moodToCategories.getOrDefault(primaryMood, Arrays.asList("lofi", "ambient"));
-        
-        // Create recommendations with relevance scores
-        List<MusicCategory> recommendations = new ArrayList<>();
-        
+    private record CandidateTable(Candidate[] listed, Candidate[] ranked) {
+    }
+    
+    // Built once at startup and shared by all requests
+    private Map<String, CandidateTable> candidateTables;
+    private CandidateTable defaultCandidates;
+    
+    @PostConstruct
+    void buildCandidateTables() {
+        Map<String, CandidateTable> tables = new HashMap<>();
+        MOOD_TO_CATEGORIES.forEach((mood, categoryKeys) -> tables.put(mood, buildTable(categoryKeys)));
+        candidateTables = tables;
+        defaultCandidates = buildTable(DEFAULT_CATEGORIES);
+    }
+    
+    /**
+     * Drops categories the catalog does not describe and ranks the rest
+     */
+    private CandidateTable buildTable(List<String> categoryKeys) {
+        List<Candidate> candidates = new ArrayList<>();
         for (String categoryKey : categoryKeys) {
-            MusicCategory category = MUSIC_CATEGORIES.get(categoryKey);
+            CatalogCategory category = songCatalog.category(categoryKey);
             if (category != null) {
-                // Calculate relevance score based on mood distribution
-                double relevanceScore = calculateRelevanceScore(categoryKey, moodDistribution, primaryMood);
-                
-                MusicCategory recommendation = new MusicCategory(
-                    category.getCategoryName(),
-                    category.getDescription(),
-                    relevanceScore,
-                    category.getExampleArtists(),
-                    category.getExampleTracks()
-                );
-                
-                recommendations.add(recommendation);
+                candidates.add(new Candidate(category, songCatalog.categoryCode(categoryKey),
+                    CATEGORY_MOOD_FIT.getOrDefault(categoryKey, DEFAULT_MOOD_FIT)));
             }
         }
-        
-        // Sort by relevance score (descending)
-        recommendations.sort((a, b) -> Double.compare(b.getRelevanceScore(), a.getRelevanceScore()));
-        
-        // Return top 3-4 recommendations
-        return recommendations.stream()
-            .limit(4)
-            .collect(Collectors.toList());
+        Candidate[] listed = candidates.toArray(new Candidate[0]);
+        candidates.sort((a, b) -> Double.compare(b.moodFit(), a.moodFit()));
+        return new CandidateTable(listed, candidates.toArray(new Candidate[0]));
     }
     
     /**
-     * Calculates relevance score for a category based on mood
+     * Gets music category recommendations based on mood
      */
-    private double calculateRelevanceScore(String categoryKey, Map<String, Double> moodDistribution, String primaryMood) {
-        double baseScore = 0.5;
-        
-        // Boost score if category matches primary mood well
-        Map<String, Double> categoryMoodFit = new HashMap<>();
-        categoryMoodFit.put("lofi", 0.9); // Fits tired, stressed, focused, relaxed
-        categoryMoodFit.put("ambient", 0.85); // Fits anxious, stressed, relaxed
-        categoryMoodFit.put("classical", 0.8); // Fits focused, stressed
-        categoryMoodFit.put("jazz", 0.75); // Fits relaxed, focused
-        categoryMoodFit.put("electronic", 0.9); // Fits energetic
-        categoryMoodFit.put("rock", 0.85); // Fits energetic
-        categoryMoodFit.put("hiphop", 0.8); // Fits energetic
-        categoryMoodFit.put("indie", 0.7); // Fits relaxed
+    public List<MusicCategory> getRecommendations(MoodScore moodScore) {
+        return getRecommendations(moodScore, null, null);
+    }
+    
+    /**
+     * Gets music category recommendations based on mood, boosted by the request's search tags
+     * and the user's learned tags (either may be null)
+     */
+    public List<MusicCategory> getRecommendations(MoodScore moodScore, List<String> searchTags, String userId) {
+        long start = pipelineMetrics.start();
+        List<MusicCategory> recommendations = rank(moodScore, tagAffinity(searchTags, userId));
+        pipelineMetrics.stop(Stage.GET_RECOMMENDATIONS, start);
+        return recommendations;
+    }
+    
+    /**
+     * The distinct search tags the tag index knows, lower-cased and sorted: everything about
+     * the tags that can change a recommendation
+     */
+    public List<String> affinityTags(List<String> searchTags) {
+        if (searchTags == null || searchTags.isEmpty()) {
+            return List.of();
+        }
+        TreeSet<String> known = new TreeSet<>();
+        for (String tag : searchTags) {
+            if (tag != null && songCatalog.tagAffinities(tag).length > 0) {
+                known.add(tag.toLowerCase(Locale.ROOT));
+            }
+        }
+        return List.copyOf(known);
+    }
+    
+    /**
+     * Per-category affinity (by category code, capped at 1): every distinct request tag counts
+     * fully and learned tags count by their share of the user's tags. Null when no tag applies.
+     */
+    private float[] tagAffinity(List<String> searchTags, String userId) {
+        boolean hasSearchTags = searchTags != null && !searchTags.isEmpty();
+        boolean hasUser = userId != null && !userId.isEmpty();
+        if (tagBoost == 0 || !hasSearchTags && !hasUser) {
+            return null;
+        }
+        float[] affinity = new float[songCatalog.categoryCount()];
+        for (String tag : affinityTags(searchTags)) {
+            addAffinity(affinity, tag, 1.0);
+        }
+        if (hasUser) {
+            timeContextLearningService.forEachLearnedTag(userId, (tag, share) -> addAffinity(affinity, tag, share));
+        }
+        for (float value : affinity) {
+            if (value > 0) {
+                return affinity;
+            }
+        }
+        return null;
+    }
+    
+    private void addAffinity(float[] affinity, String tag, double share) {
+        for (TagAffinity posting : songCatalog.tagAffinities(tag)) {
+            int code = posting.categoryCode();
+            affinity[code] = (float) Math.min(1.0, affinity[code] + posting.weight() * share);
+        }
+    }
+    
+    private List<MusicCategory> rank(MoodScore moodScore, float[] tagAffinity) {
+        String primaryMood = moodScore.getPrimaryMood().toLowerCase();
+        CandidateTable table = candidateTables.getOrDefault(primaryMood, defaultCandidates);
         
-        baseScore = categoryMoodFit.getOrDefault(categoryKey, 0.5);
+        // Every candidate's relevance is its mood fit scaled by the confidence in the primary mood
+        Double primaryScore = moodScore.getMoodDistribution().get(primaryMood);
+        double scale = primaryScore != null ? 0.5 + primaryScore * 0.5 : 1.0;
         
-        // Adjust based on mood distribution
-        if (moodDistribution.containsKey(primaryMood)) {
-            baseScore *= (0.5 + moodDistribution.get(primaryMood) * 0.5);
+        int count = Math.min(MAX_RECOMMENDATIONS, table.ranked().length);
+        List<MusicCategory> recommendations = new ArrayList<>(count);
+        if (tagAffinity == null && scale > 0 && scale <= 1.0) {
+            // A positive scale of at most 1 neither reorders the candidates nor reaches the 1.0 cap
+            Candidate[] ranked = table.ranked();
+            for (int i = 0; i < count; i++) {
+                recommendations.add(toRecommendation(ranked[i], ranked[i].moodFit() * scale));
+            }
+            return recommendations;
         }
         
-        return Math.min(1.0, baseScore);
+        // Tag boosts and out-of-range distributions (scores may be capped or reversed) change the order,
+        // so rank afresh
+        List<MusicCategory> scored = new ArrayList<>(table.listed().length);
+        for (Candidate candidate : table.listed()) {
+            double boost = tagAffinity != null ? tagBoost * tagAffinity[candidate.categoryCode()] : 0;
+            scored.add(toRecommendation(candidate, Math.min(1.0, candidate.moodFit() * scale + boost)));
+        }
+        // Stable, so equal scores keep the mood's listing order
+        scored.sort((a, b) -> Double.compare(b.getRelevanceScore(), a.getRelevanceScore()));
+        recommendations.addAll(scored.subList(0, count));
+        return recommendations;
+    }
+    
+    private static MusicCategory toRecommendation(Candidate candidate, double relevanceScore) {
+        CatalogCategory category = candidate.category();
+        return new MusicCategory(
+            category.categoryName(),
+            category.description(),
+            relevanceScore,
+            category.exampleArtists(),
+            category.exampleTracks()
+        );
     }
     
     /**
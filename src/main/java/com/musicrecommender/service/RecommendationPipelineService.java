@@ -0,0 +1,223 @@
+package com.musicrecommender.service;
+
+import com.musicrecommender.model.*;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the full recommendation pipeline (mood prediction, category recommendations,
+ * playlist, reasoning) for single requests and for batches.
+ * A batch is fanned out over a fork-join pool (or virtual threads, when enabled) with
+ * a bounded number of sessions in flight, and results are handed back strictly in input
+ * order. Learning is fed from that ordered stream, so each user's behaviors are recorded
+ * in the order they were submitted no matter which session finishes first.
+ */
+@Service
+public class RecommendationPipelineService {
+    
+    @Autowired
+    private MoodPredictionService moodPredictionService;
+    
+    @Autowired
+    private RecommendationEngineService recommendationEngineService;
+    
+    @Autowired
+    private PlaylistGeneratorService playlistGeneratorService;
+    
+    @Autowired
+    private RecommendationCache recommendationCache;
+    
+    @Autowired
+    private BehaviorRecorder behaviorRecorder;
+    
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+    
+    @Autowired(required = false)
+    private Validator validator;
+    
+    @Autowired
+    private Environment environment;
+    
+    // Worker threads for batches; 0 uses one per available processor (ignored with virtual threads)
+    @Value("${recommender.batch.parallelism:0}")
+    private int parallelism;
+    
+    // Sessions submitted but not yet returned, bounding memory for large batches
+    @Value("${recommender.batch.max-in-flight:256}")
+    private int maxInFlight;
+    
+    private Executor batchExecutor;
+    
+    /**
+     * A submitted batch session
+     */
+    private record PendingItem(BatchRecommendationItem item, CompletableFuture<BatchRecommendationResult> result) {
+    }
+    
+    @PostConstruct
+    void start() {
+        if (validator == null) {
+            // Outside a Spring Boot application there is no validator bean
+            validator = Validation.buildDefaultValidatorFactory().getValidator();
+        }
+        // With spring.threads.virtual.enabled each batch session gets its own virtual thread
+        batchExecutor = Threading.VIRTUAL.isActive(environment)
+            ? new VirtualThreadTaskExecutor("batch-")
+            : new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+    
+    @PreDestroy
+    void stop() {
+        if (batchExecutor instanceof ExecutorService executorService) {
+            executorService.shutdownNow();
+        }
+    }
+    
+    /**
+     * Runs the pipeline for one input. Behavior is not recorded; see {@link #recordBehavior}.
+     */
+    public RecommendationResponse recommend(UserInput userInput, String userId, int playlistLengthMinutes) {
+        // Anonymous requests may be answered from the cache
+        boolean cacheable = recommendationCache.isCacheable(userId);
+        if (cacheable) {
+            RecommendationResponse cached = recommendationCache.get(userInput, playlistLengthMinutes);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        
+        // Predict mood
+        MoodScore moodScore = moodPredictionService.predictMood(userInput, userId);
+        
+        // Get music category recommendations
+        List<MusicCategory> recommendedCategories = recommendationEngineService.getRecommendations(
+            moodScore, userInput.getSearchHistoryTags(), userId);
+        
+        // Generate playlist (planned and materialized separately, so the plan can be cached)
+        long start = pipelineMetrics.start();
+        PlaylistGeneratorService.PlaylistPlan playlistPlan = playlistGeneratorService.planPlaylist(
+            moodScore,
+            recommendedCategories,
+            playlistLengthMinutes
+        );
+        Playlist playlist = playlistGeneratorService.materialize(playlistPlan);
+        pipelineMetrics.stop(PipelineMetrics.Stage.GENERATE_PLAYLIST, start);
+        
+        // Generate reasoning
+        String reasoning = recommendationEngineService.generateReasoning(moodScore, recommendedCategories);
+        
+        if (cacheable) {
+            recommendationCache.put(userInput, playlistLengthMinutes, moodScore, recommendedCategories, playlistPlan, reasoning);
+        }
+        return new RecommendationResponse(moodScore, recommendedCategories, playlist, reasoning);
+    }
+    
+    /**
+     * Records behavior for learning (if userId provided), off the calling thread
+     */
+    public void recordBehavior(String userId, UserInput userInput, MoodScore moodScore) {
+        if (userId != null && !userId.isEmpty()) {
+            behaviorRecorder.publish(userId, userInput, moodScore);
+        }
+    }
+    
+    /**
+     * Runs the pipeline for every item in parallel and passes the results to the sink in
+     * input order, as soon as each one and all before it are done. Items are pulled lazily,
+     * so the batch may be read from a stream while earlier results are being written.
+     * An invalid item yields an error result; unreadable input ends the batch with one.
+     */
+    public void recommendBatch(Iterator<BatchRecommendationItem> items, int defaultPlaylistLengthMinutes,
+                               Consumer<BatchRecommendationResult> sink) {
+        Deque<PendingItem> inFlight = new ArrayDeque<>();
+        int index = 0;
+        RuntimeException malformed = null;
+        try {
+            while (true) {
+                BatchRecommendationItem item;
+                try {
+                    if (!items.hasNext()) {
+                        break;
+                    }
+                    item = items.next();
+                } catch (RuntimeException e) {
+                    malformed = e;
+                    break;
+                }
+                
+                int itemIndex = index++;
+                inFlight.add(new PendingItem(item, CompletableFuture.supplyAsync(
+                    () -> recommendItem(itemIndex, item, defaultPlaylistLengthMinutes), batchExecutor)));
+                if (inFlight.size() >= maxInFlight) {
+                    emit(inFlight.poll(), sink);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                emit(inFlight.poll(), sink);
+            }
+        } finally {
+            // The sink failed (typically the client went away); abandon the rest
+            inFlight.forEach(pending -> pending.result().cancel(false));
+        }
+        
+        if (malformed != null) {
+            sink.accept(new BatchRecommendationResult(index, null, null, "Malformed batch input: " + malformed.getMessage()));
+        }
+    }
+    
+    /**
+     * Validates one batch item and runs the pipeline for it; failures become an error result.
+     * Behavior is not recorded.
+     */
+    public BatchRecommendationResult recommendItem(int index, BatchRecommendationItem item, int defaultPlaylistLengthMinutes) {
+        if (item == null) {
+            return new BatchRecommendationResult(index, null, null, "Item cannot be null");
+        }
+        String userId = item.getUserId();
+        try {
+            Set<ConstraintViolation<BatchRecommendationItem>> violations = validator.validate(item);
+            if (!violations.isEmpty()) {
+                String error = violations.stream()
+                    .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                    .sorted()
+                    .collect(Collectors.joining("; "));
+                return new BatchRecommendationResult(index, userId, null, error);
+            }
+            int playlistLengthMinutes = item.getPlaylistLengthMinutes() != null
+                ? item.getPlaylistLengthMinutes() : defaultPlaylistLengthMinutes;
+            RecommendationResponse response = recommend(item.getInput(), userId, playlistLengthMinutes);
+            return new BatchRecommendationResult(index, userId, response, null);
+        } catch (RuntimeException e) {
+            return new BatchRecommendationResult(index, userId, null, e.toString());
+        }
+    }
+    
+    /**
+     * Waits for the oldest session, records its behavior and hands its result on
+     */
+    private void emit(PendingItem pending, Consumer<BatchRecommendationResult> sink) {
+        BatchRecommendationResult result = pending.result().join();
+        if (result.getResponse() != null) {
+            recordBehavior(result.getUserId(), pending.item().getInput(), result.getResponse().getMoodScore());
+        }
+        sink.accept(result);
+    }
+}
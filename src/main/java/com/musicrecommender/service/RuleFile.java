@@ -0,0 +1,58 @@
+package com.musicrecommender.service;
+
+import com.musicrecommender.model.MoodScore.MoodCategory;
+import com.musicrecommender.service.SentimentAnalysisService.Sentiment;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mood rules as read from the rules file (JSON). Each rule adds its mood adjustments when
+ * all of its conditions hold; a rule without conditions always applies. Compiled into a
+ * {@link RuleTable} before use.
+ */
+record RuleFile(List<Rule> rules) {
+
+    RuleFile {
+        rules = rules == null ? List.of() : List.copyOf(rules);
+    }
+
+    /**
+     * @param adjust amount added to each mood's score when the rule applies
+     */
+    record Rule(String name, Conditions when, Map<MoodCategory, Double> adjust) {
+
+        Rule {
+            when = when == null ? new Conditions(null, null, null, null, null, null) : when;
+            adjust = adjust == null ? Map.of() : Map.copyOf(adjust);
+        }
+    }
+
+    /**
+     * What a rule reacts to; absent conditions are not checked
+     *
+     * @param typingSpeed  characters per second
+     * @param hour         hour of day band
+     * @param textContains phrases of which at least one occurs in the lowercased text
+     * @param wordCount    whitespace-separated words
+     * @param exclamations number of '!' in the text
+     * @param sentiment    sentiment scores
+     */
+    record Conditions(Range typingSpeed, HourRange hour, List<String> textContains, Range wordCount,
+                      Range exclamations, Map<Sentiment, Range> sentiment) {
+    }
+
+    /**
+     * Bounds on a number; at most one lower ({@code above} or {@code atLeast}) and one
+     * upper ({@code below} or {@code atMost}) bound
+     */
+    record Range(Double above, Double atLeast, Double below, Double atMost) {
+    }
+
+    /**
+     * Hours from {@code from} (inclusive) to {@code to} (exclusive), wrapping past midnight
+     * when {@code to} is smaller
+     */
+    record HourRange(int from, int to) {
+    }
+}
@@ -0,0 +1,399 @@
+package com.musicrecommender.service;
+
+import com.musicrecommender.model.MoodScore.MoodCategory;
+import com.musicrecommender.model.MoodVector;
+import com.musicrecommender.service.RuleFile.HourRange;
+import com.musicrecommender.service.RuleFile.Range;
+import com.musicrecommender.service.RuleFile.Rule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Mood rules compiled into a flat decision table. Each input a rule tests is reduced to a
+ * small bucket number: typing speed, word count, exclamation count and each sentiment score
+ * by the thresholds the rules compare it with, the hour by the bands the rules use, and each
+ * phrase list by whether the text contains one of its phrases (text inputs come from the
+ * {@link TextFeatures} this table creates). Rules are grouped by what they test (context: typing speed and hour; text;
+ * sentiment; or a mix of these), and each group is precomputed into one row of summed
+ * adjustments per combination of its input buckets. Applying the rules is one bucket lookup
+ * per input and one row addition per group, however many rules share them.
+ * Immutable, so a new table can replace the old one atomically.
+ */
+final class RuleTable {
+
+    private static final MoodCategory[] MOODS = MoodCategory.values();
+
+    // Rows allowed per group, bounding the precomputed tables
+    private static final int MAX_ROWS = 1 << 16;
+
+    // Input kinds
+    private static final int TYPING_SPEED = 0;
+    private static final int HOUR = 1;
+    private static final int PHRASES = 2;
+    private static final int WORD_COUNT = 3;
+    private static final int EXCLAMATIONS = 4;
+    private static final int SENTIMENT_SCORE = 5;
+
+    // Input groups, by kind: a rule's group is the union of its inputs' groups
+    private static final int CONTEXT = 1;
+    private static final int TEXT = 2;
+    private static final int SENTIMENT = 4;
+    private static final int[] GROUP_OF_KIND = {CONTEXT, CONTEXT, TEXT, TEXT, TEXT, SENTIMENT};
+
+    private final int version;
+    private final int ruleCount;
+    private final LexiconScanner scanner;
+    private final Input[] inputs;
+    private final Group[] groups;
+    // Index of the typing speed input, -1 when no rule tests it
+    private final int typingSpeedInput;
+
+    /**
+     * One tested input
+     *
+     * @param key         phrase list or sentiment ordinal
+     * @param thresholds  numeric inputs: ascending; the bucket is how many of them the value reaches
+     * @param hourBuckets hour input: bucket of each hour of the day
+     */
+    private record Input(int kind, int key, double[] thresholds, int[] hourBuckets, int buckets) {
+
+        int bucket(double value) {
+            // Few thresholds per input, so a linear count beats a search
+            int bucket = 0;
+            for (double threshold : thresholds) {
+                bucket += value >= threshold ? 1 : 0;
+            }
+            return bucket;
+        }
+    }
+
+    /**
+     * Rules that test the same groups of inputs, precomputed
+     *
+     * @param adjustments row (the inputs' buckets times their strides) * moods + mood
+     */
+    private record Group(int[] inputs, int[] strides, double[] adjustments) {
+    }
+
+    /**
+     * One condition of a rule, on the input identified by kind and key
+     */
+    private record Condition(int kind, int key, Range range, HourRange hours) {
+    }
+
+    private RuleTable(int version, int ruleCount, LexiconScanner scanner, Input[] inputs, Group[] groups) {
+        this.version = version;
+        this.ruleCount = ruleCount;
+        this.scanner = scanner;
+        this.inputs = inputs;
+        this.groups = groups;
+        int speed = -1;
+        for (int i = 0; i < inputs.length; i++) {
+            if (inputs[i].kind() == TYPING_SPEED) {
+                speed = i;
+            }
+        }
+        this.typingSpeedInput = speed;
+    }
+
+    /**
+     * Compiles the rules
+     *
+     * @param lexicon the sentiment lexicon, which the table's text features are scanned with
+     * @throws IllegalArgumentException if a rule is invalid or a group's table would be too large
+     */
+    static RuleTable compile(RuleFile file, int version, LexiconScanner.Builder lexicon) {
+        List<List<String>> phraseLists = new ArrayList<>();
+        List<List<Condition>> conditions = new ArrayList<>();
+        for (Rule rule : file.rules()) {
+            conditions.add(conditions(rule, phraseLists));
+        }
+
+        // Inputs and the thresholds or hour bands they are tested against
+        Map<List<Integer>, Integer> inputIds = new LinkedHashMap<>();
+        List<TreeSet<Double>> thresholds = new ArrayList<>();
+        List<HourRange> hourBands = new ArrayList<>();
+        for (List<Condition> ruleConditions : conditions) {
+            for (Condition condition : ruleConditions) {
+                int id = inputIds.computeIfAbsent(List.of(condition.kind(), condition.key()), k -> {
+                    thresholds.add(new TreeSet<>());
+                    return thresholds.size() - 1;
+                });
+                if (condition.range() != null) {
+                    Double lower = lowerThreshold(condition.range());
+                    Double upper = upperThreshold(condition.range());
+                    if (lower != null) {
+                        thresholds.get(id).add(lower);
+                    }
+                    if (upper != null) {
+                        thresholds.get(id).add(upper);
+                    }
+                } else if (condition.hours() != null) {
+                    hourBands.add(condition.hours());
+                }
+            }
+        }
+        Input[] inputs = new Input[inputIds.size()];
+        inputIds.forEach((kindAndKey, id) -> {
+            int kind = kindAndKey.get(0);
+            if (kind == HOUR) {
+                inputs[id] = hourInput(hourBands);
+            } else if (kind == PHRASES) {
+                // Bucket 1 when the text contains one of the phrases
+                inputs[id] = new Input(kind, kindAndKey.get(1), null, null, 2);
+            } else {
+                inputs[id] = numericInput(kind, kindAndKey.get(1), thresholds.get(id));
+            }
+        });
+
+        // Rules by the groups of inputs they test
+        Map<Integer, List<Integer>> rulesByGroup = new TreeMap<>();
+        for (int r = 0; r < conditions.size(); r++) {
+            int group = 0;
+            for (Condition condition : conditions.get(r)) {
+                group |= GROUP_OF_KIND[condition.kind()];
+            }
+            rulesByGroup.computeIfAbsent(group, g -> new ArrayList<>()).add(r);
+        }
+        List<Group> groups = new ArrayList<>();
+        rulesByGroup.forEach((group, rules) -> groups.add(
+            group(file.rules(), conditions, rules, inputIds, inputs)));
+
+        return new RuleTable(version, file.rules().size(), TextFeatures.scanner(lexicon, phraseLists), inputs,
+            groups.toArray(new Group[0]));
+    }
+
+    /**
+     * Sequence number of this rule set, increasing with each reload
+     */
+    int version() {
+        return version;
+    }
+
+    int ruleCount() {
+        return ruleCount;
+    }
+
+    /**
+     * Features of no text yet, for these rules; append the text to extract them
+     */
+    TextFeatures newFeatures() {
+        return new TextFeatures(this, scanner);
+    }
+
+    /**
+     * The typing speed range the rules react to; inputs in the same bucket get the same adjustments
+     */
+    int typingSpeedBucket(double typingSpeed) {
+        return typingSpeedInput < 0 ? 0 : inputs[typingSpeedInput].bucket(typingSpeed);
+    }
+
+    /**
+     * Sums the adjustments of the rules that apply, capped at 1 per mood
+     *
+     * @param text features created by this table
+     */
+    MoodVector apply(double typingSpeed, int hour, TextFeatures text, double[] sentimentScores) {
+        int[] buckets = new int[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            Input input = inputs[i];
+            buckets[i] = switch (input.kind()) {
+                case TYPING_SPEED -> input.bucket(typingSpeed);
+                case HOUR -> input.hourBuckets()[Math.floorMod(hour, 24)];
+                case PHRASES -> text.containsPhraseList(input.key()) ? 1 : 0;
+                case WORD_COUNT -> input.bucket(text.wordCount());
+                case EXCLAMATIONS -> input.bucket(text.exclamations());
+                default -> input.bucket(sentimentScores[input.key()]);
+            };
+        }
+
+        MoodVector adjustments = new MoodVector();
+        for (Group group : groups) {
+            int row = 0;
+            for (int j = 0; j < group.inputs().length; j++) {
+                row += buckets[group.inputs()[j]] * group.strides()[j];
+            }
+            adjustments.add(group.adjustments(), row * MOODS.length);
+        }
+        adjustments.clampMax(1.0);
+        return adjustments;
+    }
+
+    /**
+     * The rule's conditions, checked; phrase lists are numbered (identical lists share a number)
+     */
+    private static List<Condition> conditions(Rule rule, List<List<String>> phraseLists) {
+        String name = rule.name() != null ? rule.name() : "(unnamed)";
+        RuleFile.Conditions when = rule.when();
+        List<Condition> conditions = new ArrayList<>();
+        if (when.typingSpeed() != null) {
+            conditions.add(new Condition(TYPING_SPEED, 0, checked(name, "typingSpeed", when.typingSpeed()), null));
+        }
+        if (when.hour() != null) {
+            HourRange hours = when.hour();
+            if (hours.from() < 0 || hours.from() > 23 || hours.to() < 0 || hours.to() > 24 || hours.from() == hours.to()) {
+                throw new IllegalArgumentException("Rule '" + name + "': hours must run from 0-23 to a different 0-24, got "
+                    + hours.from() + "-" + hours.to());
+            }
+            conditions.add(new Condition(HOUR, 0, null, hours));
+        }
+        if (when.textContains() != null) {
+            if (when.textContains().isEmpty()) {
+                throw new IllegalArgumentException("Rule '" + name + "': textContains is empty");
+            }
+            List<String> phrases = when.textContains().stream()
+                .map(phrase -> phrase.toLowerCase(Locale.ROOT)).sorted().distinct().toList();
+            int list = phraseLists.indexOf(phrases);
+            if (list < 0) {
+                if (phraseLists.size() == TextFeatures.MAX_PHRASE_LISTS) {
+                    throw new IllegalArgumentException("Rule '" + name + "': more than "
+                        + TextFeatures.MAX_PHRASE_LISTS + " distinct textContains lists");
+                }
+                phraseLists.add(phrases);
+                list = phraseLists.size() - 1;
+            }
+            conditions.add(new Condition(PHRASES, list, null, null));
+        }
+        if (when.wordCount() != null) {
+            conditions.add(new Condition(WORD_COUNT, 0, checked(name, "wordCount", when.wordCount()), null));
+        }
+        if (when.exclamations() != null) {
+            conditions.add(new Condition(EXCLAMATIONS, 0, checked(name, "exclamations", when.exclamations()), null));
+        }
+        if (when.sentiment() != null) {
+            when.sentiment().forEach((sentiment, range) -> conditions.add(new Condition(SENTIMENT_SCORE,
+                sentiment.ordinal(), checked(name, "sentiment " + sentiment, range), null)));
+        }
+        return conditions;
+    }
+
+    private static Range checked(String rule, String input, Range range) {
+        if (range.above() != null && range.atLeast() != null || range.below() != null && range.atMost() != null) {
+            throw new IllegalArgumentException("Rule '" + rule + "': " + input
+                + " can have one lower (above, atLeast) and one upper (below, atMost) bound");
+        }
+        return range;
+    }
+
+    /**
+     * Smallest value meeting the lower bound: every bound becomes a "value >= threshold" test
+     */
+    private static Double lowerThreshold(Range range) {
+        if (range.above() != null) {
+            return Math.nextUp(range.above());
+        }
+        return range.atLeast();
+    }
+
+    /**
+     * Smallest value beyond the upper bound
+     */
+    private static Double upperThreshold(Range range) {
+        if (range.atMost() != null) {
+            return Math.nextUp(range.atMost());
+        }
+        return range.below();
+    }
+
+    private static Input numericInput(int kind, int key, TreeSet<Double> thresholds) {
+        double[] values = thresholds.stream().mapToDouble(Double::doubleValue).toArray();
+        return new Input(kind, key, values, null, values.length + 1);
+    }
+
+    /**
+     * Hours in the same bands share a bucket
+     */
+    private static Input hourInput(List<HourRange> bands) {
+        int[] hourBuckets = new int[24];
+        Map<List<Boolean>, Integer> bucketsBySignature = new LinkedHashMap<>();
+        for (int hour = 0; hour < 24; hour++) {
+            List<Boolean> signature = new ArrayList<>(bands.size());
+            for (HourRange band : bands) {
+                signature.add(contains(band, hour));
+            }
+            hourBuckets[hour] = bucketsBySignature.computeIfAbsent(signature, s -> bucketsBySignature.size());
+        }
+        return new Input(HOUR, 0, null, hourBuckets, bucketsBySignature.size());
+    }
+
+    private static boolean contains(HourRange band, int hour) {
+        return band.from() < band.to()
+            ? hour >= band.from() && hour < band.to()
+            : hour >= band.from() || hour < band.to();
+    }
+
+    /**
+     * Precomputes the summed adjustments of the given rules for every combination of buckets
+     * of the inputs they test
+     */
+    private static Group group(List<Rule> rules, List<List<Condition>> conditions, List<Integer> ruleIndexes,
+                               Map<List<Integer>, Integer> inputIds, Input[] inputs) {
+        TreeSet<Integer> tested = new TreeSet<>();
+        for (int r : ruleIndexes) {
+            for (Condition condition : conditions.get(r)) {
+                tested.add(inputIds.get(List.of(condition.kind(), condition.key())));
+            }
+        }
+        int[] groupInputs = tested.stream().mapToInt(Integer::intValue).toArray();
+        int[] strides = new int[groupInputs.length];
+        long rows = 1;
+        for (int j = 0; j < groupInputs.length; j++) {
+            strides[j] = (int) rows;
+            rows *= inputs[groupInputs[j]].buckets();
+            if (rows > MAX_ROWS) {
+                throw new IllegalArgumentException("Rules " + ruleIndexes.stream().map(r -> rules.get(r).name()).toList()
+                    + " test too many input ranges together (over " + MAX_ROWS + " combinations)");
+            }
+        }
+
+        double[] adjustments = new double[(int) rows * MOODS.length];
+        int[] buckets = new int[inputs.length];
+        for (int row = 0; row < rows; row++) {
+            for (int j = 0; j < groupInputs.length; j++) {
+                buckets[groupInputs[j]] = row / strides[j] % inputs[groupInputs[j]].buckets();
+            }
+            for (int r : ruleIndexes) {
+                boolean applies = true;
+                for (Condition condition : conditions.get(r)) {
+                    int id = inputIds.get(List.of(condition.kind(), condition.key()));
+                    applies &= holds(condition, inputs[id], buckets[id]);
+                }
+                if (applies) {
+                    for (Map.Entry<MoodCategory, Double> adjustment : rules.get(r).adjust().entrySet()) {
+                        adjustments[row * MOODS.length + adjustment.getKey().ordinal()] += adjustment.getValue();
+                    }
+                }
+            }
+        }
+        return new Group(groupInputs, strides, adjustments);
+    }
+
+    /**
+     * Whether the condition holds for inputs in the given bucket
+     */
+    private static boolean holds(Condition condition, Input input, int bucket) {
+        if (condition.kind() == PHRASES) {
+            return bucket == 1;
+        }
+        if (condition.kind() == HOUR) {
+            for (int hour = 0; hour < 24; hour++) {
+                if (input.hourBuckets()[hour] == bucket) {
+                    return contains(condition.hours(), hour);
+                }
+            }
+            return false;
+        }
+        // Bucket b holds the values reaching exactly the first b thresholds
+        Double lower = lowerThreshold(condition.range());
+        Double upper = upperThreshold(condition.range());
+        return (lower == null || bucket > Arrays.binarySearch(input.thresholds(), lower))
+            && (upper == null || bucket <= Arrays.binarySearch(input.thresholds(), upper));
+    }
+}
@@ -1,119 +1,170 @@
 package com.musicrecommender.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.musicrecommender.model.MoodVector;
 import com.musicrecommender.model.UserInput;
+import com.musicrecommender.service.PipelineMetrics.Stage;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
 import org.springframework.stereotype.Service;
-import java.util.HashMap;
-import java.util.Map;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Rules-based engine for mood prediction
  * Applies business rules based on typing speed, time of day, and text patterns
+ *
+ * The rules are read from a JSON file (see {@link RuleFile}) and compiled into a
+ * {@link RuleTable}. When the file changes, the new rules are compiled on the side and
+ * swapped in with one volatile write: requests in flight finish with the table they
+ * started with, and a file that fails to compile leaves the current rules in place.
  */
 @Service
 public class RulesEngineService {
-    
-    // Typing speed thresholds (characters per second)
-    private static final double VERY_SLOW_THRESHOLD = 1.0;
-    private static final double SLOW_THRESHOLD = 2.0;
-    private static final double NORMAL_THRESHOLD = 4.0;
-    private static final double FAST_THRESHOLD = 6.0;
-    
-    /**
-     * Applies rules to determine mood adjustments based on context
-     */
-    public Map<String, Double> applyRules(UserInput userInput, Map<String, Double> sentimentScores) {
-        Map<String, Double> ruleAdjustments = new HashMap<>();
-        
-        // Initialize adjustments
-        ruleAdjustments.put("tired", 0.0);
-        ruleAdjustments.put("stressed", 0.0);
-        ruleAdjustments.put("energetic", 0.0);
-        ruleAdjustments.put("relaxed", 0.0);
-        ruleAdjustments.put("focused", 0.0);
-        ruleAdjustments.put("anxious", 0.0);
-        
-        // Rule 1: Typing speed analysis
-        double typingSpeed = userInput.getTypingSpeed();
-        if (typingSpeed < VERY_SLOW_THRESHOLD) {
-            // Very slow typing suggests tiredness or distraction
-            ruleAdjustments.put("tired", ruleAdjustments.get("tired") + 0.4);
-            ruleAdjustments.put("stressed", ruleAdjustments.get("stressed") + 0.2);
-        } else if (typingSpeed < SLOW_THRESHOLD) {
-            // Slow typing suggests tiredness or careful thought
-            ruleAdjustments.put("tired", ruleAdjustments.get("tired") + 0.3);
-            ruleAdjustments.put("focused", ruleAdjustments.get("focused") + 0.1);
-        } else if (typingSpeed > FAST_THRESHOLD) {
-            // Fast typing suggests energy or urgency
-            ruleAdjustments.put("energetic", ruleAdjustments.get("energetic") + 0.3);
-            ruleAdjustments.put("stressed", ruleAdjustments.get("stressed") + 0.2);
-        }
-        
-        // Rule 2: Time of day analysis
-        int hour = userInput.getHourOfDay();
-        
-        // Late night (11 PM - 4 AM)
-        if (hour >= 23 || hour < 4) {
-            ruleAdjustments.put("tired", ruleAdjustments.get("tired") + 0.5);
-            ruleAdjustments.put("stressed", ruleAdjustments.get("stressed") + 0.2);
-        }
-        // Early morning (4 AM - 7 AM)
-        else if (hour >= 4 && hour < 7) {
-            ruleAdjustments.put("tired", ruleAdjustments.get("tired") + 0.4);
-        }
-        // Morning (7 AM - 12 PM)
-        else if (hour >= 7 && hour < 12) {
-            ruleAdjustments.put("energetic", ruleAdjustments.get("energetic") + 0.2);
-            ruleAdjustments.put("focused", ruleAdjustments.get("focused") + 0.2);
-        }
-        // Afternoon (12 PM - 5 PM)
-        else if (hour >= 12 && hour < 17) {
-            ruleAdjustments.put("focused", ruleAdjustments.get("focused") + 0.1);
-        }
-        // Evening (5 PM - 11 PM)
-        else if (hour >= 17 && hour < 23) {
-            ruleAdjustments.put("relaxed", ruleAdjustments.get("relaxed") + 0.2);
+
+    private static final Logger log = LoggerFactory.getLogger(RulesEngineService.class);
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Autowired
+    private ResourceLoader resourceLoader;
+
+    @Autowired
+    private SentimentAnalysisService sentimentAnalysisService;
+
+    @Value("${recommender.rules.location:classpath:rules/mood-rules.json}")
+    private String rulesLocation;
+
+    // How often the rules file is checked for changes; 0 disables reloading
+    @Value("${recommender.rules.reload-interval-seconds:10}")
+    private long reloadIntervalSeconds;
+
+    private volatile RuleTable rules;
+
+    // Modification time of the loaded file; guarded by this
+    private long rulesModified;
+
+    private ScheduledExecutorService reloader;
+
+    @PostConstruct
+    void loadRules() {
+        try {
+            if (!reload()) {
+                throw new IllegalStateException("No rules at " + rulesLocation);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load rules from " + rulesLocation, e);
         }
-        
-        // Rule 3: Text pattern analysis (combine with sentiment)
-        String text = userInput.getTextInput().toLowerCase();
-        
-        // Study-related text
-        if (text.contains("study") || text.contains("studying") || 
-            text.contains("exam") || text.contains("test")) {
-            ruleAdjustments.put("focused", ruleAdjustments.get("focused") + 0.3);
-            ruleAdjustments.put("stressed", ruleAdjustments.get("stressed") + 0.2);
+        if (reloadIntervalSeconds > 0) {
+            reloader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "rules-reloader");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reloader.scheduleWithFixedDelay(this::reloadIfModified, reloadIntervalSeconds, reloadIntervalSeconds,
+                TimeUnit.SECONDS);
         }
-        
-        // Short, fragmented text suggests tiredness
-        if (text.split("\\s+").length < 3) {
-            ruleAdjustments.put("tired", ruleAdjustments.get("tired") + 0.2);
+    }
+
+    @PreDestroy
+    void stopReloading() {
+        if (reloader != null) {
+            reloader.shutdownNow();
         }
-        
-        // Exclamation marks suggest energy or stress
-        long exclamationCount = text.chars().filter(ch -> ch == '!').count();
-        if (exclamationCount > 2) {
-            ruleAdjustments.put("energetic", ruleAdjustments.get("energetic") + 0.2);
-            ruleAdjustments.put("stressed", ruleAdjustments.get("stressed") + 0.1);
+    }
+
+    /**
+     * Applies rules to determine mood adjustments based on context
+     *
+     * @param features features of the input's text; the rules they were extracted for are applied,
+     *                 even if newer ones were loaded since
+     */
+    public MoodVector applyRules(UserInput userInput, TextFeatures features, double[] sentimentScores) {
+        long start = pipelineMetrics.start();
+        MoodVector ruleAdjustments = features.rules().apply(userInput.getTypingSpeed(), userInput.getHourOfDay(),
+            features, sentimentScores);
+        pipelineMetrics.stop(Stage.APPLY_RULES, start);
+        return ruleAdjustments;
+    }
+
+    /**
+     * Reads and compiles the rules file, replacing the current rules if it succeeds
+     *
+     * @return false if there is no rules file
+     * @throws IOException              if the file cannot be read
+     * @throws IllegalArgumentException if the rules are invalid
+     */
+    public synchronized boolean reload() throws IOException {
+        Resource resource = resourceLoader.getResource(rulesLocation);
+        if (!resource.exists()) {
+            return false;
         }
-        
-        // Combine with sentiment scores
-        if (sentimentScores.get("stress") > 0.3) {
-            ruleAdjustments.put("stressed", ruleAdjustments.get("stressed") + 0.3);
-            ruleAdjustments.put("anxious", ruleAdjustments.get("anxious") + 0.2);
+        long modified = lastModified(resource);
+        RuleFile file;
+        try (InputStream in = resource.getInputStream()) {
+            file = new ObjectMapper().readValue(in, RuleFile.class);
         }
-        
-        if (sentimentScores.get("focus") > 0.3) {
-            ruleAdjustments.put("focused", ruleAdjustments.get("focused") + 0.3);
+        RuleTable current = rules;
+        RuleTable compiled = RuleTable.compile(file, current == null ? 1 : current.version() + 1,
+            sentimentAnalysisService.lexicon());
+        rules = compiled;
+        rulesModified = modified;
+        log.info("Loaded {} rules (version {}) from {}", compiled.ruleCount(), compiled.version(), rulesLocation);
+        return true;
+    }
+
+    /**
+     * Version of the current rules, increased by every reload
+     */
+    public int getRulesVersion() {
+        return rules.version();
+    }
+
+    public int getRuleCount() {
+        return rules.ruleCount();
+    }
+
+    /**
+     * The current rules, which also extract the text features they read
+     */
+    RuleTable currentRules() {
+        return rules;
+    }
+
+    private synchronized void reloadIfModified() {
+        try {
+            Resource resource = resourceLoader.getResource(rulesLocation);
+            long modified = resource.exists() ? lastModified(resource) : rulesModified;
+            if (modified != rulesModified) {
+                // Set before compiling, so a broken file is reported once rather than on every check
+                rulesModified = modified;
+                reload();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to reload rules from {}; keeping version {}", rulesLocation, rules.version(), e);
         }
-        
-        if (sentimentScores.get("energy") > 0.3) {
-            ruleAdjustments.put("energetic", ruleAdjustments.get("energetic") + 0.3);
+    }
+
+    /**
+     * Modification time of the resource, or 0 when it has none (a classpath entry in a jar)
+     */
+    private static long lastModified(Resource resource) {
+        try {
+            return resource.lastModified();
+        } catch (IOException e) {
+            return 0;
         }
-        
-        // Normalize all values to 0.0-1.0 range
-        ruleAdjustments.replaceAll((k, v) -> Math.min(1.0, v));
-        
-        return ruleAdjustments;
     }
 }
-
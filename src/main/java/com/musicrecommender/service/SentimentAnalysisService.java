@@ -1,125 +1,176 @@
 package com.musicrecommender.service;
 
+import com.musicrecommender.service.PipelineMetrics.Stage;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
 import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.regex.Pattern;
 
 /**
  * Lightweight ML-based sentiment analysis service
- * Uses keyword matching, sentiment dictionaries, and simple scoring
+ * Uses keyword matching, sentiment dictionaries, and simple scoring.
+ * The keyword lexicon is read from a file at startup into a {@link WordTable}, which the
+ * scanner that extracts {@link TextFeatures} looks tokens up in, so scoring reads keyword
+ * counts from the request's single pass over the text.
  */
 @Service
 public class SentimentAnalysisService {
     
-    // Positive sentiment keywords
-    private static final Set<String> POSITIVE_WORDS = Set.of(
-        "happy", "great", "awesome", "amazing", "love", "excited", "good", "nice",
-        "wonderful", "fantastic", "excellent", "perfect", "best", "yeah", "yes"
-    );
+    private static final Logger log = LoggerFactory.getLogger(SentimentAnalysisService.class);
+    
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
     
-    // Negative sentiment keywords
-    private static final Set<String> NEGATIVE_WORDS = Set.of(
-        "sad", "bad", "hate", "terrible", "awful", "worst", "angry", "frustrated",
-        "tired", "exhausted", "stressed", "anxious", "worried", "depressed", "sick"
-    );
+    @Autowired
+    private ResourceLoader resourceLoader;
     
-    // Stress indicators
-    private static final Set<String> STRESS_WORDS = Set.of(
-        "stress", "stressed", "pressure", "deadline", "exam", "test", "work", "busy",
-        "overwhelmed", "fr", "fuck", "damn", "ugh", "argh"
-    );
+    // Tab-separated term and sentiments per line (see lexicon/sentiment-lexicon.tsv)
+    @Value("${recommender.sentiment.lexicon-location:classpath:lexicon/sentiment-lexicon.tsv}")
+    private String lexiconLocation;
     
-    // Study/focus indicators
-    private static final Set<String> FOCUS_WORDS = Set.of(
-        "study", "studying", "focus", "concentrate", "work", "homework", "assignment",
-        "reading", "learning", "exam", "test"
-    );
+    private WordTable words;
     
-    // Energy indicators
-    private static final Set<String> ENERGY_WORDS = Set.of(
-        "energy", "energetic", "pumped", "ready", "go", "let's", "party", "dance",
-        "workout", "exercise", "run", "gym"
-    );
+    // Intensifiers and negations (matched anywhere in the text)
+    private static final List<String> INTENSIFIERS = List.of("very", "really", "so ", "extremely");
+    private static final List<String> NEGATIONS = List.of("not ", "no ", "don't", "can't");
     
     /**
-     * Analyzes text sentiment and returns mood scores
+     * Sentiment dimensions; the ordinal indexes both the scanner counters and the score array
      */
-    public Map<String, Double> analyzeSentiment(String text) {
-        if (text == null || text.trim().isEmpty()) {
-            return getNeutralSentiment();
+    public enum Sentiment {
+        POSITIVE, NEGATIVE, STRESS, FOCUS, ENERGY
+    }
+    
+    private static final int POSITIVE = Sentiment.POSITIVE.ordinal();
+    private static final int NEGATIVE = Sentiment.NEGATIVE.ordinal();
+    private static final int STRESS = Sentiment.STRESS.ordinal();
+    private static final int FOCUS = Sentiment.FOCUS.ordinal();
+    private static final int ENERGY = Sentiment.ENERGY.ordinal();
+    
+    @PostConstruct
+    void loadLexicon() {
+        Resource resource = resourceLoader.getResource(lexiconLocation);
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8), 1 << 16)) {
+            words = readLexicon(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load the sentiment lexicon from " + lexiconLocation, e);
         }
-        
-        String lowerText = text.toLowerCase();
-        String[] words = lowerText.split("\\s+");
-        
-        Map<String, Double> sentimentScores = new HashMap<>();
-        sentimentScores.put("positive", 0.0);
-        sentimentScores.put("negative", 0.0);
-        sentimentScores.put("stress", 0.0);
-        sentimentScores.put("focus", 0.0);
-        sentimentScores.put("energy", 0.0);
-        
-        // Count word matches
-        int positiveCount = 0;
-        int negativeCount = 0;
-        int stressCount = 0;
-        int focusCount = 0;
-        int energyCount = 0;
-        
-        for (String word : words) {
-            // Remove punctuation
-            word = word.replaceAll("[^a-z]", "");
-            
-            if (POSITIVE_WORDS.contains(word)) {
-                positiveCount++;
-            }
-            if (NEGATIVE_WORDS.contains(word)) {
-                negativeCount++;
-            }
-            if (STRESS_WORDS.contains(word)) {
-                stressCount++;
+        log.info("Loaded {} sentiment terms from {} ({} KB table)", words.size(), lexiconLocation,
+            words.sizeBytes() / 1024);
+    }
+    
+    /**
+     * Reads a lexicon: per line a term, a tab and its comma-separated {@link Sentiment} names.
+     * Blank lines and lines starting with '#' are skipped, as are terms no token can match
+     * (see {@link WordTable.Builder#add}).
+     *
+     * @throws IOException naming the line of a malformed entry
+     */
+    static WordTable readLexicon(BufferedReader reader) throws IOException {
+        WordTable.Builder builder = WordTable.builder();
+        String line;
+        int lineNumber = 0;
+        int unmatchable = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
             }
-            if (FOCUS_WORDS.contains(word)) {
-                focusCount++;
+            int tab = line.lastIndexOf('\t');
+            int classes = 0;
+            try {
+                if (tab <= 0) {
+                    throw new IllegalArgumentException("expected a term, a tab and its sentiments");
+                }
+                for (String sentiment : line.substring(tab + 1).split(",")) {
+                    classes |= 1 << Sentiment.valueOf(sentiment.trim().toUpperCase(Locale.ROOT)).ordinal();
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Malformed lexicon line " + lineNumber + ": " + line, e);
             }
-            if (ENERGY_WORDS.contains(word)) {
-                energyCount++;
+            if (!builder.add(line.substring(0, tab), classes)) {
+                unmatchable++;
             }
         }
+        if (unmatchable > 0) {
+            log.warn("Skipped {} sentiment terms that no token can match", unmatchable);
+        }
+        return builder.build();
+    }
+    
+    /**
+     * The lexicon as a scanner builder, for {@link TextFeatures} to add the rules' phrase
+     * lists to: word classes are {@link Sentiment} ordinals, and intensifiers and negations
+     * report the {@link TextFeatures#INTENSIFIED} and {@link TextFeatures#NEGATED} flags
+     */
+    LexiconScanner.Builder lexicon() {
+        return LexiconScanner.builder()
+            .words(words, Sentiment.values().length)
+            .addPhrases(TextFeatures.INTENSIFIED, INTENSIFIERS)
+            .addPhrases(TextFeatures.NEGATED, NEGATIONS);
+    }
+    
+    /**
+     * Distinct terms in the lexicon
+     */
+    public int getLexiconSize() {
+        return words.size();
+    }
+    
+    /**
+     * Heap held by the lexicon's hash table
+     */
+    public long getLexiconBytes() {
+        return words.sizeBytes();
+    }
+    
+    /**
+     * Scores the sentiment of the text the features were extracted from, indexed by
+     * {@link Sentiment#ordinal()}
+     */
+    public double[] analyzeSentiment(TextFeatures features) {
+        long start = pipelineMetrics.start();
+        double[] scores = score(features);
+        pipelineMetrics.stop(Stage.ANALYZE_SENTIMENT, start);
+        return scores;
+    }
+    
+    /**
+     * Same scores as {@link #analyzeSentiment}, untimed (typing sessions rescore on every update)
+     */
+    static double[] score(TextFeatures features) {
+        double[] scores = new double[Sentiment.values().length];
         
         // Normalize scores (0.0 to 1.0)
-        int totalWords = words.length;
-        if (totalWords > 0) {
-            sentimentScores.put("positive", Math.min(1.0, positiveCount * 0.3));
-            sentimentScores.put("negative", Math.min(1.0, negativeCount * 0.3));
-            sentimentScores.put("stress", Math.min(1.0, stressCount * 0.4));
-            sentimentScores.put("focus", Math.min(1.0, focusCount * 0.4));
-            sentimentScores.put("energy", Math.min(1.0, energyCount * 0.4));
-        }
+        scores[POSITIVE] = Math.min(1.0, features.keywordHits(Sentiment.POSITIVE) * 0.3);
+        scores[NEGATIVE] = Math.min(1.0, features.keywordHits(Sentiment.NEGATIVE) * 0.3);
+        scores[STRESS] = Math.min(1.0, features.keywordHits(Sentiment.STRESS) * 0.4);
+        scores[FOCUS] = Math.min(1.0, features.keywordHits(Sentiment.FOCUS) * 0.4);
+        scores[ENERGY] = Math.min(1.0, features.keywordHits(Sentiment.ENERGY) * 0.4);
         
-        // Check for intensifiers (very, really, so, etc.)
-        if (lowerText.contains("very") || lowerText.contains("really") || 
-            lowerText.contains("so ") || lowerText.contains("extremely")) {
-            sentimentScores.replaceAll((k, v) -> v * 1.2);
+        // Intensifiers (very, really, so, etc.) boost every score
+        if (features.intensified()) {
+            for (int i = 0; i < scores.length; i++) {
+                scores[i] *= 1.2;
+            }
         }
         
-        // Check for negation
-        if (lowerText.contains("not ") || lowerText.contains("no ") || 
-            lowerText.contains("don't") || lowerText.contains("can't")) {
-            sentimentScores.put("negative", Math.min(1.0, sentimentScores.get("negative") + 0.2));
+        // Negation leans negative
+        if (features.negated()) {
+            scores[NEGATIVE] = Math.min(1.0, scores[NEGATIVE] + 0.2);
         }
-        
-        return sentimentScores;
-    }
-    
-    private Map<String, Double> getNeutralSentiment() {
-        Map<String, Double> neutral = new HashMap<>();
-        neutral.put("positive", 0.0);
-        neutral.put("negative", 0.0);
-        neutral.put("stress", 0.0);
-        neutral.put("focus", 0.0);
-        neutral.put("energy", 0.0);
-        return neutral;
+        return scores;
     }
 }
-
@@ -0,0 +1,139 @@
+package com.musicrecommender.service;
+
+/**
+ * Running search-tag counts for one user, keyed by {@link TagDictionary} id.
+ * Updated incrementally as behaviors enter and leave the user's history, like
+ * {@link HourlyMoodHistogram}, so popular tags are read without scanning the history.
+ * Open addressing with linear probing over one int array of (id, count) pairs; one
+ * writer at a time, and a reader racing an update may miss or double-count a tag.
+ */
+final class TagCounts {
+
+    /**
+     * Receives one tag id and its count
+     */
+    interface Visitor {
+        void visit(int tagId, int count);
+    }
+
+    private static final int EMPTY = -1;
+    private static final int INITIAL_PAIRS = 8;
+
+    // (id, count) pairs; length / 2 is a power of two. Null until the first tag
+    private volatile int[] table;
+    private int size;
+    private volatile int total;
+
+    void add(int tagId, int count) {
+        int[] table = this.table;
+        if (table == null) {
+            table = emptyTable(INITIAL_PAIRS);
+        } else if ((size + 1) * 2 > table.length / 2) {
+            table = rehash(table, table.length);
+        }
+        int mask = table.length / 2 - 1;
+        int index = slot(tagId, mask);
+        while (table[index * 2] != EMPTY && table[index * 2] != tagId) {
+            index = (index + 1) & mask;
+        }
+        if (table[index * 2] == EMPTY) {
+            table[index * 2 + 1] = count;
+            table[index * 2] = tagId;
+            size++;
+        } else {
+            table[index * 2 + 1] += count;
+        }
+        this.table = table;
+        total += count;
+    }
+
+    void remove(int tagId, int count) {
+        int[] table = this.table;
+        if (table == null) {
+            return;
+        }
+        int mask = table.length / 2 - 1;
+        int index = slot(tagId, mask);
+        while (table[index * 2] != tagId) {
+            if (table[index * 2] == EMPTY) {
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+        total -= count;
+        table[index * 2 + 1] -= count;
+        if (table[index * 2 + 1] > 0) {
+            return;
+        }
+        // Backward-shift deletion: move later entries of the probe run into the gap
+        size--;
+        int gap = index;
+        for (int next = (gap + 1) & mask; table[next * 2] != EMPTY; next = (next + 1) & mask) {
+            int home = slot(table[next * 2], mask);
+            // Move the entry unless its home lies cyclically within (gap, next]
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                table[gap * 2] = table[next * 2];
+                table[gap * 2 + 1] = table[next * 2 + 1];
+                gap = next;
+            }
+        }
+        table[gap * 2] = EMPTY;
+        table[gap * 2 + 1] = 0;
+    }
+
+    /**
+     * Sum of all tag counts
+     */
+    int total() {
+        return total;
+    }
+
+    void forEach(Visitor visitor) {
+        int[] table = this.table;
+        if (table == null) {
+            return;
+        }
+        for (int index = 0; index < table.length; index += 2) {
+            int tagId = table[index];
+            int count = table[index + 1];
+            if (tagId != EMPTY && count > 0) {
+                visitor.visit(tagId, count);
+            }
+        }
+    }
+
+    int estimatedBytes() {
+        int[] table = this.table;
+        return 24 + (table == null ? 0 : 16 + 4 * table.length);
+    }
+
+    private static int slot(int tagId, int mask) {
+        int hash = tagId * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private static int[] emptyTable(int pairs) {
+        int[] table = new int[pairs * 2];
+        for (int index = 0; index < table.length; index += 2) {
+            table[index] = EMPTY;
+        }
+        return table;
+    }
+
+    private static int[] rehash(int[] table, int pairs) {
+        int[] grown = emptyTable(pairs);
+        int mask = pairs - 1;
+        for (int index = 0; index < table.length; index += 2) {
+            int tagId = table[index];
+            if (tagId != EMPTY) {
+                int slot = slot(tagId, mask);
+                while (grown[slot * 2] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                grown[slot * 2] = tagId;
+                grown[slot * 2 + 1] = table[index + 1];
+            }
+        }
+        return grown;
+    }
+}
@@ -0,0 +1,192 @@
+package com.musicrecommender.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Maps the distinct search tags seen by learning to dense int ids shared by all users,
+ * so a recorded behavior stores an int per tag instead of a String. Each id counts its
+ * references, one per history entry holding it: {@link #encode} takes one and
+ * {@link #release} gives it back once the entry leaves memory (overwritten in the ring,
+ * or its user's state dropped). An id without references is freed, and once
+ * {@code maxSize} ids are in use, freed ids are given to new tags. A new tag finding no
+ * free id is not learned and is counted as dropped.
+ *
+ * Freed ids are reused only when the dictionary is full, and a freed tag keeps its
+ * string until then, so a reader racing the release of an entry still decodes it to
+ * its own tag except under churn at the cap.
+ */
+final class TagDictionary {
+
+    private static final Logger log = LoggerFactory.getLogger(TagDictionary.class);
+
+    // Reference counts are kept in fixed chunks, so growing never loses a concurrent update
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private final int maxSize;
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    // tags[id]; replaced by a larger copy as tags are added, an entry changes only when its id is reused
+    private volatile String[] tags = new String[64];
+    // references[id >> CHUNK_BITS][id & (CHUNK_SIZE - 1)]; the outer array is replaced as it grows
+    private volatile AtomicIntegerArray[] references = new AtomicIntegerArray[0];
+    // Ids handed out so far, used or freed; freed ids wait on the stack
+    private int assigned;
+    private int[] free = new int[16];
+    private int freeCount;
+    private volatile int size;
+    // Strings plus one hash map entry, boxed id and array slot per tag in use
+    private volatile long tagBytes;
+    private final AtomicLong dropped = new AtomicLong();
+
+    TagDictionary(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the id of the tag, taking a reference to it and assigning an id if the tag
+     * is new; -1 when every id is in use
+     */
+    int encode(String tag) {
+        Integer id = ids.get(tag);
+        if (id != null && acquire(id, tag)) {
+            return id;
+        }
+        lock.lock();
+        try {
+            id = ids.get(tag);
+            if (id != null) {
+                // Under the lock an id is not freed or reused, so a count at 0 can be revived
+                counter(id).incrementAndGet(id & (CHUNK_SIZE - 1));
+                return id;
+            }
+            int next;
+            if (assigned < maxSize) {
+                next = assigned++;
+                if (next >> CHUNK_BITS == references.length) {
+                    AtomicIntegerArray[] grown = Arrays.copyOf(references, references.length + 1);
+                    grown[references.length] = new AtomicIntegerArray(CHUNK_SIZE);
+                    references = grown;
+                }
+            } else if (freeCount > 0) {
+                next = free[--freeCount];
+            } else {
+                if (dropped.incrementAndGet() == 1) {
+                    log.warn("All {} tag ids are in use; new tags are not learned until one is freed", maxSize);
+                }
+                return -1;
+            }
+            String[] current = tags;
+            if (next >= current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[next] = tag;
+            tags = current;
+            counter(next).set(next & (CHUNK_SIZE - 1), 1);
+            size++;
+            tagBytes += bytes(tag);
+            // Published last: a thread that finds the id also finds the tag
+            ids.put(tag, next);
+            return next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back a reference taken by {@link #encode}; the id is freed with its last reference
+     */
+    void release(int id) {
+        AtomicIntegerArray counter = counter(id);
+        int index = id & (CHUNK_SIZE - 1);
+        if (counter.decrementAndGet(index) > 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            // Revived by an encode that got the lock first
+            if (counter.get(index) != 0) {
+                return;
+            }
+            String tag = tags[id];
+            if (!ids.remove(tag, id)) {
+                return;
+            }
+            if (freeCount == free.length) {
+                free = Arrays.copyOf(free, freeCount * 2);
+            }
+            free[freeCount++] = id;
+            size--;
+            tagBytes -= bytes(tag);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The tag with the given id, or null if there is none
+     */
+    String decode(int id) {
+        String[] current = tags;
+        return id >= 0 && id < current.length ? current[id] : null;
+    }
+
+    /**
+     * Tags with at least one reference
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * New tags not learned because every id was in use
+     */
+    long droppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Rough heap usage of the tags and their lookup structures
+     */
+    long estimatedBytes() {
+        return 16 + 4L * (tags.length - size) + 4L * references.length * CHUNK_SIZE + 4L * free.length + tagBytes;
+    }
+
+    /**
+     * Takes a reference without the lock, unless the id has none left (it may be freed)
+     * or was reused for another tag since it was looked up
+     */
+    private boolean acquire(int id, String tag) {
+        AtomicIntegerArray counter = counter(id);
+        int index = id & (CHUNK_SIZE - 1);
+        while (true) {
+            int count = counter.get(index);
+            if (count <= 0) {
+                return false;
+            }
+            if (counter.compareAndSet(index, count, count + 1)) {
+                break;
+            }
+        }
+        if (tag.equals(tags[id])) {
+            return true;
+        }
+        release(id);
+        return false;
+    }
+
+    private AtomicIntegerArray counter(int id) {
+        return references[id >> CHUNK_BITS];
+    }
+
+    private static long bytes(String tag) {
+        return 40 + tag.length() + 32 + 16 + 4;
+    }
+}
@@ -0,0 +1,32 @@
+package com.musicrecommender.service;
+
+import com.musicrecommender.service.PipelineMetrics.Stage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Feature extraction stage: scans a request's text once for everything sentiment analysis
+ * and the rules engine read from it (see {@link TextFeatures})
+ */
+@Service
+public class TextFeatureService {
+
+    @Autowired
+    private RulesEngineService rulesEngineService;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    /**
+     * Extracts the features of the text for the current rules; no text has the features of empty text
+     */
+    public TextFeatures extractFeatures(String text) {
+        long start = pipelineMetrics.start();
+        TextFeatures features = rulesEngineService.currentRules().newFeatures();
+        if (text != null) {
+            features.append(text);
+        }
+        pipelineMetrics.stop(Stage.EXTRACT_FEATURES, start);
+        return features;
+    }
+}
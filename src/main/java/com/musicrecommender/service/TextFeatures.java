@@ -0,0 +1,115 @@
+package com.musicrecommender.service;
+
+import com.musicrecommender.service.SentimentAnalysisService.Sentiment;
+
+import java.util.List;
+
+/**
+ * What the mood stages read from a request's text, extracted in one scan: keyword hits per
+ * sentiment class, the word count, exclamation marks, and which marker phrases occur (the
+ * sentiment intensifiers and negations, and each phrase list the rules test). Sentiment
+ * analysis and the rules engine both consume these instead of scanning the text themselves.
+ * The scanner combines the sentiment lexicon with the phrase lists of one {@link RuleTable},
+ * so features are created by, and only valid for, that table. Text that arrives in pieces
+ * can be appended piece by piece, with the same features as the whole text.
+ */
+public final class TextFeatures {
+
+    // Phrase flag bits: the sentiment markers, then one per phrase list of the rules
+    static final int INTENSIFIED = 1;
+    static final int NEGATED = 1 << 1;
+    private static final int FIRST_PHRASE_LIST_BIT = 2;
+
+    // Distinct phrase lists a rule table can test
+    static final int MAX_PHRASE_LISTS = Integer.SIZE - FIRST_PHRASE_LIST_BIT;
+
+    private final RuleTable rules;
+    private final LexiconScanner scanner;
+    private final LexiconScanner.State state;
+
+    TextFeatures(RuleTable rules, LexiconScanner scanner) {
+        this.rules = rules;
+        this.scanner = scanner;
+        this.state = scanner.newState();
+    }
+
+    /**
+     * Compiles the scanner for features of a rule table: the sentiment lexicon (see
+     * {@link SentimentAnalysisService#lexicon}) plus the table's phrase lists, at most {@link #MAX_PHRASE_LISTS}
+     */
+    static LexiconScanner scanner(LexiconScanner.Builder lexicon, List<List<String>> phraseLists) {
+        for (int list = 0; list < phraseLists.size(); list++) {
+            lexicon.addPhrases(1 << (FIRST_PHRASE_LIST_BIT + list), phraseLists.get(list));
+        }
+        return lexicon.build();
+    }
+
+    /**
+     * Number of tokens that are keywords of the sentiment
+     */
+    public int keywordHits(Sentiment sentiment) {
+        return scanner.count(state, sentiment.ordinal());
+    }
+
+    /**
+     * Same as {@code text.split("\\s+").length}
+     */
+    public int wordCount() {
+        return state.splitLength();
+    }
+
+    public int exclamations() {
+        return state.exclamations();
+    }
+
+    /**
+     * Whether an intensifier (very, really, ...) occurs
+     */
+    public boolean intensified() {
+        return (state.flags() & INTENSIFIED) != 0;
+    }
+
+    /**
+     * Whether a negation (not, don't, ...) occurs
+     */
+    public boolean negated() {
+        return (state.flags() & NEGATED) != 0;
+    }
+
+    /**
+     * Whether one of the phrases of the rule table's given phrase list occurs
+     */
+    boolean containsPhraseList(int list) {
+        return (state.flags() >>> (FIRST_PHRASE_LIST_BIT + list) & 1) != 0;
+    }
+
+    /**
+     * The rule table these features were extracted for
+     */
+    RuleTable rules() {
+        return rules;
+    }
+
+    /**
+     * Adds the next piece of the text
+     */
+    TextFeatures append(CharSequence piece) {
+        scanner.resume(state, piece);
+        return this;
+    }
+
+    /**
+     * Copies the features of other text of the same rule table
+     */
+    void copyFrom(TextFeatures other) {
+        if (other.rules != rules) {
+            throw new IllegalArgumentException("Features of rules version " + other.rules.version()
+                + " copied into features of version " + rules.version());
+        }
+        state.copyFrom(other.state);
+    }
+
+    void reset() {
+        state.reset();
+    }
+}
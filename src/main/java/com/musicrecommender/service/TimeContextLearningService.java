@@ -1,82 +1,317 @@
 package com.musicrecommender.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import com.musicrecommender.model.MoodScore.MoodCategory;
+import com.musicrecommender.model.MoodVector;
 import com.musicrecommender.model.UserBehavior;
+import com.musicrecommender.persistence.BehaviorJournal;
+import com.musicrecommender.persistence.UserStateSpillStore;
+import com.musicrecommender.service.PipelineMetrics.Stage;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import java.io.IOException;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.ObjDoubleConsumer;
 
 /**
  * Time-context behavior learning service
  * Learns patterns from user behavior over time
+ *
+ * Per-user state is held in memory within a heap budget (estimated bytes per user).
+ * Users beyond the budget, chosen by Caffeine's W-TinyLFU policy, and users idle for
+ * longer than the idle timeout are evicted: written to the spill store when it is enabled
+ * and read back the next time the user is seen, otherwise forgotten. The spill store is
+ * never touched inside the cache's callbacks, which run under a map bin lock: evicted
+ * states are handed to a writer thread, and a user not in memory is read back before
+ * the cache is entered.
+ * Behaviors are kept as packed records (see {@link BehaviorHistory}) with tags stored as
+ * dictionary ids, and are aggregated in place without materializing objects.
+ * Each recorded behavior republishes the user's hourly mood priors as an immutable
+ * snapshot (see {@link HourlyMoodHistogram}), so adjusting a prediction with what was
+ * learned is a cache lookup, a volatile read and a blend, with nothing allocated.
  */
 @Service
 public class TimeContextLearningService {
     
-    // In-memory storage for user behaviors (in production, use a database)
-    private final Map<String, List<UserBehavior>> userBehaviorHistory = new ConcurrentHashMap<>();
+    private static final Logger log = LoggerFactory.getLogger(TimeContextLearningService.class);
+    
+    private static final MoodCategory[] MOODS = MoodCategory.values();
+    
+    // Cache entry and node, and the map entry, per resident user; the userId is added
+    private static final int ENTRY_BYTES = 96;
+    
+    private static final int EVICTION_STRIPES = 1024;
+    
+    // Number of most recent behaviors kept per user
+    @Value("${recommender.learning.history-capacity:100}")
+    private int historyCapacity;
+    
+    // Estimated heap for resident user state; 0 for no limit
+    @Value("${recommender.learning.memory-budget-mb:512}")
+    private long memoryBudgetMb;
+    
+    // Users not seen for this long are evicted; 0 to evict only for the budget
+    @Value("${recommender.learning.idle-timeout-seconds:3600}")
+    private long idleTimeoutSeconds;
+    
+    // Distinct search tags held across the users in memory; a new tag beyond it is not learned
+    @Value("${recommender.learning.max-tags:100000}")
+    private int maxTags;
+    
+    // Durable log + snapshots, present when recommender.persistence.enabled=true
+    @Autowired(required = false)
+    private BehaviorJournal behaviorJournal;
+    
+    // Evicted users go here, present unless recommender.learning.spill.enabled=false
+    @Autowired(required = false)
+    private UserStateSpillStore spillStore;
+    
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+    
+    // Keeps journal order and in-memory order identical, so snapshots line up with the log.
+    // A ReentrantLock rather than synchronized: a virtual thread waiting on it (or holding it
+    // across journal I/O) unmounts instead of pinning its carrier thread
+    private final ReentrantLock journalLock = new ReentrantLock();
+    
+    // In-memory view of user behaviors, rebuilt from the journal at startup when persistence is on.
+    // Entries are only changed through compute, so eviction never races a change to the same user
+    private Cache<String, UserLearningState> userBehaviorHistory;
+    
+    // Tags of recorded behaviors, stored by id
+    private TagDictionary tagDictionary;
+    
+    // Behaviors held in memory across all users, kept as they are recorded and evicted
+    private final AtomicLong behaviorCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong reloadCount = new AtomicLong();
+    // Spill store reads and writes that failed: the user's state was lost, or read as new
+    private final AtomicLong spillFailureCount = new AtomicLong();
+    
+    // Evicted states not yet written to the spill store, read back from here until they are
+    private final Map<String, UserLearningState> pendingSpills = new ConcurrentHashMap<>();
+    private ExecutorService spillWriter;
+    
+    // Evictions per stripe of userId hashes: a read-back started before an eviction of the
+    // user may have missed that eviction's state, and must be repeated
+    private final AtomicLongArray evictionStripes = new AtomicLongArray(EVICTION_STRIPES);
     
     /**
-     * Records user behavior for learning
+     * Restores persisted behavior history and starts periodic snapshots
      */
-    public void recordBehavior(String userId, UserBehavior behavior) {
-        userBehaviorHistory.computeIfAbsent(userId, k -> new ArrayList<>()).add(behavior);
+    @PostConstruct
+    void restoreHistory() throws IOException {
+        Caffeine<String, UserLearningState> builder = Caffeine.newBuilder()
+            .maximumWeight(memoryBudgetMb > 0 ? memoryBudgetMb * 1024 * 1024 : Long.MAX_VALUE)
+            .weigher((String userId, UserLearningState state) -> ENTRY_BYTES + 40 + userId.length() + state.getEstimatedBytes())
+            .evictionListener((String userId, UserLearningState state, RemovalCause cause) -> evicted(userId, state));
+        if (idleTimeoutSeconds > 0) {
+            builder.expireAfterAccess(Duration.ofSeconds(idleTimeoutSeconds))
+                .scheduler(Scheduler.systemScheduler());
+        }
+        userBehaviorHistory = builder.build();
+        tagDictionary = new TagDictionary(maxTags);
+        if (spillStore != null) {
+            spillWriter = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "user-state-spiller");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
         
-        // Keep only last 100 behaviors per user to prevent memory issues
-        List<UserBehavior> behaviors = userBehaviorHistory.get(userId);
-        if (behaviors.size() > 100) {
-            behaviors.remove(0);
+        if (behaviorJournal == null) {
+            return;
         }
+        
+        behaviorJournal.restore(new BehaviorJournal.RecoveryHandler() {
+            @Override
+            public void restoreUser(String userId, long lastSequence, List<UserBehavior> behaviors) {
+                // Restoring is single-threaded, so a read-back cannot go stale before it is used
+                UserLearningState spilled = userBehaviorHistory.getIfPresent(userId) == null ? load(userId) : null;
+                userBehaviorHistory.asMap().compute(userId, (id, resident) -> {
+                    // A user evicted while the snapshot was written can appear twice; the newer copy wins
+                    if (resident != null && resident.getLastSequence() >= lastSequence) {
+                        return resident;
+                    }
+                    if (resident == null && spilled != null && spilled.getLastSequence() >= lastSequence) {
+                        reloaded(spilled);
+                        return spilled;
+                    }
+                    if (spilled != null) {
+                        spilled.release();
+                    }
+                    if (resident != null) {
+                        behaviorCount.addAndGet(-resident.getHistory().size());
+                        resident.release();
+                    }
+                    UserLearningState state = new UserLearningState(historyCapacity, tagDictionary);
+                    recordAll(state, behaviors);
+                    state.setLastSequence(lastSequence);
+                    return state;
+                });
+            }
+            
+            @Override
+            public void replay(String userId, long sequence, UserBehavior behavior) {
+                try {
+                    BehaviorHistory.epochMinute(behavior.getTimestamp());
+                } catch (IllegalArgumentException e) {
+                    // Journaled before such behaviors were rejected
+                    log.warn("Skipping journaled behavior {} of user {}: {}", sequence, userId, e.getMessage());
+                    return;
+                }
+                update(userId, state -> {
+                    if (sequence > state.getLastSequence()) {
+                        record(state, behavior);
+                        state.setLastSequence(sequence);
+                    }
+                });
+            }
+        });
+        behaviorJournal.start(this::writeSnapshot);
     }
     
     /**
-     * Gets learned patterns for a user at a specific hour
+     * Takes the shutdown snapshot while the spill store is still open; it may otherwise be
+     * closed before the journal
      */
-    public Map<String, Double> getLearnedPatterns(String userId, int hour) {
-        List<UserBehavior> behaviors = userBehaviorHistory.getOrDefault(userId, new ArrayList<>());
-        
-        if (behaviors.isEmpty()) {
-            return getDefaultPatterns();
+    @PreDestroy
+    void closeJournal() throws IOException, InterruptedException {
+        if (behaviorJournal != null) {
+            behaviorJournal.close();
         }
-        
-        Map<String, Double> patterns = new HashMap<>();
-        patterns.put("tired", 0.0);
-        patterns.put("stressed", 0.0);
-        patterns.put("energetic", 0.0);
-        patterns.put("relaxed", 0.0);
-        patterns.put("focused", 0.0);
-        
-        // Find behaviors at similar hours (±2 hours)
-        List<UserBehavior> relevantBehaviors = behaviors.stream()
-            .filter(b -> {
-                int behaviorHour = b.getTimestamp().getHour();
-                return Math.abs(behaviorHour - hour) <= 2;
-            })
-            .toList();
-        
-        if (relevantBehaviors.isEmpty()) {
-            return getDefaultPatterns();
+        // The store is scratch space, deleted once closed: pending spills are not worth finishing
+        if (spillWriter != null) {
+            spillWriter.shutdownNow();
+            spillWriter.awaitTermination(1, TimeUnit.MINUTES);
         }
-        
-        // Aggregate mood patterns
-        Map<String, Integer> moodCounts = new HashMap<>();
-        AtomicInteger totalCount = new AtomicInteger();
-        
-        for (UserBehavior behavior : relevantBehaviors) {
-            if (behavior.getMoodHistory() != null) {
-                behavior.getMoodHistory().forEach((mood, count) -> {
-                    String normalizedMood = mood.toLowerCase();
-                    moodCounts.put(normalizedMood, moodCounts.getOrDefault(normalizedMood, 0) + count);
-                    totalCount.addAndGet(count);
+    }
+    
+    /**
+     * Records user behavior for learning; the oldest behavior is evicted once the history is full.
+     * A behavior without a storable timestamp is rejected with IllegalArgumentException.
+     */
+    public void recordBehavior(String userId, UserBehavior behavior) {
+        // Checked before it is journaled, so a restart never replays it
+        BehaviorHistory.epochMinute(behavior.getTimestamp());
+        long start = pipelineMetrics.start();
+        if (behaviorJournal == null) {
+            update(userId, state -> record(state, behavior));
+        } else {
+            journalLock.lock();
+            try {
+                long sequence = behaviorJournal.append(userId, behavior);
+                update(userId, state -> {
+                    state.setLastSequence(sequence);
+                    record(state, behavior);
                 });
+            } finally {
+                journalLock.unlock();
             }
         }
+        pipelineMetrics.stop(Stage.RECORD_BEHAVIOR, start);
+    }
+    
+    /**
+     * Number of users whose learned behavior is in memory
+     */
+    public long getUserCount() {
+        return userBehaviorHistory.estimatedSize();
+    }
+    
+    /**
+     * Number of users with learned behavior in the spill store (including some also in memory)
+     */
+    public long getSpilledUserCount() {
+        return spillStore == null ? 0 : spillStore.getUserCount();
+    }
+    
+    /**
+     * Evicted users waiting to be written to the spill store
+     */
+    public int getPendingSpillCount() {
+        return pendingSpills.size();
+    }
+    
+    /**
+     * Behaviors held in memory across all users
+     */
+    public long getBehaviorCount() {
+        return behaviorCount.get();
+    }
+    
+    /**
+     * Estimated heap held by the learning state of the users in memory
+     */
+    public long getEstimatedBytes() {
+        return userBehaviorHistory.policy().eviction()
+            .map(eviction -> eviction.weightedSize().orElse(0))
+            .orElse(0L);
+    }
+    
+    /**
+     * Distinct search tags held by the users in memory
+     */
+    public int getTagCount() {
+        return tagDictionary.size();
+    }
+    
+    /**
+     * New search tags not learned because the tag dictionary was full
+     */
+    public long getDroppedTagCount() {
+        return tagDictionary.droppedCount();
+    }
+    
+    /**
+     * Users evicted from memory, for the budget or for being idle
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+    
+    /**
+     * Evicted users read back from the spill store
+     */
+    public long getReloadCount() {
+        return reloadCount.get();
+    }
+    
+    /**
+     * Spill store reads and writes that failed, each losing what was learned about a user
+     */
+    public long getSpillFailureCount() {
+        return spillFailureCount.get();
+    }
+    
+    /**
+     * Gets learned patterns for a user at a specific hour
+     */
+    public MoodVector getLearnedPatterns(String userId, int hour) {
+        MoodVector patterns = new MoodVector();
         
-        // Convert to probabilities
-        if (totalCount.get() > 0) {
-            moodCounts.forEach((mood, count) -> {
-                patterns.put(mood, (double) count / totalCount.get());
-            });
+        // Mood frequencies of behaviors at similar hours, read from the published priors
+        float[] priors = priors(userId);
+        int row = HourlyMoodHistogram.row(hour);
+        for (MoodCategory mood : MOODS) {
+            patterns.set(mood, priors[row + mood.ordinal()]);
         }
         
         return patterns;
@@ -86,67 +321,335 @@ public class TimeContextLearningService {
      * Gets learned typing speed patterns
      */
     public Double getAverageTypingSpeed(String userId) {
-        List<UserBehavior> behaviors = userBehaviorHistory.getOrDefault(userId, new ArrayList<>());
+        UserLearningState state = lookup(userId);
         
-        if (behaviors.isEmpty()) {
+        if (state == null || state.getHistory().isEmpty()) {
             return 3.0; // Default average typing speed
         }
         
-        return behaviors.stream()
-            .filter(b -> b.getAverageTypingSpeed() != null)
-            .mapToDouble(UserBehavior::getAverageTypingSpeed)
-            .average()
-            .orElse(3.0);
+        double sum = 0;
+        int count = 0;
+        BehaviorHistory.Cursor behavior = state.getHistory().cursor();
+        while (behavior.next()) {
+            float typingSpeed = behavior.typingSpeed();
+            if (!Float.isNaN(typingSpeed)) {
+                sum += typingSpeed;
+                count++;
+            }
+        }
+        
+        return count > 0 ? sum / count : 3.0;
     }
     
     /**
-     * Gets popular search tags for a user
+     * Gets popular search tags for a user, read from the running tag counts
      */
     public Map<String, Integer> getPopularTags(String userId) {
-        List<UserBehavior> behaviors = userBehaviorHistory.getOrDefault(userId, new ArrayList<>());
+        UserLearningState state = lookup(userId);
         
         Map<String, Integer> tagFrequency = new HashMap<>();
         
-        for (UserBehavior behavior : behaviors) {
-            if (behavior.getTagFrequency() != null) {
-                behavior.getTagFrequency().forEach((tag, freq) -> {
-                    tagFrequency.put(tag, tagFrequency.getOrDefault(tag, 0) + freq);
-                });
-            }
+        if (state != null) {
+            state.getTagCounts().forEach((tagId, count) -> {
+                String tag = tagDictionary.decode(tagId);
+                if (tag != null) {
+                    tagFrequency.put(tag, count);
+                }
+            });
         }
         
         return tagFrequency;
     }
     
     /**
-     * Adjusts mood predictions based on learned patterns
+     * Visits the user's learned search tags with each one's share of all tag occurrences in
+     * the user's recent behaviors; O(distinct tags), nothing is scanned or copied
      */
-    public Map<String, Double> adjustMoodWithLearning(String userId, int hour, Map<String, Double> baseMood) {
-        Map<String, Double> learnedPatterns = getLearnedPatterns(userId, hour);
+    public void forEachLearnedTag(String userId, ObjDoubleConsumer<String> visitor) {
+        UserLearningState state = lookup(userId);
+        if (state == null) {
+            return;
+        }
+        TagCounts tagCounts = state.getTagCounts();
+        int total = tagCounts.total();
+        if (total <= 0) {
+            return;
+        }
+        tagCounts.forEach((tagId, count) -> {
+            String tag = tagDictionary.decode(tagId);
+            if (tag != null) {
+                visitor.accept(tag, (double) count / total);
+            }
+        });
+    }
+    
+    /**
+     * Adjusts mood predictions (in place) based on learned patterns
+     */
+    public void adjustMoodWithLearning(String userId, int hour, MoodVector baseMood) {
+        long start = pipelineMetrics.start();
         
         // Blend learned patterns with base mood (70% base, 30% learned)
-        Map<String, Double> adjustedMood = new HashMap<>();
-        
-        Set<String> allMoods = new HashSet<>(baseMood.keySet());
-        allMoods.addAll(learnedPatterns.keySet());
-        
-        for (String mood : allMoods) {
-            double baseValue = baseMood.getOrDefault(mood, 0.0);
-            double learnedValue = learnedPatterns.getOrDefault(mood, 0.0);
-            adjustedMood.put(mood, baseValue * 0.7 + learnedValue * 0.3);
+        baseMood.blend(0.7, priors(userId), HourlyMoodHistogram.row(hour), 0.3);
+        pipelineMetrics.stop(Stage.ADJUST_MOOD_WITH_LEARNING, start);
+    }
+    
+    private void record(UserLearningState state, UserBehavior behavior) {
+        if (state.record(behavior)) {
+            behaviorCount.incrementAndGet();
+        }
+    }
+    
+    private void recordAll(UserLearningState state, List<UserBehavior> behaviors) {
+        behaviorCount.addAndGet(state.recordAll(behaviors));
+    }
+    
+    /**
+     * The user's current hourly mood priors; all 0 for an unknown user
+     */
+    private float[] priors(String userId) {
+        UserLearningState state = lookup(userId);
+        return state == null ? HourlyMoodHistogram.NO_PRIORS : state.getHistogram().priors();
+    }
+    
+    /**
+     * The user's state, read back from the spill store if it was evicted; null for an unknown user
+     */
+    private UserLearningState lookup(String userId) {
+        UserLearningState state = userBehaviorHistory.getIfPresent(userId);
+        return state != null || spillStore == null ? state : reload(userId, null);
+    }
+    
+    /**
+     * Applies a change to the user's state, reading it back or creating it as needed
+     */
+    private void update(String userId, Consumer<UserLearningState> change) {
+        UserLearningState state = userBehaviorHistory.asMap().computeIfPresent(userId, (id, resident) -> {
+            change.accept(resident);
+            return resident;
+        });
+        if (state == null) {
+            reload(userId, change);
+        }
+    }
+    
+    /**
+     * Reads back the state of a user not in memory, outside the cache's locks, and installs
+     * it with the change applied (for a change, a user without state gets a new one). A
+     * state that became resident meanwhile wins over the read. If the user may have been
+     * evicted meanwhile, the read can predate that eviction's state and is repeated.
+     *
+     * @return the installed state; null for an unknown user and no change
+     */
+    private UserLearningState reload(String userId, Consumer<UserLearningState> change) {
+        int stripe = evictionStripe(userId);
+        while (true) {
+            long evictions = evictionStripes.get(stripe);
+            UserLearningState stored = load(userId);
+            if (stored == null && change == null) {
+                if (evictionStripes.get(stripe) == evictions) {
+                    return null;
+                }
+                continue;
+            }
+            UserLearningState state = userBehaviorHistory.asMap().compute(userId, (id, resident) -> {
+                if (resident == null) {
+                    if (evictionStripes.get(stripe) != evictions) {
+                        return null;
+                    }
+                    if (stored != null) {
+                        reloaded(stored);
+                        resident = stored;
+                    } else {
+                        resident = new UserLearningState(historyCapacity, tagDictionary);
+                    }
+                }
+                if (change != null) {
+                    change.accept(resident);
+                }
+                return resident;
+            });
+            if (stored != null && state != stored) {
+                stored.release();
+            }
+            if (state != null) {
+                return state;
+            }
         }
-        
-        return adjustedMood;
     }
     
-    private Map<String, Double> getDefaultPatterns() {
-        Map<String, Double> defaults = new HashMap<>();
-        defaults.put("tired", 0.0);
-        defaults.put("stressed", 0.0);
-        defaults.put("energetic", 0.0);
-        defaults.put("relaxed", 0.0);
-        defaults.put("focused", 0.0);
-        return defaults;
+    /**
+     * The user's evicted state rebuilt from the pending spills or the spill store, not yet
+     * installed in the cache; null if it has neither
+     */
+    private UserLearningState load(String userId) {
+        if (spillStore == null) {
+            return null;
+        }
+        UserStateSpillStore.StoredUser stored = pending(userId);
+        if (stored == null) {
+            try {
+                stored = spillStore.read(userId);
+            } catch (IOException | RuntimeException e) {
+                spillFailureCount.incrementAndGet();
+                log.error("Could not read spilled learning state of user {}; it is learned anew", userId, e);
+                return null;
+            }
+            if (stored == null) {
+                return null;
+            }
+        }
+        long lastSequence = stored.lastSequence();
+        List<UserBehavior> behaviors = stored.behaviors();
+        UserLearningState state = new UserLearningState(historyCapacity, tagDictionary);
+        state.recordAll(behaviors);
+        state.setLastSequence(lastSequence);
+        // A pending state is written by its spill, so either way the store will match
+        state.markClean();
+        return state;
+    }
+    
+    /**
+     * The user's evicted state while it waits for the spill writer, or null once the store
+     * has the newest one. Evicted states are never changed again, so this reads alongside
+     * the writer; a state released meanwhile was superseded or written, so look again.
+     */
+    private UserStateSpillStore.StoredUser pending(String userId) {
+        while (true) {
+            UserLearningState state = pendingSpills.get(userId);
+            if (state == null) {
+                return null;
+            }
+            List<UserBehavior> behaviors = state.retainedBehaviors(userId);
+            if (behaviors != null) {
+                return new UserStateSpillStore.StoredUser(state.getLastSequence(), behaviors);
+            }
+        }
+    }
+    
+    /**
+     * Counts a read-back state as it is installed
+     */
+    private void reloaded(UserLearningState state) {
+        behaviorCount.addAndGet(state.getHistory().size());
+        reloadCount.incrementAndGet();
+    }
+    
+    /**
+     * Called by the cache, atomically with the removal, so a read-back of the user that
+     * started earlier sees the eviction. The state is queued for the spill writer and read
+     * back from the queue until it is written.
+     */
+    private void evicted(String userId, UserLearningState state) {
+        behaviorCount.addAndGet(-state.getHistory().size());
+        evictionCount.incrementAndGet();
+        // A state unchanged since it was read back still matches its stored copy
+        if (spillStore != null && state.isDirty()) {
+            UserLearningState superseded = pendingSpills.put(userId, state);
+            if (superseded != null) {
+                superseded.release();
+            }
+            spillWriter.execute(() -> spill(userId));
+        } else {
+            state.release();
+        }
+        // After queueing: a read-back that looked before the queue had the state sees this
+        evictionStripes.incrementAndGet(evictionStripe(userId));
+    }
+    
+    /**
+     * Writes the user's pending state, on the spill writer thread. A user evicted again
+     * before an earlier spill ran is written once, with the newest state.
+     */
+    private void spill(String userId) {
+        UserLearningState state = pendingSpills.get(userId);
+        List<UserBehavior> behaviors = state == null ? null : state.retainedBehaviors(userId);
+        if (behaviors == null) {
+            // Written by an earlier spill, or superseded by a newer state queued after this one
+            return;
+        }
+        try {
+            spillStore.write(userId, state.getLastSequence(), behaviors);
+        } catch (IOException | RuntimeException e) {
+            spillFailureCount.incrementAndGet();
+            log.error("Could not spill learning state of user {}; it is forgotten", userId, e);
+        } finally {
+            // Only once written, so a read-back finds the state in one place or the other
+            if (pendingSpills.remove(userId, state)) {
+                state.release();
+            }
+        }
+    }
+    
+    private static int evictionStripe(String userId) {
+        int hash = userId.hashCode();
+        return (hash ^ hash >>> 16) & (EVICTION_STRIPES - 1);
+    }
+    
+    /**
+     * A cached state's behaviors for the snapshot. A state evicted and released while the
+     * snapshot runs may have had its tag ids reused, so its spilled copy is taken instead;
+     * null when there is none (learning without a spill store forgets evicted users).
+     */
+    private UserStateSpillStore.StoredUser snapshotOf(String userId, UserLearningState state) throws IOException {
+        long lastSequence;
+        List<UserBehavior> behaviors;
+        journalLock.lock();
+        try {
+            lastSequence = state.getLastSequence();
+            behaviors = state.retainedBehaviors(userId);
+        } finally {
+            journalLock.unlock();
+        }
+        if (behaviors != null) {
+            return new UserStateSpillStore.StoredUser(lastSequence, behaviors);
+        }
+        if (spillStore == null) {
+            return null;
+        }
+        UserStateSpillStore.StoredUser pending = pending(userId);
+        return pending != null ? pending : spillStore.read(userId);
+    }
+    
+    /**
+     * Streams every user's retained history to the journal snapshot: the users in memory,
+     * then the evicted ones waiting to be spilled, then the spilled ones not already
+     * written. A user evicted during one pass is found by a later one, since an evicted
+     * state leaves the pending spills only once the store has it.
+     */
+    private void writeSnapshot(BehaviorJournal.SnapshotWriter writer) throws IOException {
+        // The journal has taken the snapshot position. Behaviors appended before it may not be
+        // in the cache yet (a new user's first one may not even have an entry); passing
+        // journalLock once waits for them, so each is in the snapshot or in the replayed log
+        journalLock.lock();
+        journalLock.unlock();
+        Set<String> written = new HashSet<>();
+        for (Map.Entry<String, UserLearningState> entry : userBehaviorHistory.asMap().entrySet()) {
+            UserStateSpillStore.StoredUser user = snapshotOf(entry.getKey(), entry.getValue());
+            if (user != null) {
+                writer.writeUser(entry.getKey(), user.lastSequence(), user.behaviors());
+                if (spillStore != null) {
+                    written.add(entry.getKey());
+                }
+            }
+        }
+        if (spillStore != null) {
+            for (String userId : pendingSpills.keySet()) {
+                // A user read back since is in memory, with a state at least as new
+                if (!written.contains(userId)) {
+                    UserStateSpillStore.StoredUser pending = pending(userId);
+                    // Otherwise written to the store meanwhile, and found there
+                    if (pending != null) {
+                        writer.writeUser(userId, pending.lastSequence(), pending.behaviors());
+                        written.add(userId);
+                    }
+                }
+            }
+            spillStore.forEach((userId, lastSequence, behaviors) -> {
+                if (!written.contains(userId)) {
+                    writer.writeUser(userId, lastSequence, behaviors);
+                }
+            });
+        }
     }
 }
-
@@ -0,0 +1,372 @@
+package com.musicrecommender.service;
+
+import com.musicrecommender.classifier.MoodModel;
+import com.musicrecommender.model.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Live typing sessions: the client sends text deltas and keystroke timestamps instead of
+ * re-posting the whole text. Each session keeps the features of its text (as one resumable
+ * scan, see {@link TextFeatures}) and an exponentially weighted typing speed, so a delta
+ * costs time proportional to its own length. The features belong to the rules they were
+ * extracted for; after the rules are reloaded, the session's next update rescans the text
+ * once. Backspaces within the last word are undone from a checkpoint taken at the last word
+ * boundary; only deletions reaching further back rescan the text. With a trained classifier
+ * configured, sessions keep its scan instead, which is resumable in the same way.
+ * The mood is re-sent only when the primary mood changes or the confidence moves by at
+ * least the configured threshold.
+ */
+@Service
+public class TypingSessionService {
+
+    @Autowired
+    private RulesEngineService rulesEngineService;
+
+    @Autowired
+    private MoodPredictionService moodPredictionService;
+
+    @Autowired
+    private RecommendationPipelineService recommendationPipelineService;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    // Smallest confidence change that re-sends an unchanged primary mood
+    @Value("${recommender.typing.confidence-threshold:0.05}")
+    private double confidenceThreshold;
+
+    // Weight of the newest keystroke interval in the typing-speed average
+    @Value("${recommender.typing.speed-smoothing:0.2}")
+    private double speedSmoothing;
+
+    // Longer pauses count as this long, so stopping to think does not read as very slow typing
+    @Value("${recommender.typing.max-keystroke-gap-ms:3000}")
+    private long maxKeystrokeGapMillis;
+
+    // Typing speed assumed until the first keystroke interval, when the client gives none
+    @Value("${recommender.typing.initial-speed:3.0}")
+    private double initialSpeed;
+
+    @Value("${recommender.typing.max-text-length:20000}")
+    private int maxTextLength;
+
+    @Value("${recommender.typing.max-sessions:10000}")
+    private int maxSessions;
+
+    @Value("${recommender.typing.idle-timeout-seconds:600}")
+    private long idleTimeoutSeconds;
+
+    private final Map<String, TypingSession> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweepNanos = new AtomicLong(System.nanoTime());
+
+    /**
+     * Opens a session and returns its initial state (no mood yet)
+     */
+    public TypingSessionUpdate open(TypingSessionStart start, String userId) {
+        evictIdleSessions();
+
+        LocalDateTime timeOfDay = start != null && start.getTimeOfDay() != null ? start.getTimeOfDay() : LocalDateTime.now();
+        double typingSpeed = start != null && start.getTypingSpeed() != null ? start.getTypingSpeed() : initialSpeed;
+        List<String> tags = start != null ? BehaviorRecorder.learnableTags(start.getSearchHistoryTags()) : null;
+
+        MoodModel classifier = moodPredictionService.classifier();
+        TypingSession session;
+        if (classifier != null) {
+            session = new TypingSession(UUID.randomUUID().toString(), userId, timeOfDay, tags, typingSpeed,
+                null, null, classifier.newState(), classifier.newState());
+        } else {
+            RuleTable rules = rulesEngineService.currentRules();
+            session = new TypingSession(UUID.randomUUID().toString(), userId, timeOfDay, tags, typingSpeed,
+                rules.newFeatures(), rules.newFeatures(), null, null);
+        }
+        sessions.put(session.id, session);
+        return new TypingSessionUpdate(session.id, 0, 0, typingSpeed, null);
+    }
+
+    /**
+     * Applies a delta and returns the new state, with the mood if it should be re-sent;
+     * null if there is no such session
+     *
+     * @throws IllegalArgumentException if the text would exceed the configured maximum length
+     */
+    public TypingSessionUpdate update(String sessionId, TypingDelta delta) {
+        TypingSession session = sessions.get(sessionId);
+        if (session == null) {
+            return null;
+        }
+        session.lock.lock();
+        try {
+            refreshRules(session);
+            applyDelta(session, delta);
+            MoodScore moodScore = predictMood(session);
+            MoodScore emitted = session.lastEmitted;
+            boolean changed = emitted == null
+                || !emitted.getPrimaryMood().equals(moodScore.getPrimaryMood())
+                || Math.abs(emitted.getConfidence() - moodScore.getConfidence()) >= confidenceThreshold;
+            if (changed) {
+                session.lastEmitted = moodScore;
+            }
+            return toUpdate(session, changed ? moodScore : null);
+        } finally {
+            session.lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the session and returns its final state, always with the mood; the mood is
+     * recorded for learning when the session has a user and text. Null if there is no such session.
+     */
+    public TypingSessionUpdate close(String sessionId) {
+        TypingSession session = sessions.remove(sessionId);
+        if (session == null) {
+            return null;
+        }
+        session.lock.lock();
+        try {
+            refreshRules(session);
+            MoodScore moodScore = predictMood(session);
+            pipelineMetrics.countMood(moodScore.getPrimaryMood());
+            String text = session.text.toString();
+            if (!text.isBlank()) {
+                UserInput userInput = new UserInput(text, session.typingSpeed,
+                    session.currentTime(), session.tags);
+                recommendationPipelineService.recordBehavior(session.userId, userInput, moodScore);
+            }
+            return toUpdate(session, moodScore);
+        } finally {
+            session.lock.unlock();
+        }
+    }
+
+    public int getOpenSessionCount() {
+        return sessions.size();
+    }
+
+    private void applyDelta(TypingSession session, TypingDelta delta) {
+        String appended = delta.getText() != null ? delta.getText() : "";
+        int deleted = Math.min(Math.max(0, delta.getDeleted()), session.text.length());
+        int newLength = session.text.length() - deleted + appended.length();
+        if (newLength > maxTextLength) {
+            throw new IllegalArgumentException("Session text would exceed " + maxTextLength + " characters");
+        }
+
+        if (deleted > 0) {
+            int kept = session.text.length() - deleted;
+            session.text.setLength(kept);
+            if (kept >= session.markLength) {
+                // Only the open word was shortened: back to the word boundary, rescan the rest of the word
+                session.restoreMark();
+                scan(session, session.text.subSequence(session.markLength, kept));
+            } else {
+                session.resetScans();
+                scan(session, session.text);
+            }
+        }
+        if (!appended.isEmpty()) {
+            session.text.append(appended);
+            scan(session, appended);
+        }
+
+        updateTypingSpeed(session, delta);
+        session.revision++;
+        session.lastActiveNanos = System.nanoTime();
+    }
+
+    /**
+     * Scans the next piece of the session text, moving the checkpoint to its last word boundary
+     */
+    private void scan(TypingSession session, CharSequence piece) {
+        int boundary = piece.length();
+        while (boundary > 0 && !LexiconScanner.isTokenSeparator(piece.charAt(boundary - 1))) {
+            boundary--;
+        }
+        if (boundary > 0) {
+            session.append(piece.subSequence(0, boundary));
+            session.setMark();
+            session.append(piece.subSequence(boundary, piece.length()));
+        } else {
+            session.append(piece);
+        }
+    }
+
+    /**
+     * Moves the session to the current rules if they were reloaded since its last update
+     */
+    private void refreshRules(TypingSession session) {
+        RuleTable current = rulesEngineService.currentRules();
+        if (session.features != null && session.features.rules() != current) {
+            session.switchRules(current);
+        }
+    }
+
+    /**
+     * Smooths the intervals between keystrokes (not their rates, which blow up for bursts)
+     * and reports the inverse as characters per second
+     */
+    private void updateTypingSpeed(TypingSession session, TypingDelta delta) {
+        if (delta.getKeystrokes() != null) {
+            for (Long keystroke : delta.getKeystrokes()) {
+                if (keystroke == null || keystroke <= session.lastKeystrokeMillis) {
+                    continue;
+                }
+                if (session.lastKeystrokeMillis > 0) {
+                    double gap = Math.min(keystroke - session.lastKeystrokeMillis, maxKeystrokeGapMillis);
+                    session.averageGapMillis = Double.isNaN(session.averageGapMillis)
+                        ? gap
+                        : session.averageGapMillis + speedSmoothing * (gap - session.averageGapMillis);
+                    session.typingSpeed = 1000.0 / session.averageGapMillis;
+                }
+                session.lastKeystrokeMillis = keystroke;
+            }
+        }
+        if (delta.getTypingSpeed() != null) {
+            session.typingSpeed = delta.getTypingSpeed();
+        }
+    }
+
+    private MoodScore predictMood(TypingSession session) {
+        int hour = session.currentTime().getHour();
+        if (session.classifierScan != null) {
+            return moodPredictionService.predictMood(session.classifierScan, session.typingSpeed, hour, session.userId);
+        }
+        TextFeatures features = session.features;
+        double[] sentimentScores = SentimentAnalysisService.score(features);
+        MoodVector mood = features.rules().apply(session.typingSpeed, hour, features, sentimentScores);
+        return moodPredictionService.predictMood(sentimentScores, mood, hour, session.userId);
+    }
+
+    private static TypingSessionUpdate toUpdate(TypingSession session, MoodScore moodScore) {
+        return new TypingSessionUpdate(session.id, session.revision, session.text.length(), session.typingSpeed, moodScore);
+    }
+
+    /**
+     * Drops idle sessions (at most once per idle timeout), then the least recently
+     * active one if the session limit is still reached
+     */
+    private void evictIdleSessions() {
+        long now = System.nanoTime();
+        long idleNanos = TimeUnit.SECONDS.toNanos(idleTimeoutSeconds);
+        long lastSweep = lastSweepNanos.get();
+        if (now - lastSweep >= idleNanos && lastSweepNanos.compareAndSet(lastSweep, now)) {
+            sessions.values().removeIf(session -> now - session.lastActiveNanos >= idleNanos);
+        }
+        while (sessions.size() >= maxSessions && !sessions.isEmpty()) {
+            sessions.values().stream()
+                .min(Comparator.comparingLong(session -> session.lastActiveNanos))
+                .ifPresent(session -> sessions.remove(session.id));
+        }
+    }
+
+    /**
+     * Per-session state; guarded by its lock
+     */
+    private static final class TypingSession {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final String id;
+        private final String userId;
+        private final LocalDateTime startTime;
+        private final long openedNanos = System.nanoTime();
+        private final List<String> tags;
+
+        private final StringBuilder text = new StringBuilder();
+        // Replaced, with the mark, when the rules change; null with a classifier
+        private TextFeatures features;
+        // The classifier's scan, when there is one
+        private final MoodModel.State classifierScan;
+
+        // Scans at the last word boundary, where backspacing can resume from
+        private TextFeatures featuresMark;
+        private final MoodModel.State classifierMark;
+        private int markLength;
+        // Characters of the text scanned so far
+        private int scannedLength;
+
+        private double typingSpeed;
+        private double averageGapMillis = Double.NaN;
+        private long lastKeystrokeMillis;
+
+        private long revision;
+        private MoodScore lastEmitted;
+        private volatile long lastActiveNanos = openedNanos;
+
+        TypingSession(String id, String userId, LocalDateTime startTime, List<String> tags, double typingSpeed,
+                      TextFeatures features, TextFeatures featuresMark,
+                      MoodModel.State classifierScan, MoodModel.State classifierMark) {
+            this.id = id;
+            this.userId = userId;
+            this.startTime = startTime;
+            this.tags = tags;
+            this.typingSpeed = typingSpeed;
+            this.features = features;
+            this.featuresMark = featuresMark;
+            this.classifierScan = classifierScan;
+            this.classifierMark = classifierMark;
+        }
+
+        /**
+         * The client's time of day, advanced by the time the session has been open
+         */
+        LocalDateTime currentTime() {
+            return startTime.plusNanos(System.nanoTime() - openedNanos);
+        }
+
+        void append(CharSequence piece) {
+            if (classifierScan != null) {
+                classifierScan.resume(piece);
+            } else {
+                features.append(piece);
+            }
+            scannedLength += piece.length();
+        }
+
+        void setMark() {
+            if (classifierScan != null) {
+                classifierMark.copyFrom(classifierScan);
+            } else {
+                featuresMark.copyFrom(features);
+            }
+            markLength = scannedLength;
+        }
+
+        void restoreMark() {
+            if (classifierScan != null) {
+                classifierScan.copyFrom(classifierMark);
+            } else {
+                features.copyFrom(featuresMark);
+            }
+            scannedLength = markLength;
+        }
+
+        /**
+         * Extracts the features again for other rules, up to the mark and then to the end
+         */
+        void switchRules(RuleTable table) {
+            featuresMark = table.newFeatures().append(text.subSequence(0, markLength));
+            features = table.newFeatures();
+            features.copyFrom(featuresMark);
+            features.append(text.subSequence(markLength, text.length()));
+        }
+
+        void resetScans() {
+            if (classifierScan != null) {
+                classifierScan.reset();
+                classifierMark.reset();
+            } else {
+                features.reset();
+                featuresMark.reset();
+            }
+            markLength = 0;
+            scannedLength = 0;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.musicrecommender.service;
+
+import com.musicrecommender.model.MoodScore.MoodCategory;
+import com.musicrecommender.model.UserBehavior;
+
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Everything learned about one user: the recent behavior window and the
+ * hour-of-day histogram and tag counts kept in step with it. The history's tag entries
+ * hold {@link TagDictionary} references, given back as entries leave the window and by
+ * {@link #release()} when the state is dropped.
+ */
+final class UserLearningState implements BehaviorHistory.Overwrite {
+
+    private static final int MOODS = MoodCategory.values().length;
+
+    // The state object, its release lock, the histogram with its count arrays and the published priors
+    private static final int FIXED_BYTES = 48 + 48 + 24 + 3 * 16 + 4 * HourlyMoodHistogram.HOURS * (2 * MOODS + 1);
+
+    private final TagDictionary tags;
+    private final BehaviorHistory history;
+    private final HourlyMoodHistogram histogram = new HourlyMoodHistogram();
+    private final TagCounts tagCounts = new TagCounts();
+    // Journal sequence of the last recorded behavior (only used when persistence is enabled)
+    private long lastSequence;
+    // Whether the state changed since it was read back from the spill store
+    private boolean dirty;
+    // Guards released; evicted states are read and released on request threads, which may be virtual
+    private final ReentrantLock releaseLock = new ReentrantLock();
+    // Set once the tag references are given back
+    private boolean released;
+
+    UserLearningState(int historyCapacity, TagDictionary tags) {
+        this.tags = tags;
+        this.history = new BehaviorHistory(historyCapacity, tags);
+    }
+
+    /**
+     * Records the behavior and publishes the new priors; returns false when it replaced the
+     * oldest one (the history was full)
+     */
+    boolean record(UserBehavior behavior) {
+        boolean grew = append(behavior);
+        histogram.publish();
+        return grew;
+    }
+
+    /**
+     * Records the behaviors in order, publishing the priors once at the end (for replaying a
+     * stored history); returns how many of them grew the history rather than replacing the
+     * oldest behavior
+     */
+    int recordAll(Iterable<UserBehavior> behaviors) {
+        int grown = 0;
+        for (UserBehavior behavior : behaviors) {
+            grown += append(behavior) ? 1 : 0;
+        }
+        histogram.publish();
+        return grown;
+    }
+
+    private boolean append(UserBehavior behavior) {
+        boolean full = history.isFull();
+        // Throws before calling overwriting for a behavior it cannot store, leaving the state as it was
+        history.append(behavior, this);
+        dirty = true;
+        BehaviorHistory.Cursor newest = history.newest();
+        histogram.add(newest);
+        countTags(newest, 1);
+        return !full;
+    }
+
+    /**
+     * Takes the oldest behavior out of the histogram and tag counts, called by the history
+     * before the append overwrites it
+     */
+    @Override
+    public void overwriting(BehaviorHistory.Cursor oldest) {
+        histogram.remove(oldest);
+        countTags(oldest, -1);
+        releaseTags(oldest);
+    }
+
+    BehaviorHistory getHistory() {
+        return history;
+    }
+
+    HourlyMoodHistogram getHistogram() {
+        return histogram;
+    }
+
+    TagCounts getTagCounts() {
+        return tagCounts;
+    }
+
+    long getLastSequence() {
+        return lastSequence;
+    }
+
+    void setLastSequence(long lastSequence) {
+        this.lastSequence = lastSequence;
+    }
+
+    /**
+     * Estimated heap held by this state, assuming compressed references (12-byte headers,
+     * 4-byte references)
+     */
+    int getEstimatedBytes() {
+        return FIXED_BYTES + history.estimatedBytes() + tagCounts.estimatedBytes();
+    }
+
+    boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Marks the state as matching its copy in the spill store
+     */
+    void markClean() {
+        dirty = false;
+    }
+
+    /**
+     * The retained behaviors of a state that is no longer changed (evicted), or null once
+     * it is released; safe alongside {@link #release()} from another thread
+     */
+    List<UserBehavior> retainedBehaviors(String userId) {
+        releaseLock.lock();
+        try {
+            return released ? null : history.toList(userId);
+        } finally {
+            releaseLock.unlock();
+        }
+    }
+
+    /**
+     * Gives back the tag references of the history when the state is dropped; the state
+     * must not be changed or read for its tags afterwards. Only the first call releases.
+     */
+    void release() {
+        releaseLock.lock();
+        try {
+            if (released) {
+                return;
+            }
+            released = true;
+            BehaviorHistory.Cursor cursor = history.cursor();
+            while (cursor.next()) {
+                releaseTags(cursor);
+            }
+        } finally {
+            releaseLock.unlock();
+        }
+    }
+
+    private void releaseTags(BehaviorHistory.Cursor behavior) {
+        for (int entry = 0; entry < behavior.entryCount(); entry++) {
+            if (!behavior.isMood(entry)) {
+                tags.release(behavior.tagId(entry));
+            }
+        }
+    }
+
+    private void countTags(BehaviorHistory.Cursor behavior, int sign) {
+        for (int entry = 0; entry < behavior.entryCount(); entry++) {
+            if (!behavior.isMood(entry)) {
+                if (sign > 0) {
+                    tagCounts.add(behavior.tagId(entry), behavior.count(entry));
+                } else {
+                    tagCounts.remove(behavior.tagId(entry), behavior.count(entry));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.musicrecommender.service;
+
+import java.util.Arrays;
+
+/**
+ * Word classes of the sentiment lexicon terms, in a primitive open-addressing hash table.
+ * Terms are looked up by a rolling hash that the scanner extends char by char while it
+ * reads a token ({@link #next}), so no token string is ever built: at the end of the token
+ * its hash is the key. Only the key characters of a token are hashed, lowercase a-z and
+ * anything outside ASCII (accented letters, emoji), so punctuation and digits around a
+ * word do not change it; terms are reduced the same way when the table is built.
+ *
+ * Each slot is one long: a 48-bit fingerprint of the mixed hash above a 16-bit class
+ * bitmask, 0 for an empty slot. Linear probing at a load factor of at most 1/2 keeps
+ * lookups to one or two adjacent slots. Two keys are taken to be the same term when
+ * their fingerprints match, a false match about once in 2^48 probes.
+ * Immutable once built.
+ */
+final class WordTable {
+
+    /** Hash of a token without key characters so far; never the key of a term */
+    static final long EMPTY = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    static final int MAX_CLASSES = 16;
+    private static final int CLASS_BITS = MAX_CLASSES;
+    private static final long CLASS_MASK = (1L << CLASS_BITS) - 1;
+
+    private final long[] slots;
+    private final int mask;
+    private final int size;
+
+    private WordTable(long[] slots, int size) {
+        this.slots = slots;
+        this.mask = slots.length - 1;
+        this.size = size;
+    }
+
+    /**
+     * Whether the (lowercased) character is part of a token's key
+     */
+    static boolean isKeyChar(char ch) {
+        return (ch >= 'a' && ch <= 'z') || ch >= 128;
+    }
+
+    /**
+     * Extends a token's hash by its next key character
+     */
+    static long next(long hash, char ch) {
+        return (hash ^ ch) * FNV_PRIME;
+    }
+
+    /**
+     * Bitmask of the classes of the term with the token hash, 0 if no term has it
+     */
+    int classes(long hash) {
+        long mixed = mix(hash);
+        long fingerprint = fingerprint(mixed);
+        for (int slot = (int) mixed & mask; ; slot = (slot + 1) & mask) {
+            long entry = slots[slot];
+            if (entry == 0) {
+                return 0;
+            }
+            if (entry >>> CLASS_BITS == fingerprint) {
+                return (int) (entry & CLASS_MASK);
+            }
+        }
+    }
+
+    /**
+     * Number of distinct terms
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Heap held by the table
+     */
+    long sizeBytes() {
+        return 16 + (long) slots.length * Long.BYTES;
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Murmur3 finalizer: the slot comes from the low bits, the fingerprint from the high ones
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ hash >>> 33;
+    }
+
+    private static long fingerprint(long mixed) {
+        long fingerprint = mixed >>> CLASS_BITS;
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+    /**
+     * Collects term hashes and classes, then sizes and fills the table once
+     */
+    static final class Builder {
+
+        private long[] hashes = new long[64];
+        private int[] classes = new int[64];
+        private int count;
+
+        /**
+         * Adds the term to the classes of {@code classMask}; a term added again gets the
+         * union of its classes
+         *
+         * @return false if the term has no key characters or contains whitespace, so no
+         *         token can match it
+         */
+        boolean add(CharSequence term, int classMask) {
+            if (classMask == 0 || (classMask & ~CLASS_MASK) != 0) {
+                throw new IllegalArgumentException("Class mask out of range: " + Integer.toHexString(classMask));
+            }
+            long hash = EMPTY;
+            for (int i = 0; i < term.length(); i++) {
+                char ch = Character.toLowerCase(term.charAt(i));
+                if (LexiconScanner.isTokenSeparator(ch)) {
+                    return false;
+                }
+                if (isKeyChar(ch)) {
+                    hash = next(hash, ch);
+                }
+            }
+            if (hash == EMPTY) {
+                return false;
+            }
+            if (count == hashes.length) {
+                hashes = Arrays.copyOf(hashes, count * 2);
+                classes = Arrays.copyOf(classes, count * 2);
+            }
+            hashes[count] = hash;
+            classes[count] = classMask;
+            count++;
+            return true;
+        }
+
+        WordTable build() {
+            int capacity = Integer.highestOneBit(Math.max(16, count * 2 - 1)) << 1;
+            long[] slots = new long[capacity];
+            int mask = capacity - 1;
+            int size = 0;
+            for (int i = 0; i < count; i++) {
+                long mixed = mix(hashes[i]);
+                long fingerprint = fingerprint(mixed);
+                int slot = (int) mixed & mask;
+                while (slots[slot] != 0 && slots[slot] >>> CLASS_BITS != fingerprint) {
+                    slot = (slot + 1) & mask;
+                }
+                if (slots[slot] == 0) {
+                    size++;
+                }
+                slots[slot] |= fingerprint << CLASS_BITS | classes[i];
+            }
+            return new WordTable(slots, size);
+        }
+    }
+}